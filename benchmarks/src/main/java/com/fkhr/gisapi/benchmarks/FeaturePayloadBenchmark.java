@@ -0,0 +1,54 @@
+package com.fkhr.gisapi.benchmarks;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.ProtoUtils;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Kafka payload round trip: {@code toByteArray} as in FeatureServiceImpl.sendFeatureToKafka and
+ * {@code parseFrom} as in the feature topic listeners.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeaturePayloadBenchmark {
+    @Param({"Point", "PolygonWithHoles"})
+    String shape;
+
+    private FeatureResponseDto feature;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        GeometryConverter converter = new GeometryConverter();
+        feature = FeatureResponseDto.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setOwner("fleet-1")
+                .setDescription("benchmark feature")
+                .setGeometry(converter.toProto(Fixtures.geometry(shape), GeometryEncoding.PACKED))
+                .setTimestamp(LocalDateTime.now().toString())
+                .setProperties(ProtoUtils.mapToStruct(Fixtures.nestedProperties(2)))
+                .build();
+        payload = feature.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return feature.toByteArray();
+    }
+
+    @Benchmark
+    public FeatureResponseDto parse() throws InvalidProtocolBufferException {
+        return FeatureResponseDto.parseFrom(payload);
+    }
+}
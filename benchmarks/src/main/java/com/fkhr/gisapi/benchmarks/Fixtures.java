@@ -0,0 +1,66 @@
+package com.fkhr.gisapi.benchmarks;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class Fixtures {
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private Fixtures() {
+    }
+
+    static Geometry geometry(String shape) {
+        return switch (shape) {
+            case "Point" -> GEOMETRY_FACTORY.createPoint(new Coordinate(51.389, 35.6892));
+            case "LineString" -> GEOMETRY_FACTORY.createLineString(arc(51.0, 35.0, 0.5, 500, false));
+            case "PolygonWithHoles" -> polygonWithHoles(10_000, 4, 250);
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
+        };
+    }
+
+    /**
+     * A {@code depth}-levels deep properties map where every level holds a few scalars, a list and
+     * the next level.
+     */
+    static Map<String, Object> nestedProperties(int depth) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("name", "vehicle-" + depth);
+        properties.put("speed", 42.5 + depth);
+        properties.put("active", depth % 2 == 0);
+        properties.put("tags", List.of("gps", "fleet", "zone-" + depth));
+        if (depth > 0) {
+            properties.put("child", nestedProperties(depth - 1));
+        }
+        return properties;
+    }
+
+    private static Geometry polygonWithHoles(int shellVertices, int holes, int holeVertices) {
+        LinearRing shell = GEOMETRY_FACTORY.createLinearRing(arc(51.0, 35.0, 1.0, shellVertices, true));
+        List<LinearRing> interiors = new ArrayList<>();
+        for (int i = 0; i < holes; i++) {
+            double angle = 2 * Math.PI * i / holes;
+            interiors.add(GEOMETRY_FACTORY.createLinearRing(
+                    arc(51.0 + 0.5 * Math.cos(angle), 35.0 + 0.5 * Math.sin(angle), 0.1, holeVertices, true)));
+        }
+        return GEOMETRY_FACTORY.createPolygon(shell, interiors.toArray(LinearRing[]::new));
+    }
+
+    private static Coordinate[] arc(double x, double y, double radius, int vertices, boolean closed) {
+        Coordinate[] coordinates = new Coordinate[closed ? vertices + 1 : vertices];
+        for (int i = 0; i < vertices; i++) {
+            double angle = (closed ? 2 * Math.PI : Math.PI) * i / vertices;
+            coordinates[i] = new Coordinate(x + radius * Math.cos(angle), y + radius * Math.sin(angle));
+        }
+        if (closed) {
+            coordinates[vertices] = coordinates[0].copy();
+        }
+        return coordinates;
+    }
+}
@@ -0,0 +1,43 @@
+package com.fkhr.gisapi.benchmarks;
+
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeometryConverterBenchmark {
+    @Param({"Point", "LineString", "PolygonWithHoles"})
+    String shape;
+
+    @Param({"LIST_VALUE", "PACKED"})
+    GeometryEncoding encoding;
+
+    private GeometryConverter converter;
+    private Geometry geometry;
+    private com.fkhr.gisapi.Geometry proto;
+
+    @Setup
+    public void setUp() {
+        converter = new GeometryConverter();
+        geometry = converter.fromProto(converter.toProto(Fixtures.geometry(shape), encoding));
+        proto = converter.toProto(geometry, encoding);
+    }
+
+    @Benchmark
+    public Geometry fromProto() {
+        return converter.fromProto(proto);
+    }
+
+    @Benchmark
+    public com.fkhr.gisapi.Geometry toProto() {
+        return converter.toProto(geometry, encoding);
+    }
+}
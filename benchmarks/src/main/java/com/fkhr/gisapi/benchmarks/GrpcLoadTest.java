@@ -0,0 +1,125 @@
+package com.fkhr.gisapi.benchmarks;
+
+import com.fkhr.gisapi.CreateFeatureRequestDto;
+import com.fkhr.gisapi.FeatureId;
+import com.fkhr.gisapi.FeatureServiceGrpc;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.ProtoUtils;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test of concurrent getFeature/createFeature calls against a running server, used
+ * to compare {@code gis.execution.mode=platform} with {@code gis.execution.mode=virtual}: start the
+ * server in one mode, run this, restart in the other mode and run it again with the same arguments.
+ * Start the server with {@code --gis.cache.feature.maximum-size=0} so every getFeature reaches the
+ * database.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.fkhr.gisapi.benchmarks.GrpcLoadTest \
+ *      [target=localhost:5090] [clients=500] [seconds=30] [createRatio=0.2] [seed=1000]
+ * </pre>
+ */
+public class GrpcLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        String target = options.getOrDefault("target", "localhost:5090");
+        int clients = Integer.parseInt(options.getOrDefault("clients", "500"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        double createRatio = Double.parseDouble(options.getOrDefault("createRatio", "0.2"));
+        int seed = Integer.parseInt(options.getOrDefault("seed", "1000"));
+
+        ManagedChannel channel = ManagedChannelBuilder.forTarget(target).usePlaintext().build();
+        FeatureServiceGrpc.FeatureServiceBlockingStub stub = FeatureServiceGrpc.newBlockingStub(channel);
+        GeometryConverter converter = new GeometryConverter();
+        GeometryFactory geometryFactory = new GeometryFactory();
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < seed; i++) {
+            ids.add(stub.createFeature(createRequest(converter, geometryFactory)).getId());
+        }
+
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<long[]>> results = new ArrayList<>();
+        //virtual threads so the client side can hold thousands of calls in flight cheaply
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                results.add(workers.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            if (random.nextDouble() < createRatio) {
+                                stub.createFeature(createRequest(converter, geometryFactory));
+                            } else {
+                                stub.getFeature(FeatureId.newBuilder().setId(ids.get(random.nextInt(ids.size()))).build());
+                            }
+                        } catch (RuntimeException exception) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+        }
+
+        long[] all = results.stream().map(GrpcLoadTest::join).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("target=%s clients=%d seconds=%d createRatio=%.2f%n", target, clients, seconds, createRatio);
+        System.out.printf("calls=%d errors=%d throughput=%.1f calls/s%n", all.length, errors.get(), (double) all.length / seconds);
+        if (all.length > 0) {
+            System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f max=%.2f%n",
+                    percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), all[all.length - 1] / 1e6);
+        }
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static CreateFeatureRequestDto createRequest(GeometryConverter converter, GeometryFactory geometryFactory) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return CreateFeatureRequestDto.newBuilder()
+                .setOwner("load-test-" + random.nextInt(100))
+                .setDescription("load test feature")
+                .setGeometry(converter.toProto(geometryFactory.createPoint(
+                        new Coordinate(51 + random.nextDouble(), 35 + random.nextDouble()))))
+                .setProperties(ProtoUtils.mapToStruct(Map.of("speed", random.nextDouble(120))))
+                .build();
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+    }
+
+    private static long[] join(Future<long[]> future) {
+        try {
+            return future.get();
+        } catch (Exception exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        return Arrays.stream(args)
+                .map(arg -> arg.split("=", 2))
+                .collect(java.util.stream.Collectors.toMap(pair -> pair[0], pair -> pair.length > 1 ? pair[1] : ""));
+    }
+}
@@ -0,0 +1,38 @@
+package com.fkhr.gisapi.benchmarks;
+
+import com.fkhr.gisapi.utils.ProtoUtils;
+import com.google.protobuf.Struct;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtoUtilsBenchmark {
+    @Param({"1", "4", "16"})
+    int depth;
+
+    private Map<String, Object> properties;
+    private Struct struct;
+
+    @Setup
+    public void setUp() {
+        properties = Fixtures.nestedProperties(depth);
+        struct = ProtoUtils.mapToStruct(properties);
+    }
+
+    @Benchmark
+    public Map<String, Object> structToMap() {
+        return ProtoUtils.structToMap(struct);
+    }
+
+    @Benchmark
+    public Struct mapToStruct() {
+        return ProtoUtils.mapToStruct(properties);
+    }
+}
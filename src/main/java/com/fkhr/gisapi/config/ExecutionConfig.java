@@ -0,0 +1,72 @@
+package com.fkhr.gisapi.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.grpc.autoconfigure.server.GrpcServerExecutorProvider;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class ExecutionConfig {
+
+    @Bean
+    public ThreadPoolTaskExecutor importExecutor(@Value("${gis.import.writer-threads:4}") int writerThreads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(writerThreads);
+        executor.setMaxPoolSize(writerThreads);
+        executor.setThreadNamePrefix("feature-import-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Runs gRPC calls on virtual threads, so handlers blocked on the database park instead of holding
+     * a carrier. Without it spring-grpc keeps grpc-java's default cached thread pool.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "gis.execution.mode", havingValue = "virtual")
+    public GrpcServerExecutorProvider virtualThreadGrpcExecutor() {
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("grpc-", 0).factory());
+        return () -> executor;
+    }
+
+    /**
+     * Delivers feature updates to the individual streams and tears streams down.
+     */
+    @Bean
+    public ExecutorService streamExecutor(@Value("${gis.execution.mode:platform}") ExecutionMode mode,
+                                          @Value("${gis.execution.stream-threads:8}") int streamThreads) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("feature-stream-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(streamThreads, new CustomizableThreadFactory("feature-stream-"));
+    }
+
+    /**
+     * Loads and converts the id chunks of batch reads, several chunks of one call at a time.
+     */
+    @Bean
+    public ExecutorService batchReadExecutor(@Value("${gis.execution.mode:platform}") ExecutionMode mode,
+                                             @Value("${gis.execution.batch-read-threads:4}") int batchReadThreads) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("feature-batch-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(batchReadThreads, new CustomizableThreadFactory("feature-batch-"));
+    }
+
+    /**
+     * Threads of the feature topic listener containers.
+     */
+    @Bean
+    public SimpleAsyncTaskExecutor kafkaListenerTaskExecutor(@Value("${gis.execution.mode:platform}") ExecutionMode mode) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("feature-listener-");
+        executor.setVirtualThreads(mode == ExecutionMode.VIRTUAL);
+        return executor;
+    }
+}
@@ -0,0 +1,10 @@
+package com.fkhr.gisapi.config;
+
+/**
+ * Threads used for gRPC calls, stream fan-out and the feature topic listener, selected with
+ * {@code gis.execution.mode}.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL
+}
@@ -0,0 +1,24 @@
+package com.fkhr.gisapi.config;
+
+import com.fkhr.gisapi.kafka.Topics;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+@Configuration
+public class KafkaTopicConfig {
+
+    /**
+     * Created on startup if missing. Compaction keeps its size proportional to the number of
+     * features rather than the number of updates.
+     */
+    @Bean
+    public NewTopic featureLatestTopic(@Value("${gis.latest.partitions:6}") int partitions) {
+        return TopicBuilder.name(Topics.FEATURE_LATEST)
+                .partitions(partitions)
+                .compact()
+                .build();
+    }
+}
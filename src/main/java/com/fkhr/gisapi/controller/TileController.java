@@ -0,0 +1,37 @@
+package com.fkhr.gisapi.controller;
+
+import com.fkhr.gisapi.service.TileService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Mapbox Vector Tiles of the features, one layer named "features" per tile, for map clients such as
+ * MapLibre to request {@code /tiles/{z}/{x}/{y}.mvt} as the viewport moves.
+ */
+@RestController
+public class TileController {
+    public static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+    private final TileService tileService;
+
+    public TileController(TileService tileService) {
+        this.tileService = tileService;
+    }
+
+    @GetMapping("/tiles/{z}/{x}/{y}.mvt")
+    public ResponseEntity<byte[]> getTile(@PathVariable int z, @PathVariable int x, @PathVariable int y) {
+        byte[] tile = tileService.getTile(z, x, y);
+        if (tile.length == 0) {
+            return ResponseEntity.noContent().build();
+        }
+        //features move, so clients must check back rather than keep tiles
+        return ResponseEntity.ok()
+                .contentType(MVT)
+                .cacheControl(CacheControl.noCache())
+                .body(tile);
+    }
+}
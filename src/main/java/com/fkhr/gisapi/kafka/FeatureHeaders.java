@@ -0,0 +1,40 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Record headers of the feature topics, carrying what consumers route by so they can decide what
+ * to do with a record without parsing it. Records written before the headers existed have none;
+ * the accessors return null for them.
+ */
+public final class FeatureHeaders {
+    static public final String FEATURE_ID = "feature-id";
+    static public final String OWNER = "owner";
+
+    private FeatureHeaders() {
+    }
+
+    public static Header[] of(FeatureResponseDto feature) {
+        return new Header[]{
+                new RecordHeader(FEATURE_ID, feature.getId().getBytes(StandardCharsets.UTF_8)),
+                new RecordHeader(OWNER, feature.getOwner().getBytes(StandardCharsets.UTF_8))};
+    }
+
+    public static String featureId(Headers headers) {
+        return value(headers, FEATURE_ID);
+    }
+
+    public static String owner(Headers headers) {
+        return value(headers, OWNER);
+    }
+
+    private static String value(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,42 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import org.apache.kafka.common.header.Header;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Publishes a feature version to the feature topic, keyed by owner for the live streams and the
+ * history, and to the compacted feature-latest topic, keyed by id so compaction keeps exactly the
+ * latest version of each feature. Both carry the id and owner as {@link FeatureHeaders}, and the
+ * geometry packed, so consumers can route and forward records without parsing them.
+ */
+@Component
+public class FeaturePublisher {
+    private final KafkaProducer kafkaProducer;
+
+    public FeaturePublisher(KafkaProducer kafkaProducer) {
+        this.kafkaProducer = kafkaProducer;
+    }
+
+    /**
+     * Completes once both records were acknowledged, and fails if either was rejected by a full
+     * publisher lane or could not be delivered.
+     */
+    public CompletableFuture<Void> publish(FeatureResponseDto feature) {
+        byte[] featureBytes = feature.toByteArray();
+        Header[] headers = FeatureHeaders.of(feature);
+        return CompletableFuture.allOf(
+                kafkaProducer.send(Topics.FEATURE, feature.getOwner(), featureBytes, headers),
+                kafkaProducer.send(Topics.FEATURE_LATEST, feature.getId(), featureBytes, headers));
+    }
+
+    /**
+     * Tombstones a feature that no longer exists in feature-latest, so compaction drops it and new
+     * live streams no longer start with it.
+     */
+    public CompletableFuture<Void> publishRemoved(String featureId) {
+        return kafkaProducer.send(Topics.FEATURE_LATEST, featureId, null);
+    }
+}
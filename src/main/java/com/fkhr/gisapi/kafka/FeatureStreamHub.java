@@ -0,0 +1,359 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.GeofenceEvent;
+import com.fkhr.gisapi.spatial.GeometrySimplifier;
+import com.fkhr.gisapi.spatial.GridIndex;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import com.fkhr.gisapi.utils.SerializedMessage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Node-wide fan-out of the feature topic. A single listener container (one consumer group per node)
+ * routes every record to the streams subscribed to its owner, so opening or closing a stream only
+ * touches the in-memory subscriber map and never causes a Kafka rebalance. Records are routed by
+ * their {@link FeatureHeaders} and only parsed when a geofence, a property predicate or a stream
+ * taking another shape needs the feature; streams that take records as they are get the record's own
+ * bytes, and every other shape of a record is serialized once for all streams that want it. Node-local
+ * listeners get a {@link FeatureUpdate} and parse no more of it than they use.
+ * Streams with a geofence are kept in a {@link GridIndex} of their geofence envelopes instead, so a
+ * record is only tested against the geofences around it, plus those it was inside before so that
+ * leaving them is noticed.
+ */
+@Component
+public class FeatureStreamHub implements SmartLifecycle {
+    private static final Logger log = LoggerFactory.getLogger(FeatureStreamHub.class);
+
+    //every combination of geometry encoding and level of detail, full detail included
+    private static final int SHAPES = GeometryEncoding.values().length * (LevelOfDetail.MAX_ZOOM + 2);
+
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+    private final GeometryConverter geometryConverter;
+    private final GeometrySimplifier geometrySimplifier;
+    private final MeterRegistry meterRegistry;
+    private final AsyncTaskExecutor listenerTaskExecutor;
+    private final Map<String, Set<FeatureSubscriber>> subscribersByOwner = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> subscriberGauges = new ConcurrentHashMap<>();
+    private final GridIndex<FeatureSubscriber, FeatureSubscriber> geofences;
+    private final Set<FeatureSubscriber> geofencedSubscribers = ConcurrentHashMap.newKeySet();
+    //feature id -> geofenced subscribers that last saw the feature inside their geofence
+    private final Map<String, Set<FeatureSubscriber>> geofencesContaining = new ConcurrentHashMap<>();
+    private final List<Consumer<FeatureUpdate>> listeners = new CopyOnWriteArrayList<>();
+    private final String groupId = GroupIds.GIS_BRIDGE + "-" + UUID.randomUUID();
+    private final int concurrency;
+    private volatile ConcurrentMessageListenerContainer<String, byte[]> container;
+
+    public FeatureStreamHub(ConsumerFactory<String, byte[]> consumerFactory, GeometryConverter geometryConverter,
+                            GeometrySimplifier geometrySimplifier, MeterRegistry meterRegistry,
+                            @Qualifier("kafkaListenerTaskExecutor") AsyncTaskExecutor listenerTaskExecutor,
+                            @Value("${gis.stream.hub.concurrency:1}") int concurrency,
+                            @Value("${gis.stream.geofence.cell-size:0.05}") double geofenceCellSize,
+                            @Value("${gis.stream.geofence.max-cells-per-entry:256}") int geofenceMaxCells) {
+        this.consumerFactory = consumerFactory;
+        this.geometryConverter = geometryConverter;
+        this.geometrySimplifier = geometrySimplifier;
+        this.meterRegistry = meterRegistry;
+        this.listenerTaskExecutor = listenerTaskExecutor;
+        this.concurrency = concurrency;
+        this.geofences = new GridIndex<>(geofenceCellSize, geofenceMaxCells);
+        Gauge.builder("gis.stream.geofences", geofencedSubscribers, Set::size)
+                .description("Open live streams with a geofence")
+                .register(meterRegistry);
+    }
+
+    public FeatureSubscriber subscribe(FeatureSubscriber subscriber) {
+        SubscriptionFilter filter = subscriber.getFilter();
+        if (filter.hasGeofence()) {
+            geofencedSubscribers.add(subscriber);
+            geofences.put(subscriber, filter.getGeofence().getEnvelopeInternal(), subscriber);
+            return subscriber;
+        }
+        subscribersByOwner.compute(subscriber.getOwner(), (owner, subscribers) -> {
+            if (subscribers == null) {
+                subscribers = ConcurrentHashMap.newKeySet();
+                subscriberGauges.put(owner, Gauge.builder("gis.stream.subscribers", subscribers, Set::size)
+                        .description("Open live streams per owner")
+                        .tag("owner", owner)
+                        .strongReference(true)
+                        .register(meterRegistry));
+            }
+            subscribers.add(subscriber);
+            return subscribers;
+        });
+        return subscriber;
+    }
+
+    /**
+     * Registers the subscriber and starts its stream with the features of {@code snapshot} that pass
+     * its filter, e.g. its owner's current positions. With a geofence, the features found inside it
+     * count as having entered, so leaving it later is reported.
+     */
+    public FeatureSubscriber subscribe(FeatureSubscriber subscriber, Supplier<List<FeatureResponseDto>> snapshot) {
+        subscriber.beginSnapshot();
+        subscribe(subscriber);
+        SubscriptionFilter filter = subscriber.getFilter();
+        List<FeatureResponseDto> matching = new ArrayList<>();
+        for (FeatureResponseDto feature : snapshot.get()) {
+            if (!filter.hasGeofence()) {
+                if (filter.matchesAttributes(feature)) {
+                    matching.add(shape(feature, subscriber));
+                }
+                continue;
+            }
+            if (!filter.matches(feature, geometryConverter.fromProto(feature.getGeometry()))) {
+                continue;
+            }
+            if (!subscriber.markInside(feature.getId(), true)) {
+                trackContaining(feature.getId(), subscriber, true);
+            }
+            if (!filter.isTransitionsOnly()) {
+                matching.add(shape(feature, subscriber));
+            }
+        }
+        subscriber.deliverSnapshot(matching);
+        return subscriber;
+    }
+
+    /**
+     * Registers a node-local consumer of every feature update, e.g. in-memory indexes that must
+     * follow the topic regardless of which streams are open.
+     */
+    public void addListener(Consumer<FeatureUpdate> listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(FeatureSubscriber subscriber) {
+        subscriber.close();
+        if (subscriber.getFilter().hasGeofence()) {
+            geofencedSubscribers.remove(subscriber);
+            geofences.remove(subscriber);
+            for (String featureId : subscriber.getInside()) {
+                geofencesContaining.computeIfPresent(featureId, (id, subscribers) -> {
+                    subscribers.remove(subscriber);
+                    return subscribers.isEmpty() ? null : subscribers;
+                });
+            }
+            return;
+        }
+        subscribersByOwner.computeIfPresent(subscriber.getOwner(), (owner, subscribers) -> {
+            subscribers.remove(subscriber);
+            if (!subscribers.isEmpty()) {
+                return subscribers;
+            }
+            Gauge gauge = subscriberGauges.remove(owner);
+            if (gauge != null) {
+                meterRegistry.remove(gauge);
+            }
+            return null;
+        });
+    }
+
+    public int getSubscriberCount(String owner) {
+        Set<FeatureSubscriber> subscribers = subscribersByOwner.get(owner);
+        return subscribers == null ? 0 : subscribers.size();
+    }
+
+    /**
+     * The listener of the hub's container: routes one record of the feature topic.
+     */
+    void onRecord(ConsumerRecord<String, byte[]> record) {
+        if (subscribersByOwner.isEmpty() && geofencedSubscribers.isEmpty() && geofencesContaining.isEmpty()
+                && listeners.isEmpty()) {
+            return;
+        }
+        Delivery delivery = new Delivery(record);
+        try {
+            for (Consumer<FeatureUpdate> listener : listeners) {
+                try {
+                    listener.accept(delivery.update);
+                } catch (UncheckedIOException ex) {
+                    throw ex;
+                } catch (RuntimeException ex) {
+                    log.warn("Feature listener failed for {}", delivery.id(), ex);
+                }
+            }
+            Set<FeatureSubscriber> subscribers = subscribersByOwner.get(delivery.owner());
+            if (subscribers != null) {
+                for (FeatureSubscriber subscriber : subscribers) {
+                    //the owner already matches, only property predicates need the feature itself
+                    SubscriptionFilter filter = subscriber.getFilter();
+                    if (!filter.hasPredicates() || filter.matchesAttributes(delivery.feature())) {
+                        deliver(subscriber, delivery.id(), delivery.shaped(subscriber));
+                    }
+                }
+            }
+            routeToGeofences(delivery);
+        } catch (UncheckedIOException ex) {
+            log.warn("Skipping malformed feature record at {}-{}@{}: {}",
+                    record.topic(), record.partition(), record.offset(), ex.getCause().getMessage());
+        }
+    }
+
+    private void routeToGeofences(Delivery delivery) {
+        if (geofencedSubscribers.isEmpty() && geofencesContaining.isEmpty()) {
+            return;
+        }
+        Set<FeatureSubscriber> wasInside = geofencesContaining.get(delivery.id());
+        if (geofencedSubscribers.isEmpty() && wasInside == null) {
+            return;
+        }
+        FeatureResponseDto feature = delivery.feature();
+        Geometry geometry = geometryConverter.fromProto(feature.getGeometry());
+        Set<FeatureSubscriber> candidates = new HashSet<>();
+        geofences.query(geometry.getEnvelopeInternal(), entry -> candidates.add(entry.value()));
+        if (wasInside != null) {
+            candidates.addAll(wasInside);
+        }
+        for (FeatureSubscriber subscriber : candidates) {
+            SubscriptionFilter filter = subscriber.getFilter();
+            boolean inside = filter.matches(feature, geometry);
+            boolean before = subscriber.markInside(feature.getId(), inside);
+            if (inside != before) {
+                trackContaining(feature.getId(), subscriber, inside);
+            }
+            if (inside == before && (!inside || filter.isTransitionsOnly())) {
+                continue;
+            }
+            SerializedMessage outbound = inside == before ? delivery.shaped(subscriber)
+                    : SerializedMessage.of(shape(feature, subscriber).toBuilder()
+                    .setGeofenceEvent(inside ? GeofenceEvent.ENTER : GeofenceEvent.EXIT)
+                    .build());
+            deliver(subscriber, feature.getId(), outbound);
+        }
+    }
+
+    private void trackContaining(String featureId, FeatureSubscriber subscriber, boolean inside) {
+        if (inside) {
+            geofencesContaining.computeIfAbsent(featureId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        } else {
+            geofencesContaining.computeIfPresent(featureId, (id, subscribers) -> {
+                subscribers.remove(subscriber);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
+    }
+
+    private FeatureResponseDto shape(FeatureResponseDto feature, FeatureSubscriber subscriber) {
+        return geometryConverter.adapt(geometrySimplifier.apply(feature, subscriber.getLevelOfDetail()),
+                subscriber.getEncoding());
+    }
+
+    private void deliver(FeatureSubscriber subscriber, String featureId, SerializedMessage feature) {
+        if (!subscriber.deliver(featureId, feature)) {
+            unsubscribe(subscriber);
+        }
+    }
+
+    /**
+     * One record on its way to the streams: parsed on first use, shared with the listeners, and
+     * serialized at most once per geometry encoding and level of detail.
+     */
+    private final class Delivery {
+        private final FeatureUpdate update;
+        private final SerializedMessage[] shaped = new SerializedMessage[SHAPES];
+
+        private Delivery(ConsumerRecord<String, byte[]> record) {
+            this.update = FeatureUpdate.of(record);
+        }
+
+        FeatureResponseDto feature() {
+            return update.feature();
+        }
+
+        String id() {
+            return update.id();
+        }
+
+        String owner() {
+            return update.owner();
+        }
+
+        SerializedMessage shaped(FeatureSubscriber subscriber) {
+            int shape = subscriber.getEncoding().ordinal() * (LevelOfDetail.MAX_ZOOM + 2)
+                    + subscriber.getLevelOfDetail().zoom() + 1;
+            if (shaped[shape] == null) {
+                shaped[shape] = subscriber.isPassThrough()
+                        ? new SerializedMessage(update.bytes())
+                        : SerializedMessage.of(shape(feature(), subscriber));
+            }
+            return shaped[shape];
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (container != null) {
+            return;
+        }
+        ContainerProperties properties = new ContainerProperties(Topics.FEATURE);
+        properties.setGroupId(groupId);
+        //client ids tag the consumer metrics (e.g. records-lag-max) exported through Micrometer
+        properties.setClientId("feature-stream-hub");
+        Properties consumerProperties = new Properties();
+        consumerProperties.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        properties.setKafkaConsumerProperties(consumerProperties);
+        properties.setMessageListener((MessageListener<String, byte[]>) this::onRecord);
+        properties.setListenerTaskExecutor(listenerTaskExecutor);
+
+        ConcurrentMessageListenerContainer<String, byte[]> hubContainer =
+                new ConcurrentMessageListenerContainer<>(consumerFactory, properties);
+        hubContainer.setConcurrency(concurrency);
+        hubContainer.setBeanName("feature-stream-hub");
+        hubContainer.start();
+        container = hubContainer;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (container == null) {
+            return;
+        }
+        container.stop();
+        container = null;
+        subscribersByOwner.values().forEach(subscribers -> subscribers.forEach(FeatureSubscriber::close));
+        subscribersByOwner.clear();
+        geofencedSubscribers.forEach(subscriber -> {
+            subscriber.close();
+            geofences.remove(subscriber);
+        });
+        geofencedSubscribers.clear();
+        geofencesContaining.clear();
+        subscriberGauges.values().forEach(meterRegistry::remove);
+        subscriberGauges.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return container != null && container.isRunning();
+    }
+}
@@ -0,0 +1,366 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.SlowConsumerPolicy;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import com.fkhr.gisapi.utils.PassThroughMarshaller;
+import com.fkhr.gisapi.utils.SerializedMessage;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.Counter;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single gRPC stream registered with the {@link FeatureStreamHub}. Updates are queued by the hub
+ * and written to the stream by one task at a time on {@code executor}, and only while the transport
+ * reports it is ready, so a stream that is slow to write never holds up the Kafka listener or the
+ * other streams and grpc-java never buffers a backlog for it. At most {@code capacity} updates are
+ * queued; what happens beyond that depends on the {@link SlowConsumerPolicy}:
+ * <ul>
+ *     <li>CONFLATE keeps only the latest update per feature, so a lagging client skips straight to
+ *     the freshest position; past {@code capacity} distinct features the oldest one is dropped</li>
+ *     <li>DROP_OLDEST drops the oldest queued update</li>
+ *     <li>DISCONNECT fails the stream with RESOURCE_EXHAUSTED</li>
+ * </ul>
+ * A stream may start with a snapshot of the current features. The snapshot raises the limit by its
+ * size until as many updates have been written, so it never counts as falling behind. A feature
+ * already updated live while the snapshot was taken is left out of it, so the snapshot never
+ * overtakes a newer position.
+ * <p>
+ * However the stream ends, the call is ended with it: a failure is sent as its status, and a stream
+ * closed by the server, e.g. on shutdown, ends with UNAVAILABLE.
+ * <p>
+ * Updates are queued in their wire form and written through a {@link PassThroughMarshaller}, so the
+ * stream's method must be bound with one. A record from the feature topic that the stream takes as
+ * it is goes out with the very bytes it came in with.
+ */
+public class FeatureSubscriber {
+    /**
+     * Meters shared by every subscriber of the node.
+     */
+    public record Meters(Counter conflated, Counter dropped, Counter disconnected, AtomicInteger queued) {
+    }
+
+    private final SubscriptionFilter filter;
+    private final ServerCallStreamObserver<FeatureResponseDto> observer;
+    //the same observer, typed for the serialized messages its call's marshaller passes through
+    private final StreamObserver<Object> writer;
+    private final GeometryEncoding encoding;
+    private final LevelOfDetail levelOfDetail;
+    private final Executor executor;
+    private final SlowConsumerPolicy policy;
+    private final int capacity;
+    private final Meters meters;
+    //pending updates: latest is used when conflating, queue otherwise; both guarded by this
+    private final Map<String, SerializedMessage> latest;
+    private final ArrayDeque<SerializedMessage> queue;
+    private final AtomicInteger wip = new AtomicInteger();
+    //features currently inside the geofence, to tell entering and leaving apart
+    private final Set<String> inside = ConcurrentHashMap.newKeySet();
+    //features delivered live while a snapshot is being taken, null otherwise; guarded by this
+    private Set<String> updatedDuringSnapshot;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private volatile boolean finishing;
+    //the call was ended, only set by the drain task
+    private volatile boolean terminated;
+    private long dropped;
+    //room made for a snapshot that has not been written yet; guarded by this
+    private int snapshotAllowance;
+
+    @SuppressWarnings("unchecked")
+    public FeatureSubscriber(SubscriptionFilter filter, ServerCallStreamObserver<FeatureResponseDto> observer,
+                             GeometryEncoding encoding, LevelOfDetail levelOfDetail, Executor executor,
+                             SlowConsumerPolicy policy, int capacity, Meters meters) {
+        this.filter = filter;
+        this.observer = observer;
+        this.writer = (StreamObserver<Object>) (StreamObserver<?>) observer;
+        this.encoding = encoding;
+        this.levelOfDetail = levelOfDetail;
+        this.executor = executor;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.meters = meters;
+        this.latest = policy == SlowConsumerPolicy.CONFLATE ? new LinkedHashMap<>() : null;
+        this.queue = policy == SlowConsumerPolicy.CONFLATE ? null : new ArrayDeque<>();
+        observer.setOnReadyHandler(this::signal);
+    }
+
+    public String getOwner() {
+        return filter.getOwner();
+    }
+
+    public SubscriptionFilter getFilter() {
+        return filter;
+    }
+
+    public GeometryEncoding getEncoding() {
+        return encoding;
+    }
+
+    public LevelOfDetail getLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    /**
+     * Whether the stream takes feature records as they are on the topic, i.e. packed and at full
+     * detail.
+     */
+    public boolean isPassThrough() {
+        return encoding == GeometryEncoding.PACKED && levelOfDetail.isFull();
+    }
+
+    public SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+    public boolean isClosed() {
+        return closed || failure != null || terminated || observer.isCancelled();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getQueued() {
+        return latest != null ? latest.size() : queue.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Queues the feature for the stream. Returns false once the stream can no longer accept messages
+     * so the hub can drop the subscriber.
+     */
+    boolean deliver(FeatureResponseDto feature) {
+        return deliver(feature.getId(), SerializedMessage.of(feature));
+    }
+
+    /**
+     * Same as {@link #deliver(FeatureResponseDto)} for a feature already serialized.
+     */
+    boolean deliver(String featureId, SerializedMessage feature) {
+        if (isClosed()) {
+            return false;
+        }
+        boolean accepted = enqueue(featureId, feature);
+        signal();
+        return accepted;
+    }
+
+    private synchronized boolean enqueue(String featureId, SerializedMessage feature) {
+        if (updatedDuringSnapshot != null) {
+            updatedDuringSnapshot.add(featureId);
+        }
+        if (latest != null) {
+            if (latest.replace(featureId, feature) != null) {
+                meters.conflated().increment();
+                return true;
+            }
+            if (latest.size() >= capacity + snapshotAllowance) {
+                Iterator<SerializedMessage> oldest = latest.values().iterator();
+                oldest.next();
+                oldest.remove();
+                countDropped();
+            }
+            latest.put(featureId, feature);
+        } else {
+            if (queue.size() >= capacity + snapshotAllowance) {
+                if (policy == SlowConsumerPolicy.DISCONNECT) {
+                    //the stream is failed by the drain task, the only one allowed to call the observer
+                    failure = Status.RESOURCE_EXHAUSTED
+                            .withDescription("Stream fell more than " + capacity + " updates behind")
+                            .asRuntimeException();
+                    meters.disconnected().increment();
+                    return false;
+                }
+                queue.poll();
+                countDropped();
+            }
+            queue.offer(feature);
+        }
+        meters.queued().incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Starts tracking live updates, to be called before the subscriber is registered with the hub
+     * and the snapshot is read.
+     */
+    synchronized void beginSnapshot() {
+        updatedDuringSnapshot = new HashSet<>();
+    }
+
+    /**
+     * Queues the snapshot, skipping the features updated live since {@link #beginSnapshot()}.
+     */
+    void deliverSnapshot(List<FeatureResponseDto> snapshot) {
+        synchronized (this) {
+            for (FeatureResponseDto feature : snapshot) {
+                if (updatedDuringSnapshot.contains(feature.getId())) {
+                    continue;
+                }
+                if (latest != null) {
+                    if (latest.putIfAbsent(feature.getId(), SerializedMessage.of(feature)) != null) {
+                        continue;
+                    }
+                } else {
+                    queue.offer(SerializedMessage.of(feature));
+                }
+                snapshotAllowance++;
+                meters.queued().incrementAndGet();
+            }
+            updatedDuringSnapshot = null;
+        }
+        signal();
+    }
+
+    private void countDropped() {
+        dropped++;
+        meters.dropped().increment();
+        meters.queued().decrementAndGet();
+    }
+
+    private synchronized SerializedMessage poll() {
+        SerializedMessage next;
+        if (latest != null) {
+            Iterator<SerializedMessage> oldest = latest.values().iterator();
+            next = oldest.hasNext() ? oldest.next() : null;
+            if (next != null) {
+                oldest.remove();
+            }
+        } else {
+            next = queue.poll();
+        }
+        if (next != null) {
+            meters.queued().decrementAndGet();
+            if (snapshotAllowance > 0) {
+                snapshotAllowance--;
+            }
+        }
+        return next;
+    }
+
+    private synchronized void clear() {
+        meters.queued().addAndGet(-getQueued());
+        if (latest != null) {
+            latest.clear();
+        } else {
+            queue.clear();
+        }
+    }
+
+    private void signal() {
+        if (wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                //the node is shutting down
+                closed = true;
+            }
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        do {
+            if (!terminated) {
+                //a failure wins over a close, the hub closes a subscriber right after it failed
+                if (failure != null) {
+                    terminate(failure);
+                } else if (closed) {
+                    terminate(Status.UNAVAILABLE.withDescription("Stream closed by the server").asRuntimeException());
+                }
+            }
+            while (!isClosed() && observer.isReady()) {
+                SerializedMessage feature = poll();
+                if (feature == null) {
+                    break;
+                }
+                try {
+                    writer.onNext(feature);
+                } catch (RuntimeException ex) {
+                    //the call is broken, there is nothing left to end
+                    terminated = true;
+                }
+            }
+            if (finishing && !isClosed() && getQueued() == 0) {
+                terminate(null);
+            }
+            if (isClosed()) {
+                clear();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Ends the call with {@code error}, or completes it when null.
+     */
+    private void terminate(Throwable error) {
+        terminated = true;
+        if (observer.isCancelled()) {
+            return;
+        }
+        try {
+            if (error != null) {
+                observer.onError(error);
+            } else {
+                observer.onCompleted();
+            }
+        } catch (RuntimeException ignored) {
+            //the call is already closed
+        }
+    }
+
+    /**
+     * Records whether the feature is now inside the geofence and returns whether it was before.
+     */
+    boolean markInside(String featureId, boolean nowInside) {
+        return nowInside ? !inside.add(featureId) : inside.remove(featureId);
+    }
+
+    Set<String> getInside() {
+        return inside;
+    }
+
+    /**
+     * Completes the stream once everything queued so far has been written.
+     */
+    void complete() {
+        finishing = true;
+        signal();
+    }
+
+    /**
+     * Fails the stream without writing what is still queued.
+     */
+    void fail(Throwable error) {
+        failure = error;
+        signal();
+    }
+
+    /**
+     * Ends the stream without writing what is still queued; unless the client cancelled it or it
+     * already failed, the call ends with UNAVAILABLE.
+     */
+    void close() {
+        closed = true;
+        signal();
+    }
+}
@@ -0,0 +1,77 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.SlowConsumerPolicy;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the {@link FeatureSubscriber} of a stream with the node's queue limits, delivery executor
+ * and meters.
+ */
+@Component
+public class FeatureSubscriberFactory {
+    private final ExecutorService streamExecutor;
+    private final SlowConsumerPolicy defaultPolicy;
+    private final int queueCapacity;
+    private final FeatureSubscriber.Meters meters;
+
+    public FeatureSubscriberFactory(MeterRegistry meterRegistry,
+                                    @Qualifier("streamExecutor") ExecutorService streamExecutor,
+                                    @Value("${gis.stream.subscriber.policy:CONFLATE}") SlowConsumerPolicy defaultPolicy,
+                                    @Value("${gis.stream.subscriber.queue-capacity:1000}") int queueCapacity) {
+        if (defaultPolicy == SlowConsumerPolicy.SLOW_CONSUMER_POLICY_UNSPECIFIED
+                || defaultPolicy == SlowConsumerPolicy.UNRECOGNIZED) {
+            throw new IllegalArgumentException("gis.stream.subscriber.policy must be CONFLATE, DROP_OLDEST or DISCONNECT");
+        }
+        this.streamExecutor = streamExecutor;
+        this.defaultPolicy = defaultPolicy;
+        this.queueCapacity = queueCapacity;
+        AtomicInteger queued = new AtomicInteger();
+        Gauge.builder("gis.stream.queued", queued, AtomicInteger::get)
+                .description("Updates waiting to be written to live streams")
+                .register(meterRegistry);
+        this.meters = new FeatureSubscriber.Meters(
+                skipped(meterRegistry, "conflated"), skipped(meterRegistry, "dropped"),
+                Counter.builder("gis.stream.disconnects")
+                        .description("Live streams ended because they fell too far behind")
+                        .register(meterRegistry),
+                queued);
+    }
+
+    private static Counter skipped(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("gis.stream.skipped")
+                .description("Updates not written to a live stream because it fell behind")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    public FeatureSubscriber create(SubscriptionFilter filter, ServerCallStreamObserver<FeatureResponseDto> observer,
+                                    GeometryEncoding encoding, LevelOfDetail levelOfDetail, SlowConsumerPolicy policy) {
+        boolean unspecified = policy == SlowConsumerPolicy.SLOW_CONSUMER_POLICY_UNSPECIFIED
+                || policy == SlowConsumerPolicy.UNRECOGNIZED;
+        return new FeatureSubscriber(filter, observer, encoding, levelOfDetail, streamExecutor,
+                unspecified ? defaultPolicy : policy, queueCapacity, meters);
+    }
+
+    /**
+     * Subscriber for a {@link HistoryReplayer} replay. Replays pause their consumer rather than let
+     * the queue fill up, and must keep every position in order, so the queue is a plain FIFO.
+     */
+    public FeatureSubscriber createForReplay(SubscriptionFilter filter,
+                                             ServerCallStreamObserver<FeatureResponseDto> observer,
+                                             GeometryEncoding encoding, LevelOfDetail levelOfDetail) {
+        return new FeatureSubscriber(filter, observer, encoding, levelOfDetail, streamExecutor,
+                SlowConsumerPolicy.DISCONNECT, queueCapacity, meters);
+    }
+}
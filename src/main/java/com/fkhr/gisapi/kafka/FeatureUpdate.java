@@ -0,0 +1,103 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.Geometry;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A feature record as handed to the hub's node-local listeners, parsed only as far as a listener
+ * needs: the id and owner come from the {@link FeatureHeaders}, the geometry is read on its own
+ * without the properties, and the whole feature is parsed on first use. Parsed parts are kept, so a
+ * listener may hold on to the update and parse it later from another thread. A malformed record
+ * fails with an {@link UncheckedIOException} when the part that cannot be read is asked for.
+ */
+public final class FeatureUpdate {
+    private final byte[] bytes;
+    private final String id;
+    private final String owner;
+    private volatile Geometry geometry;
+    private volatile FeatureResponseDto feature;
+
+    private FeatureUpdate(byte[] bytes, String id, String owner, FeatureResponseDto feature) {
+        this.bytes = bytes;
+        this.id = id;
+        this.owner = owner;
+        this.feature = feature;
+    }
+
+    static FeatureUpdate of(ConsumerRecord<String, byte[]> record) {
+        return new FeatureUpdate(record.value(), FeatureHeaders.featureId(record.headers()),
+                FeatureHeaders.owner(record.headers()), null);
+    }
+
+    /**
+     * An update for a feature that is already parsed.
+     */
+    public static FeatureUpdate of(FeatureResponseDto feature) {
+        return new FeatureUpdate(null, feature.getId(), feature.getOwner(), feature);
+    }
+
+    public String id() {
+        return id != null ? id : feature().getId();
+    }
+
+    public String owner() {
+        return owner != null ? owner : feature().getOwner();
+    }
+
+    public Geometry geometry() {
+        FeatureResponseDto parsed = feature;
+        if (parsed != null) {
+            return parsed.getGeometry();
+        }
+        if (geometry == null) {
+            try {
+                Geometry.Builder builder = Geometry.newBuilder();
+                CodedInputStream input = CodedInputStream.newInstance(bytes);
+                for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+                    if (WireFormat.getTagFieldNumber(tag) == FeatureResponseDto.GEOMETRY_FIELD_NUMBER) {
+                        builder.mergeFrom(input.readBytes());
+                    } else if (!input.skipField(tag)) {
+                        break;
+                    }
+                }
+                geometry = builder.build();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return geometry;
+    }
+
+    public FeatureResponseDto feature() {
+        if (feature == null) {
+            try {
+                feature = FeatureResponseDto.parseFrom(bytes);
+            } catch (InvalidProtocolBufferException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return feature;
+    }
+
+    /**
+     * Whether the feature was parsed, by a listener or when the update was created.
+     */
+    boolean isParsed() {
+        return feature != null;
+    }
+
+    /**
+     * The record's bytes, shared and not to be modified; null for an update created from a parsed
+     * feature.
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,283 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.spatial.GeometrySimplifier;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.SerializedMessage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the feature topic between two timestamps to a single stream. Each replay gets its own
+ * consumer with manually assigned partitions and no group membership: it seeks straight to the
+ * first offset at or after {@code from} with {@code offsetsForTimes} and stops at the end offsets
+ * snapshotted when it started (or at {@code to}), so the cost depends on the window asked for and
+ * not on the size of the topic. With {@code followLive} the same consumer simply keeps polling past
+ * the snapshot, so the switch to live updates has no gap and no duplicates.
+ * <p>
+ * The consumer is paused while the stream has half its queue pending, so a replay never outruns the
+ * client and its queue never overflows.
+ * <p>
+ * Records are keyed by owner, so a replay for one owner only assigns the partition the producer's
+ * default partitioner puts that owner on, and reads the same amount no matter how many partitions
+ * the topic has. Replays without an owner, or a producer with a custom partitioner, read them all.
+ */
+@Component
+public class HistoryReplayer {
+    private static final Logger log = LoggerFactory.getLogger(HistoryReplayer.class);
+
+    /**
+     * A running replay.
+     */
+    public interface Replay {
+        void cancel();
+    }
+
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+    private final GeometryConverter geometryConverter;
+    private final GeometrySimplifier geometrySimplifier;
+    private final AsyncTaskExecutor listenerTaskExecutor;
+    private final boolean defaultPartitioner;
+    private final Duration pollTimeout;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong replays = new AtomicLong();
+
+    public HistoryReplayer(ConsumerFactory<String, byte[]> consumerFactory, GeometryConverter geometryConverter,
+                           GeometrySimplifier geometrySimplifier, ProducerFactory<String, byte[]> producerFactory, MeterRegistry meterRegistry,
+                           @Qualifier("kafkaListenerTaskExecutor") AsyncTaskExecutor listenerTaskExecutor,
+                           @Value("${gis.stream.history.poll-timeout:500ms}") Duration pollTimeout) {
+        this.consumerFactory = consumerFactory;
+        this.geometryConverter = geometryConverter;
+        this.geometrySimplifier = geometrySimplifier;
+        this.listenerTaskExecutor = listenerTaskExecutor;
+        Map<String, Object> producerConfig = producerFactory.getConfigurationProperties();
+        this.defaultPartitioner = producerConfig.get(ProducerConfig.PARTITIONER_CLASS_CONFIG) == null
+                && !Boolean.parseBoolean(String.valueOf(producerConfig.get(ProducerConfig.PARTITIONER_IGNORE_KEYS_CONFIG)));
+        this.pollTimeout = pollTimeout;
+        Gauge.builder("gis.stream.replays", active, AtomicInteger::get)
+                .description("History replays in progress")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts replaying the records with a timestamp in [{@code from}, {@code to}] to the subscriber,
+     * in epoch milliseconds. {@code to} of 0 means up to now, after which the stream either completes
+     * or, with {@code followLive}, continues with live updates.
+     */
+    public Replay start(FeatureSubscriber subscriber, long from, long to, boolean followLive) {
+        if (from < 0 || to < 0 || (to > 0 && to < from)) {
+            throw new CustomException(CustomError.INVALID_SUBSCRIPTION,
+                    new IllegalArgumentException("from_millis and to_millis must form a valid range"));
+        }
+        if (followLive && to > 0) {
+            throw new CustomException(CustomError.INVALID_SUBSCRIPTION,
+                    new IllegalArgumentException("follow_live cannot be combined with to_millis"));
+        }
+        Properties properties = new Properties();
+        properties.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        properties.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG,
+                String.valueOf(Math.max(1, subscriber.getCapacity() / 2)));
+        //a client id of its own, or concurrent replays share one JMX registration and one set of client metrics
+        Consumer<String, byte[]> consumer = consumerFactory.createConsumer(null, "feature-history-",
+                String.valueOf(replays.incrementAndGet()), properties);
+        ReplayTask task = new ReplayTask(consumer, subscriber, from, to, followLive);
+        active.incrementAndGet();
+        try {
+            listenerTaskExecutor.execute(task);
+        } catch (RuntimeException ex) {
+            active.decrementAndGet();
+            consumer.close();
+            throw ex;
+        }
+        return task;
+    }
+
+    /**
+     * Partitions a replay for {@code filter} has to read.
+     */
+    List<TopicPartition> partitionsFor(Consumer<String, byte[]> consumer, SubscriptionFilter filter) {
+        List<TopicPartition> partitions = consumer.partitionsFor(Topics.FEATURE).stream()
+                .map(info -> new TopicPartition(info.topic(), info.partition()))
+                .toList();
+        if (filter.getOwner().isEmpty() || !defaultPartitioner) {
+            return partitions;
+        }
+        //same bytes as the producer's StringSerializer, same hashing as its partitioner
+        byte[] key = filter.getOwner().getBytes(StandardCharsets.UTF_8);
+        int partition = Utils.toPositive(Utils.murmur2(key)) % partitions.size();
+        return List.of(new TopicPartition(Topics.FEATURE, partition));
+    }
+
+    private final class ReplayTask implements Runnable, Replay {
+        private final Consumer<String, byte[]> consumer;
+        private final FeatureSubscriber subscriber;
+        private final long from;
+        private final long to;
+        private final boolean followLive;
+        private volatile boolean cancelled;
+
+        private ReplayTask(Consumer<String, byte[]> consumer, FeatureSubscriber subscriber, long from, long to,
+                           boolean followLive) {
+            this.consumer = consumer;
+            this.subscriber = subscriber;
+            this.from = from;
+            this.to = to;
+            this.followLive = followLive;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            consumer.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<TopicPartition> partitions = partitionsFor(consumer, subscriber.getFilter());
+                consumer.assign(partitions);
+                Map<TopicPartition, Long> endOffsets = endOffsets(partitions);
+                seekToStart(partitions, endOffsets);
+                poll(partitions, endOffsets);
+            } catch (WakeupException ex) {
+                //cancelled
+            } catch (Exception ex) {
+                if (!cancelled) {
+                    log.warn("History replay for owner {} failed: {}", subscriber.getOwner(), ex.getMessage());
+                    subscriber.fail(ex);
+                }
+            } finally {
+                active.decrementAndGet();
+                consumer.close();
+            }
+        }
+
+        private Map<TopicPartition, Long> endOffsets(List<TopicPartition> partitions) {
+            Map<TopicPartition, Long> endOffsets = new HashMap<>(consumer.endOffsets(partitions));
+            if (to > 0) {
+                //records after to are not needed, so stop at the first one written after it
+                lookup(partitions, to + 1).forEach((partition, offset) -> {
+                    if (offset != null) {
+                        endOffsets.merge(partition, offset.offset(), Math::min);
+                    }
+                });
+            }
+            return endOffsets;
+        }
+
+        private void seekToStart(List<TopicPartition> partitions, Map<TopicPartition, Long> endOffsets) {
+            if (from == 0) {
+                consumer.seekToBeginning(partitions);
+                return;
+            }
+            Map<TopicPartition, OffsetAndTimestamp> startOffsets = lookup(partitions, from);
+            for (TopicPartition partition : partitions) {
+                OffsetAndTimestamp start = startOffsets.get(partition);
+                //no record at or after from: nothing to replay, start at the end
+                consumer.seek(partition, start != null ? start.offset() : endOffsets.get(partition));
+            }
+        }
+
+        private Map<TopicPartition, OffsetAndTimestamp> lookup(List<TopicPartition> partitions, long timestamp) {
+            Map<TopicPartition, Long> query = new HashMap<>();
+            partitions.forEach(partition -> query.put(partition, timestamp));
+            return consumer.offsetsForTimes(query);
+        }
+
+        private void poll(List<TopicPartition> partitions, Map<TopicPartition, Long> endOffsets) {
+            boolean paused = false;
+            boolean replaying = true;
+            while (!cancelled && !subscriber.isClosed()) {
+                if (replaying && reachedEnd(partitions, endOffsets)) {
+                    if (!followLive) {
+                        subscriber.complete();
+                        return;
+                    }
+                    replaying = false;
+                }
+                boolean full = subscriber.getQueued() >= Math.max(1, subscriber.getCapacity() / 2);
+                if (full && !paused) {
+                    consumer.pause(partitions);
+                    paused = true;
+                } else if (!full && paused) {
+                    consumer.resume(partitions);
+                    paused = false;
+                }
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(pollTimeout)) {
+                    if (!followLive && record.offset() >= endOffsets.get(new TopicPartition(record.topic(), record.partition()))) {
+                        continue;
+                    }
+                    deliver(record);
+                }
+            }
+        }
+
+        private boolean reachedEnd(List<TopicPartition> partitions, Map<TopicPartition, Long> endOffsets) {
+            for (TopicPartition partition : partitions) {
+                if (consumer.position(partition) < endOffsets.get(partition)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void deliver(ConsumerRecord<String, byte[]> record) {
+            //create times are not ordered within a partition, so the window is enforced per record too
+            if ((from > 0 && record.timestamp() < from) || (to > 0 && record.timestamp() > to)) {
+                return;
+            }
+            SubscriptionFilter filter = subscriber.getFilter();
+            String featureId = FeatureHeaders.featureId(record.headers());
+            String owner = FeatureHeaders.owner(record.headers());
+            if (!filter.hasGeofence() && !filter.hasPredicates() && subscriber.isPassThrough()
+                    && featureId != null && owner != null) {
+                //nothing to look at but the owner, the record goes out as it is
+                if (owner.equals(filter.getOwner())) {
+                    subscriber.deliver(featureId, new SerializedMessage(record.value()));
+                }
+                return;
+            }
+            try {
+                FeatureResponseDto feature = FeatureResponseDto.parseFrom(record.value());
+                //history has no enter/exit state, the geofence only narrows what is replayed
+                boolean matches = filter.hasGeofence()
+                        ? filter.matches(feature, geometryConverter.fromProto(feature.getGeometry()))
+                        : filter.matchesAttributes(feature);
+                if (matches) {
+                    subscriber.deliver(geometryConverter.adapt(
+                            geometrySimplifier.apply(feature, subscriber.getLevelOfDetail()), subscriber.getEncoding()));
+                }
+            } catch (Exception ex) {
+                log.warn("Skipping malformed feature record at {}-{}@{}: {}",
+                        record.topic(), record.partition(), record.offset(), ex.getMessage());
+            }
+        }
+    }
+}
@@ -1,17 +1,205 @@
 package com.fkhr.gisapi.kafka;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes records without blocking the caller. Records are handed to one of {@code lanes} single
+ * threaded lanes chosen by key, so records with the same key (owner) keep their order, and each lane
+ * queues at most {@code queueCapacity} records before new sends are rejected. Only the lane threads
+ * ever wait on the Kafka producer buffer. Retries are left to the producer itself ({@code retries},
+ * {@code delivery.timeout.ms}), which with idempotence keeps them in order; a record it gives up on
+ * is written to {@code <topic>-dlt}, headers included.
+ */
 @Service
 public class KafkaProducer {
+    private static final Header[] NO_HEADERS = new Header[0];
+
     private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor[] lanes;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final Map<String, Timer[]> sendTimers = new ConcurrentHashMap<>();
 
-    public KafkaProducer(KafkaTemplate<String, byte[]> kafkaTemplate) {
+    public KafkaProducer(KafkaTemplate<String, byte[]> kafkaTemplate, MeterRegistry meterRegistry,
+                         @Value("${gis.kafka.publisher.lanes:4}") int laneCount,
+                         @Value("${gis.kafka.publisher.queue-capacity:10000}") int queueCapacity) {
         this.kafkaTemplate = kafkaTemplate;
+        this.meterRegistry = meterRegistry;
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "kafka-publisher-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        registerMetrics();
+    }
+
+    /**
+     * Queues the record and returns immediately. The future completes once the broker acknowledged
+     * the record, and fails if the lane is full or the producer gave up on it.
+     */
+    public CompletableFuture<Void> send(String topic, String key, byte[] message) {
+        return send(topic, key, message, NO_HEADERS);
+    }
+
+    /**
+     * Same as {@link #send(String, String, byte[])}, with record headers.
+     */
+    public CompletableFuture<Void> send(String topic, String key, byte[] message, Header[] headers) {
+        CompletableFuture<Void> delivery = new CompletableFuture<>();
+        long start = System.nanoTime();
+        delivery.whenComplete((ignored, exception) -> sendTimer(topic, exception == null)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        try {
+            lane(key).execute(() -> publish(topic, key, message, headers, delivery));
+        } catch (RejectedExecutionException exception) {
+            rejected.increment();
+            delivery.completeExceptionally(exception);
+        }
+        return delivery;
+    }
+
+    private void publish(String topic, String key, byte[] message, Header[] headers, CompletableFuture<Void> delivery) {
+        CompletableFuture<?> sent;
+        try {
+            sent = kafkaTemplate.send(record(topic, key, message, headers));
+        } catch (Exception exception) {
+            sent = CompletableFuture.failedFuture(exception);
+        }
+        sent.whenComplete((result, exception) -> {
+            if (exception == null) {
+                delivered.increment();
+                delivery.complete(null);
+            } else {
+                //through the lane: the callback runs on the producer I/O thread, which must not send
+                resubmit(key, () -> deadLetter(topic, key, message, headers, delivery, exception), delivery, exception);
+            }
+        });
+    }
+
+    private void deadLetter(String topic, String key, byte[] message, Header[] headers,
+                            CompletableFuture<Void> delivery, Throwable cause) {
+        try {
+            kafkaTemplate.send(record(deadLetterTopic(topic), key, message, headers)).whenComplete((result, exception) -> {
+                if (exception == null) {
+                    deadLettered.increment();
+                } else {
+                    lost.increment();
+                }
+                delivery.completeExceptionally(cause);
+            });
+        } catch (Exception exception) {
+            lost.increment();
+            delivery.completeExceptionally(cause);
+        }
+    }
+
+    private static ProducerRecord<String, byte[]> record(String topic, String key, byte[] message, Header[] headers) {
+        //a sent record's headers turn read-only, so every attempt gets its own copy
+        return new ProducerRecord<>(topic, null, key, message, new RecordHeaders(headers));
+    }
+
+    private void resubmit(String key, Runnable task, CompletableFuture<Void> delivery, Throwable cause) {
+        try {
+            lane(key).execute(task);
+        } catch (RejectedExecutionException exception) {
+            lost.increment();
+            delivery.completeExceptionally(cause);
+        }
+    }
+
+    private Timer sendTimer(String topic, boolean success) {
+        Timer[] timers = sendTimers.computeIfAbsent(topic, key -> new Timer[]{
+                registerSendTimer(key, "success"), registerSendTimer(key, "failure")});
+        return timers[success ? 0 : 1];
+    }
+
+    private Timer registerSendTimer(String topic, String outcome) {
+        return Timer.builder("gis.kafka.send")
+                .description("Time from send() until the record was acknowledged or given up")
+                .tags("topic", topic, "outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private void registerMetrics() {
+        FunctionCounter.builder("gis.kafka.publisher.records", delivered, LongAdder::sum)
+                .tag("result", "delivered").register(meterRegistry);
+        FunctionCounter.builder("gis.kafka.publisher.records", deadLettered, LongAdder::sum)
+                .tag("result", "dead_lettered").register(meterRegistry);
+        FunctionCounter.builder("gis.kafka.publisher.records", rejected, LongAdder::sum)
+                .tag("result", "rejected").register(meterRegistry);
+        FunctionCounter.builder("gis.kafka.publisher.records", lost, LongAdder::sum)
+                .tag("result", "lost").register(meterRegistry);
+        Gauge.builder("gis.kafka.publisher.queued", this, KafkaProducer::getQueuedRecords)
+                .description("Records waiting in the publisher lanes").register(meterRegistry);
+    }
+
+    private ThreadPoolExecutor lane(String key) {
+        return lanes[key == null ? 0 : Math.floorMod(key.hashCode(), lanes.length)];
+    }
+
+    public static String deadLetterTopic(String topic) {
+        return topic + "-dlt";
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getLost() {
+        return lost.sum();
+    }
+
+    public int getQueuedRecords() {
+        int queued = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            queued += lane.getQueue().size();
+        }
+        return queued;
     }
 
-    public void send(String topic, String key, byte[] message){
-        kafkaTemplate.send(topic, key, message);
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        kafkaTemplate.flush();
     }
 }
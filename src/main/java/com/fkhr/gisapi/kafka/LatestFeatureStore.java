@@ -0,0 +1,217 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The latest version of every feature, materialized on each node from the compacted feature-latest
+ * topic so a new live stream can start from its owner's current positions instead of waiting for
+ * the next update or replaying the feature topic. The topic is read from the beginning at startup,
+ * which costs one record per feature thanks to compaction, and followed afterwards. Versions are
+ * kept serialized in {@link OffHeapRecords}; only the id and owner of each feature are on the heap.
+ * The owner is taken from the record's {@link FeatureHeaders}, so loading the topic parses nothing.
+ */
+@Component
+public class LatestFeatureStore implements SmartLifecycle {
+    private static final Logger log = LoggerFactory.getLogger(LatestFeatureStore.class);
+
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+    private final AsyncTaskExecutor listenerTaskExecutor;
+    private final boolean enabled;
+    private final Duration pollTimeout;
+    private final OffHeapRecords records;
+    private final Map<String, String> ownerById = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> idsByOwner = new ConcurrentHashMap<>();
+    private final List<java.util.function.Consumer<String>> removalListeners = new CopyOnWriteArrayList<>();
+    private volatile Consumer<String, byte[]> consumer;
+    private volatile boolean running;
+    private volatile boolean caughtUp;
+
+    public LatestFeatureStore(ConsumerFactory<String, byte[]> consumerFactory, MeterRegistry meterRegistry,
+                              @Qualifier("kafkaListenerTaskExecutor") AsyncTaskExecutor listenerTaskExecutor,
+                              @Value("${gis.latest.enabled:true}") boolean enabled,
+                              @Value("${gis.latest.segment-size:64MB}") DataSize segmentSize,
+                              @Value("${gis.latest.max-size:1GB}") DataSize maxSize,
+                              @Value("${gis.latest.poll-timeout:500ms}") Duration pollTimeout) {
+        this.consumerFactory = consumerFactory;
+        this.listenerTaskExecutor = listenerTaskExecutor;
+        this.enabled = enabled;
+        this.pollTimeout = pollTimeout;
+        this.records = new OffHeapRecords((int) segmentSize.toBytes(), maxSize.toBytes());
+        Gauge.builder("gis.latest.features", records, OffHeapRecords::size)
+                .description("Features in the latest feature store")
+                .register(meterRegistry);
+        Gauge.builder("gis.latest.bytes", records, OffHeapRecords::liveBytes)
+                .description("Bytes of the feature versions in the latest feature store")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("gis.latest.allocated", records, OffHeapRecords::allocatedBytes)
+                .description("Direct memory allocated by the latest feature store")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Whether the store has read the feature-latest topic up to where it ended at startup.
+     */
+    public boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    /**
+     * Registers a node-local consumer of the ids of features tombstoned in feature-latest, i.e. no
+     * longer stored, so in-memory state about them can be dropped.
+     */
+    public void addRemovalListener(java.util.function.Consumer<String> listener) {
+        removalListeners.add(listener);
+    }
+
+    /**
+     * The latest version of each feature of {@code owner}.
+     */
+    public List<FeatureResponseDto> snapshot(String owner) {
+        Set<String> ids = idsByOwner.get(owner);
+        if (ids == null) {
+            return List.of();
+        }
+        List<FeatureResponseDto> features = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            byte[] value = records.get(id);
+            if (value == null) {
+                continue;
+            }
+            try {
+                features.add(FeatureResponseDto.parseFrom(value));
+            } catch (InvalidProtocolBufferException ex) {
+                log.warn("Skipping unreadable stored version of feature {}", id);
+            }
+        }
+        return features;
+    }
+
+    private void consume() {
+        try {
+            List<TopicPartition> partitions = List.of();
+            while (running && partitions.isEmpty()) {
+                //the topic may still be being created
+                partitions = consumer.partitionsFor(Topics.FEATURE_LATEST, pollTimeout).stream()
+                        .map(info -> new TopicPartition(info.topic(), info.partition()))
+                        .toList();
+            }
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            while (running) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(pollTimeout)) {
+                    apply(record);
+                }
+                if (!caughtUp && endOffsets.entrySet().stream()
+                        .allMatch(end -> consumer.position(end.getKey()) >= end.getValue())) {
+                    caughtUp = true;
+                    log.info("Latest feature store loaded {} features", records.size());
+                }
+            }
+        } catch (WakeupException ex) {
+            //stopped
+        } catch (Exception ex) {
+            log.error("Latest feature store stopped following {}", Topics.FEATURE_LATEST, ex);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private void apply(ConsumerRecord<String, byte[]> record) {
+        String id = record.key();
+        if (id == null) {
+            return;
+        }
+        if (record.value() == null) {
+            records.remove(id);
+            index(id, null);
+            for (java.util.function.Consumer<String> listener : removalListeners) {
+                listener.accept(id);
+            }
+            return;
+        }
+        String owner = FeatureHeaders.owner(record.headers());
+        if (owner == null) {
+            try {
+                owner = FeatureResponseDto.parseFrom(record.value()).getOwner();
+            } catch (InvalidProtocolBufferException ex) {
+                log.warn("Skipping malformed feature record at {}-{}@{}: {}",
+                        record.topic(), record.partition(), record.offset(), ex.getMessage());
+                return;
+            }
+        }
+        if (records.put(id, record.value())) {
+            index(id, owner);
+        } else {
+            log.warn("Latest feature store is full, feature {} is left out", id);
+            index(id, null);
+        }
+    }
+
+    private void index(String id, String owner) {
+        String previous = owner == null ? ownerById.remove(id) : ownerById.put(id, owner);
+        if (previous != null && !previous.equals(owner)) {
+            idsByOwner.computeIfPresent(previous, (key, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+        if (owner != null && !owner.equals(previous)) {
+            idsByOwner.computeIfAbsent(owner, key -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        consumer = consumerFactory.createConsumer(null, "feature-latest-store", null, properties);
+        running = true;
+        listenerTaskExecutor.execute(this::consume);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        consumer.wakeup();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,147 @@
+package com.fkhr.gisapi.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Byte records by key, kept in direct memory segments of {@code segmentSize} bytes so that a large
+ * number of records neither grows the heap nor adds to GC work. Records are appended; the space of a
+ * replaced or removed record is reclaimed by copying the live records into fresh segments once
+ * {@code maxSize} is reached, at which point both generations briefly coexist.
+ */
+class OffHeapRecords {
+    private record Slot(int segment, int offset, int length) {
+    }
+
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //all guarded by lock
+    private final Map<String, Slot> slots = new HashMap<>();
+    private List<ByteBuffer> segments = new ArrayList<>();
+    private int writeOffset;
+    private long liveBytes;
+
+    OffHeapRecords(int segmentSize, long maxSize) {
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, maxSize / segmentSize);
+    }
+
+    /**
+     * Stores the record, replacing the previous one. Returns false, without storing it, if it is
+     * larger than a segment or there is no room left even after compacting.
+     */
+    boolean put(String key, byte[] value) {
+        lock.writeLock().lock();
+        try {
+            remove(key);
+            if (value.length > segmentSize) {
+                return false;
+            }
+            if (!fits(value.length)) {
+                compact();
+                if (!fits(value.length)) {
+                    return false;
+                }
+            }
+            slots.put(key, append(value, 0, value.length));
+            liveBytes += value.length;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(String key) {
+        lock.writeLock().lock();
+        try {
+            Slot slot = slots.remove(key);
+            if (slot != null) {
+                liveBytes -= slot.length();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    byte[] get(String key) {
+        lock.readLock().lock();
+        try {
+            Slot slot = slots.get(key);
+            if (slot == null) {
+                return null;
+            }
+            byte[] value = new byte[slot.length()];
+            segments.get(slot.segment()).get(slot.offset(), value);
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long liveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long allocatedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) segments.size() * segmentSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean fits(int length) {
+        return (!segments.isEmpty() && segmentSize - writeOffset >= length) || segments.size() < maxSegments;
+    }
+
+    private Slot append(byte[] value, int from, int length) {
+        if (segments.isEmpty() || segmentSize - writeOffset < length) {
+            segments.add(ByteBuffer.allocateDirect(segmentSize));
+            writeOffset = 0;
+        }
+        int segment = segments.size() - 1;
+        segments.get(segment).put(writeOffset, value, from, length);
+        Slot slot = new Slot(segment, writeOffset, length);
+        writeOffset += length;
+        return slot;
+    }
+
+    private void compact() {
+        if (liveBytes == (long) (segments.size() - 1) * segmentSize + writeOffset) {
+            //nothing to reclaim
+            return;
+        }
+        List<ByteBuffer> old = segments;
+        segments = new ArrayList<>();
+        writeOffset = 0;
+        byte[] value = new byte[0];
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            Slot slot = entry.getValue();
+            if (value.length < slot.length()) {
+                value = new byte[slot.length()];
+            }
+            old.get(slot.segment()).get(slot.offset(), value, 0, slot.length());
+            entry.setValue(append(value, 0, slot.length()));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.GetFeatureLocationStreamRequestDto;
+import com.fkhr.gisapi.PropertyPredicate;
+import com.fkhr.gisapi.spatial.PreparedGeometryCache;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+
+import java.util.List;
+
+/**
+ * What a location stream asked for: an owner, a geofence, property predicates, or any combination.
+ * The geofence comes prepared, since it is tested against every update that falls inside its
+ * envelope, and streams on the same geofence share it, see {@link PreparedGeometryCache}.
+ */
+public class SubscriptionFilter {
+    private final String owner;
+    private final Geometry geofence;
+    private final PreparedGeometry preparedGeofence;
+    private final List<PropertyPredicate> predicates;
+    private final boolean transitionsOnly;
+
+    public SubscriptionFilter(String owner, PreparedGeometry geofence, List<PropertyPredicate> predicates,
+                              boolean transitionsOnly) {
+        if (owner.isEmpty() && geofence == null) {
+            throw new CustomException(CustomError.INVALID_SUBSCRIPTION,
+                    new IllegalArgumentException("owner or geofence is required"));
+        }
+        if (transitionsOnly && geofence == null) {
+            throw new CustomException(CustomError.INVALID_SUBSCRIPTION,
+                    new IllegalArgumentException("transitions_only requires a geofence"));
+        }
+        this.owner = owner;
+        this.geofence = geofence == null ? null : geofence.getGeometry();
+        this.preparedGeofence = geofence;
+        this.predicates = List.copyOf(predicates);
+        this.transitionsOnly = transitionsOnly;
+    }
+
+    /**
+     * Builds the filter of a stream request, {@code geofence} being its already prepared geofence.
+     */
+    public static SubscriptionFilter of(GetFeatureLocationStreamRequestDto request, PreparedGeometry geofence) {
+        return new SubscriptionFilter(request.getOwner(), geofence, request.getPredicatesList(),
+                request.getTransitionsOnly());
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public Geometry getGeofence() {
+        return geofence;
+    }
+
+    public boolean hasGeofence() {
+        return geofence != null;
+    }
+
+    public boolean hasPredicates() {
+        return !predicates.isEmpty();
+    }
+
+    public boolean isTransitionsOnly() {
+        return transitionsOnly;
+    }
+
+    /**
+     * Owner and property predicates, i.e. everything except the geofence.
+     */
+    public boolean matchesAttributes(FeatureResponseDto feature) {
+        if (!owner.isEmpty() && !owner.equals(feature.getOwner())) {
+            return false;
+        }
+        Struct properties = feature.getProperties();
+        for (PropertyPredicate predicate : predicates) {
+            if (!matches(predicate, properties.getFieldsOrDefault(predicate.getKey(), null))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the feature passes the filter, {@code geometry} being its decoded geometry. It is only
+     * looked at when there is a geofence.
+     */
+    public boolean matches(FeatureResponseDto feature, Geometry geometry) {
+        return matchesAttributes(feature) && (preparedGeofence == null || preparedGeofence.intersects(geometry));
+    }
+
+    private static boolean matches(PropertyPredicate predicate, Value actual) {
+        if (predicate.getOperator() == PropertyPredicate.Operator.EXISTS) {
+            return actual != null && actual.getKindCase() != Value.KindCase.NULL_VALUE;
+        }
+        if (actual == null) {
+            return predicate.getOperator() == PropertyPredicate.Operator.NE;
+        }
+        Value expected = predicate.getValue();
+        Integer comparison = compare(actual, expected);
+        return switch (predicate.getOperator()) {
+            case EQ -> actual.equals(expected);
+            case NE -> !actual.equals(expected);
+            case LT -> comparison != null && comparison < 0;
+            case LTE -> comparison != null && comparison <= 0;
+            case GT -> comparison != null && comparison > 0;
+            case GTE -> comparison != null && comparison >= 0;
+            default -> false;
+        };
+    }
+
+    /**
+     * Orders two numbers or two strings; anything else is not comparable and yields null.
+     */
+    private static Integer compare(Value actual, Value expected) {
+        if (actual.hasNumberValue() && expected.hasNumberValue()) {
+            return Double.compare(actual.getNumberValue(), expected.getNumberValue());
+        }
+        if (actual.hasStringValue() && expected.hasStringValue()) {
+            return actual.getStringValue().compareTo(expected.getStringValue());
+        }
+        return null;
+    }
+}
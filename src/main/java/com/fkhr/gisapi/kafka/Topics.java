@@ -2,4 +2,8 @@ package com.fkhr.gisapi.kafka;
 
 public final class Topics {
     static public final String FEATURE = "feature";
+    /**
+     * Compacted, keyed by feature id: the latest version of every feature.
+     */
+    static public final String FEATURE_LATEST = "feature-latest";
 }
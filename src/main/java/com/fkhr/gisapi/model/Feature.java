@@ -11,6 +11,13 @@ import java.time.LocalDateTime;
 import java.util.Map;
 import java.util.UUID;
 
+/**
+ * A feature row. The table is created by schema.sql and range-partitioned on {@code timestamp}, the
+ * time of the last update, so its primary key is (id, timestamp) and cannot keep ids unique on its
+ * own: every insert first claims its id in the unpartitioned feature_id table, see
+ * {@link com.fkhr.gisapi.repository.FeatureBatchWriter}. A position update moves the row to the
+ * partition of its new timestamp, so retention drops the features not updated for that long.
+ */
 @Entity
 public class Feature {
     @Id
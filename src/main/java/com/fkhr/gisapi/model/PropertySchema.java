@@ -0,0 +1,76 @@
+package com.fkhr.gisapi.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+import java.util.UUID;
+
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"owner", "property_key"}))
+public class PropertySchema {
+    @Id
+    UUID id;
+    String owner;
+    @Column(length = 48)
+    String propertyKey;
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    PropertyType type;
+    boolean indexed;
+
+    public PropertySchema() {
+    }
+
+    public PropertySchema(UUID id, String owner, String propertyKey, PropertyType type, boolean indexed) {
+        this.id = id;
+        this.owner = owner;
+        this.propertyKey = propertyKey;
+        this.type = type;
+        this.indexed = indexed;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getPropertyKey() {
+        return propertyKey;
+    }
+
+    public void setPropertyKey(String propertyKey) {
+        this.propertyKey = propertyKey;
+    }
+
+    public PropertyType getType() {
+        return type;
+    }
+
+    public void setType(PropertyType type) {
+        this.type = type;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+}
@@ -0,0 +1,7 @@
+package com.fkhr.gisapi.model;
+
+public enum PropertyType {
+    NUMBER,
+    STRING,
+    BOOLEAN
+}
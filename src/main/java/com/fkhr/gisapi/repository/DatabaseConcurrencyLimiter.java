@@ -0,0 +1,43 @@
+package com.fkhr.gisapi.repository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of callers using the connection pool at once. With virtual threads there can be
+ * far more concurrent handlers than connections; excess callers wait here in FIFO order (parking
+ * their virtual thread) rather than piling up on Hikari's connection timeout.
+ */
+@Component
+public class DatabaseConcurrencyLimiter {
+    private final Semaphore permits;
+
+    public DatabaseConcurrencyLimiter(MeterRegistry meterRegistry,
+                                      @Value("${gis.execution.db-concurrency:10}") int maxConcurrency) {
+        this.permits = new Semaphore(maxConcurrency, true);
+        Gauge.builder("gis.db.waiting", permits, Semaphore::getQueueLength)
+                .description("Callers waiting for a database permit")
+                .register(meterRegistry);
+    }
+
+    public <T> T call(Supplier<T> action) {
+        permits.acquireUninterruptibly();
+        try {
+            return action.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+}
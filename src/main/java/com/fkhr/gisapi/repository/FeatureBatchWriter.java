@@ -0,0 +1,137 @@
+package com.fkhr.gisapi.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fkhr.gisapi.model.Feature;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Inserts features with JDBC batches instead of one {@code save} round trip per entity. Combined with
+ * {@code reWriteBatchedInserts=true} on the JDBC url the driver sends each batch as multi-row inserts.
+ * The feature table is partitioned on a column outside the id, so the ids of a batch are claimed in
+ * feature_id in the same transaction, and a batch reusing an id is rejected as a whole.
+ */
+@Repository
+public class FeatureBatchWriter {
+    private static final String INSERT_SQL = "INSERT INTO feature (id, owner, description, geometry, timestamp, properties) " +
+            "VALUES (?, ?, ?, ST_GeomFromWKB(?, " + GeometryConverter.SRID + "), ?, CAST(? AS jsonb))";
+    private static final String CLAIM_IDS_SQL = "INSERT INTO feature_id SELECT unnest(CAST(? AS uuid[])) ON CONFLICT DO NOTHING RETURNING id";
+    private static final String UPDATE_POSITION_SQL = "UPDATE feature SET geometry = ST_GeomFromWKB(?, " +
+            GeometryConverter.SRID + "), timestamp = ? WHERE id = ?";
+
+    /**
+     * The latest position of a feature and when it was reported.
+     */
+    public record PositionUpdate(UUID id, Geometry geometry, LocalDateTime timestamp) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Timer insertTimer;
+    private final Timer updateTimer;
+
+    public FeatureBatchWriter(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                              ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.insertTimer = Timer.builder("gis.feature.batch.insert")
+                .description("Latency of one JDBC batch insert of features")
+                .register(meterRegistry);
+        this.updateTimer = Timer.builder("gis.feature.batch.update")
+                .description("Latency of one JDBC batch update of feature positions")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Inserts the features, or none of them with {@link CustomError#FEATURE_ALREADY_EXIST} if one
+     * of their ids is already taken or repeated.
+     */
+    public void insertAll(List<Feature> features) {
+        insertTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+            claimIds(features);
+            batchInsert(features);
+        }));
+    }
+
+    /**
+     * Moves the features to their new positions in one JDBC batch. The rows move to the partition of
+     * their new timestamp. Returns the ids of the features that no longer exist, e.g. because their
+     * partition was dropped for retention.
+     */
+    public List<UUID> updatePositions(List<PositionUpdate> updates) {
+        return updateTimer.record(() -> {
+            WKBWriter wkbWriter = new WKBWriter();
+            int[][] counts = jdbcTemplate.batchUpdate(UPDATE_POSITION_SQL, updates, updates.size(), (statement, update) -> {
+                statement.setBytes(1, wkbWriter.write(update.geometry()));
+                statement.setTimestamp(2, Timestamp.valueOf(update.timestamp()));
+                statement.setObject(3, update.id());
+            });
+            List<UUID> missing = new ArrayList<>();
+            int index = 0;
+            for (int[] batch : counts) {
+                for (int count : batch) {
+                    if (count == 0) {
+                        missing.add(updates.get(index).id());
+                    }
+                    index++;
+                }
+            }
+            return missing;
+        });
+    }
+
+    private void claimIds(List<Feature> features) {
+        UUID[] ids = features.stream().map(Feature::getId).toArray(UUID[]::new);
+        List<UUID> claimed = jdbcTemplate.query(CLAIM_IDS_SQL,
+                statement -> statement.setArray(1, statement.getConnection().createArrayOf("uuid", ids)),
+                (resultSet, row) -> resultSet.getObject(1, UUID.class));
+        if (claimed.size() == ids.length) {
+            return;
+        }
+        Set<UUID> taken = new LinkedHashSet<>(Arrays.asList(ids));
+        claimed.forEach(taken::remove);
+        throw new CustomException(CustomError.FEATURE_ALREADY_EXIST, new IllegalArgumentException(taken.isEmpty()
+                ? "A feature id is repeated in the batch"
+                : "Feature ids already exist: " + taken.stream().limit(10).toList()));
+    }
+
+    private void batchInsert(List<Feature> features) {
+        WKBWriter wkbWriter = new WKBWriter();
+        jdbcTemplate.batchUpdate(INSERT_SQL, features, features.size(), (statement, feature) -> {
+            statement.setObject(1, feature.getId());
+            statement.setString(2, feature.getOwner());
+            statement.setString(3, feature.getDescription());
+            statement.setBytes(4, wkbWriter.write(feature.getGeometry()));
+            statement.setTimestamp(5, Timestamp.valueOf(feature.getTimestamp()));
+            statement.setString(6, toJson(feature));
+        });
+    }
+
+    private String toJson(Feature feature) {
+        try {
+            return objectMapper.writeValueAsString(feature.getProperties());
+        } catch (JsonProcessingException exception) {
+            throw new IllegalArgumentException("Properties of feature " + feature.getId() + " are not serializable", exception);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.fkhr.gisapi.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Range partitions of the feature table on {@code timestamp}, see schema.sql. Partition DDL has no
+ * JPA counterpart and cannot bind parameters, so statements are built here from names and bounds
+ * that never come from a client.
+ */
+@Repository
+public class FeaturePartitionRepository {
+    private static final Pattern BOUNDS = Pattern.compile("FROM \\('([^']+)'\\) TO \\('([^']+)'\\)");
+    private static final DateTimeFormatter LITERAL = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * A partition holding the rows with {@code from <= timestamp < to}. A partition whose detach was
+     * interrupted is still listed, marked as pending.
+     */
+    public record Partition(String name, LocalDateTime from, LocalDateTime to, boolean detachPending) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FeaturePartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Whether the feature table is partitioned; a table created by an older version is not.
+     */
+    public boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('feature'))",
+                Boolean.class));
+    }
+
+    /**
+     * The range partitions of the feature table. Partitions with other bounds (e.g. DEFAULT) are
+     * not managed here and left out.
+     */
+    public List<Partition> findPartitions() {
+        List<Partition> partitions = new ArrayList<>();
+        jdbcTemplate.query("SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound, i.inhdetachpending " +
+                "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = 'feature'::regclass", resultSet -> {
+            Matcher bounds = BOUNDS.matcher(resultSet.getString("bound"));
+            if (bounds.find()) {
+                partitions.add(new Partition(resultSet.getString("relname"),
+                        Timestamp.valueOf(bounds.group(1)).toLocalDateTime(),
+                        Timestamp.valueOf(bounds.group(2)).toLocalDateTime(),
+                        resultSet.getBoolean("inhdetachpending")));
+            }
+        });
+        return partitions;
+    }
+
+    /**
+     * Creates the partition; the indexes of the feature table are created on it along with it.
+     */
+    public void createPartition(String name, LocalDateTime from, LocalDateTime to) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS \"" + name + "\" PARTITION OF feature FOR VALUES FROM ('" +
+                LITERAL.format(from) + "') TO ('" + LITERAL.format(to) + "')");
+    }
+
+    /**
+     * Detaches the partition without blocking reads and writes on the other partitions. The
+     * detached table keeps its rows until it is dropped.
+     */
+    public void detachPartition(Partition partition) {
+        jdbcTemplate.execute("ALTER TABLE feature DETACH PARTITION \"" + partition.name() + "\"" +
+                (partition.detachPending() ? " FINALIZE" : " CONCURRENTLY"));
+    }
+
+    /**
+     * Visits the id of every row of a detached partition.
+     */
+    public void findIds(String table, Consumer<UUID> consumer) {
+        jdbcTemplate.query("SELECT id FROM \"" + table + "\"",
+                (RowCallbackHandler) resultSet -> consumer.accept(resultSet.getObject(1, UUID.class)));
+    }
+
+    /**
+     * Frees the ids of the rows of a detached partition in feature_id, so they may be used again.
+     */
+    public void releaseIds(String table) {
+        jdbcTemplate.execute("DELETE FROM feature_id f USING \"" + table + "\" p WHERE f.id = p.id");
+    }
+
+    public void dropTable(String table) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS \"" + table + "\"");
+    }
+
+    /**
+     * Creates an index on the feature table without locking out writes. Indexes cannot be built
+     * concurrently on a partitioned table, so the index is declared on the table alone and built
+     * concurrently on each partition, which completes it once all are attached; partitions created
+     * later get it automatically. {@code definition} is everything after {@code ON feature}.
+     */
+    public void createIndex(String name, String definition) {
+        if (!isPartitioned()) {
+            jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS \"" + name + "\" ON feature " + definition);
+            return;
+        }
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS \"" + name + "\" ON ONLY feature " + definition);
+        for (Partition partition : findPartitions()) {
+            if (partition.detachPending()) {
+                continue;
+            }
+            //partition and index names are each up to 63 characters, so the two are not simply joined
+            String partitionIndex = partition.name() + "_" + Integer.toUnsignedString(name.hashCode(), 36);
+            jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS \"" + partitionIndex + "\" ON \"" +
+                    partition.name() + "\" " + definition);
+            //attaching an index twice fails, so only those not yet attached
+            if (Boolean.FALSE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM pg_inherits " +
+                    "WHERE inhrelid = to_regclass(?) AND inhparent = to_regclass(?))", Boolean.class,
+                    "\"" + partitionIndex + "\"", "\"" + name + "\""))) {
+                jdbcTemplate.execute("ALTER INDEX \"" + name + "\" ATTACH PARTITION \"" + partitionIndex + "\"");
+            }
+        }
+    }
+}
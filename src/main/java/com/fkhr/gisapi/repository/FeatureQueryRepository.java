@@ -0,0 +1,248 @@
+package com.fkhr.gisapi.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fkhr.gisapi.PropertyPredicate;
+import com.fkhr.gisapi.model.Feature;
+import com.fkhr.gisapi.model.PropertyType;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.ProtoUtils;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Feature queries combining owner, spatial and property conditions, and the expression indexes that
+ * serve them. Property keys are written into the SQL, because an expression index is only used when
+ * the query repeats its expression literally, so every key is checked against {@link #PROPERTY_KEY}
+ * first; values are always bound.
+ * <ul>
+ *     <li>EQ, NE and EXISTS use jsonb containment and key existence, served by feature_properties_gin</li>
+ *     <li>range predicates on numbers and strings use the feature_prop_n_/feature_prop_s_ indexes of
+ *     keys declared as indexed. There is one index per key and type, not per owner: the first owner
+ *     to declare a key indexed creates it, and every other owner declaring the same key and type
+ *     shares it. It leads with owner, so only queries filtering on owner can use it; without one,
+ *     range predicates are evaluated on every row the other conditions leave</li>
+ * </ul>
+ */
+@Repository
+public class FeatureQueryRepository {
+    public static final Pattern PROPERTY_KEY = Pattern.compile("[A-Za-z0-9_]{1,48}");
+    private static final String COLUMNS = "id, owner, description, ST_AsBinary(geometry) AS wkb, timestamp, " +
+            "CAST(properties AS text) AS properties";
+    private static final String SELECT_SQL = "SELECT " + COLUMNS + " FROM feature WHERE ";
+    //the inner ORDER BY on <-> against a constant is what lets PostgreSQL walk the GiST index nearest first
+    private static final String NEAREST_SQL = "SELECT " + COLUMNS + ", ST_DistanceSphere(geometry, ST_GeomFromWKB(?, " +
+            GeometryConverter.SRID + ")) AS distance FROM (SELECT * FROM feature %s ORDER BY geometry <-> ST_GeomFromWKB(?, " +
+            GeometryConverter.SRID + ") LIMIT ?) candidates ORDER BY distance LIMIT ?";
+
+    /**
+     * A feature and its distance in meters from the point asked about.
+     */
+    public record Nearest(Feature feature, double distance) {
+    }
+
+    /**
+     * A validated query: the conditions after the keyset condition and their arguments.
+     */
+    public record CompiledQuery(String conditions, List<Object> arguments) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final GeometryConverter geometryConverter;
+    private final FeaturePartitionRepository featurePartitionRepository;
+
+    public FeatureQueryRepository(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
+                                  GeometryConverter geometryConverter,
+                                  FeaturePartitionRepository featurePartitionRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.geometryConverter = geometryConverter;
+        this.featurePartitionRepository = featurePartitionRepository;
+    }
+
+    /**
+     * Builds the query; {@code owner} may be empty and {@code area} (WKB, EPSG:4326) null.
+     */
+    public CompiledQuery compile(String owner, byte[] area, List<PropertyPredicate> predicates) {
+        StringBuilder conditions = new StringBuilder();
+        List<Object> arguments = new ArrayList<>();
+        if (!owner.isEmpty()) {
+            conditions.append(" AND owner = ?");
+            arguments.add(owner);
+        }
+        if (area != null) {
+            conditions.append(" AND ST_Intersects(geometry, ST_GeomFromWKB(?, ").append(GeometryConverter.SRID).append("))");
+            arguments.add(area);
+        }
+        for (PropertyPredicate predicate : predicates) {
+            appendPredicate(conditions, arguments, predicate);
+        }
+        return new CompiledQuery(conditions.toString(), List.copyOf(arguments));
+    }
+
+    /**
+     * One keyset page of the features matching {@code query}, ordered by id.
+     */
+    public List<Feature> findAfter(CompiledQuery query, UUID after, int limit) {
+        List<Object> arguments = new ArrayList<>(query.arguments().size() + 2);
+        arguments.add(after);
+        arguments.addAll(query.arguments());
+        arguments.add(limit);
+        WKBReader wkbReader = new WKBReader(geometryConverter.getGeometryFactory());
+        return jdbcTemplate.query(SELECT_SQL + "id > ?" + query.conditions() + " ORDER BY id LIMIT ?",
+                (resultSet, row) -> toFeature(resultSet, wkbReader), arguments.toArray());
+    }
+
+    /**
+     * The features with the given ids, in no particular order; ids that do not exist are left out.
+     * The ids are bound as a single array, so every batch size shares one statement and one plan.
+     */
+    public List<Feature> findByIds(List<UUID> ids) {
+        WKBReader wkbReader = new WKBReader(geometryConverter.getGeometryFactory());
+        return jdbcTemplate.query(SELECT_SQL + "id = ANY(?)",
+                statement -> statement.setArray(1, statement.getConnection().createArrayOf("uuid", ids.toArray())),
+                (resultSet, row) -> toFeature(resultSet, wkbReader));
+    }
+
+    /**
+     * The {@code limit} features closest to {@code origin} (WKB, EPSG:4326), closest first, optionally
+     * only those of {@code owner}. The index orders by planar distance in degrees, so twice as many
+     * candidates are taken from it and ranked in meters.
+     */
+    public List<Nearest> findNearest(byte[] origin, int limit, String owner) {
+        WKBReader wkbReader = new WKBReader(geometryConverter.getGeometryFactory());
+        List<Object> arguments = new ArrayList<>();
+        arguments.add(origin);
+        if (!owner.isEmpty()) {
+            arguments.add(owner);
+        }
+        arguments.add(origin);
+        arguments.add(limit * 2);
+        arguments.add(limit);
+        return jdbcTemplate.query(NEAREST_SQL.formatted(owner.isEmpty() ? "" : "WHERE owner = ?"),
+                (resultSet, row) -> new Nearest(toFeature(resultSet, wkbReader), resultSet.getDouble("distance")),
+                arguments.toArray());
+    }
+
+    /**
+     * Creates the expression index range predicates on {@code key} use, without blocking writes, or
+     * does nothing if another owner's schema already created it. Booleans only support equality,
+     * which the GIN index already serves.
+     */
+    public void createPropertyIndex(String key, PropertyType type) {
+        String checkedKey = checkKey(key);
+        switch (type) {
+            case NUMBER -> featurePartitionRepository.createIndex("feature_prop_n_" + checkedKey,
+                    "(owner, (" + numberExpression(checkedKey) + ")) WHERE " + typeCondition(checkedKey, "number"));
+            case STRING -> featurePartitionRepository.createIndex("feature_prop_s_" + checkedKey,
+                    "(owner, (" + stringExpression(checkedKey) + ")) WHERE " + typeCondition(checkedKey, "string"));
+            case BOOLEAN -> {
+            }
+        }
+    }
+
+    private void appendPredicate(StringBuilder conditions, List<Object> arguments, PropertyPredicate predicate) {
+        String key = checkKey(predicate.getKey());
+        Value value = predicate.getValue();
+        switch (predicate.getOperator()) {
+            //?? is how a literal ? operator is written through JDBC
+            case EXISTS -> conditions.append(" AND properties ?? '").append(key)
+                    .append("' AND properties->'").append(key).append("' <> 'null'::jsonb");
+            case EQ -> {
+                conditions.append(" AND properties @> CAST(? AS jsonb)");
+                arguments.add(containment(key, value));
+            }
+            case NE -> {
+                conditions.append(" AND NOT properties @> CAST(? AS jsonb)");
+                arguments.add(containment(key, value));
+            }
+            case LT, LTE, GT, GTE -> {
+                String operator = switch (predicate.getOperator()) {
+                    case LT -> " < ?";
+                    case LTE -> " <= ?";
+                    case GT -> " > ?";
+                    default -> " >= ?";
+                };
+                if (value.hasNumberValue()) {
+                    conditions.append(" AND ").append(typeCondition(key, "number"))
+                            .append(" AND ").append(numberExpression(key)).append(operator);
+                    arguments.add(value.getNumberValue());
+                } else if (value.hasStringValue()) {
+                    conditions.append(" AND ").append(typeCondition(key, "string"))
+                            .append(" AND ").append(stringExpression(key)).append(operator);
+                    arguments.add(value.getStringValue());
+                } else {
+                    throw new CustomException(CustomError.INVALID_QUERY,
+                            new IllegalArgumentException("Only numbers and strings can be compared: " + key));
+                }
+            }
+            default -> throw new CustomException(CustomError.INVALID_QUERY,
+                    new IllegalArgumentException("Unsupported operator " + predicate.getOperator()));
+        }
+    }
+
+    private static String numberExpression(String key) {
+        //conditions joined by AND run in any order, so the cast guards itself against non-numbers
+        return "(CASE WHEN " + typeCondition(key, "number") + " THEN (properties->>'" + key +
+                "')::double precision END)";
+    }
+
+    private static String stringExpression(String key) {
+        //C collation compares code points, like the predicates evaluated on live streams
+        return "(properties->>'" + key + "') COLLATE \"C\"";
+    }
+
+    private static String typeCondition(String key, String jsonType) {
+        return "jsonb_typeof(properties->'" + key + "') = '" + jsonType + "'";
+    }
+
+    private String containment(String key, Value value) {
+        try {
+            return objectMapper.writeValueAsString(ProtoUtils.structToMap(Struct.newBuilder().putFields(key, value).build()));
+        } catch (JsonProcessingException exception) {
+            throw new CustomException(CustomError.INVALID_QUERY, exception);
+        }
+    }
+
+    public static String checkKey(String key) {
+        if (!PROPERTY_KEY.matcher(key).matches()) {
+            throw new CustomException(CustomError.INVALID_QUERY,
+                    new IllegalArgumentException("Property keys are 1 to 48 letters, digits or underscores: " + key));
+        }
+        return key;
+    }
+
+    private Feature toFeature(ResultSet resultSet, WKBReader wkbReader) throws SQLException {
+        Geometry geometry;
+        Map<String, Object> properties;
+        try {
+            geometry = wkbReader.read(resultSet.getBytes("wkb"));
+            String json = resultSet.getString("properties");
+            properties = json == null ? Map.of() : objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {
+            });
+        } catch (ParseException | JsonProcessingException exception) {
+            throw new SQLException("Unreadable feature " + resultSet.getString("id"), exception);
+        }
+        return new Feature(resultSet.getObject("id", UUID.class), resultSet.getString("owner"),
+                resultSet.getString("description"), geometry, resultSet.getObject("timestamp", LocalDateTime.class),
+                properties);
+    }
+}
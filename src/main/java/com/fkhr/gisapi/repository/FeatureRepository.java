@@ -2,8 +2,21 @@ package com.fkhr.gisapi.repository;
 
 import com.fkhr.gisapi.model.Feature;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.List;
 import java.util.UUID;
 
 public interface FeatureRepository extends JpaRepository<Feature, UUID> {
+
+    /**
+     * One keyset page of the features intersecting {@code area} (WKB, EPSG:4326), ordered by id.
+     * The bounding-box part of ST_Intersects is served by the feature_geometry_gist index.
+     */
+    @Query(value = "SELECT * FROM feature " +
+            "WHERE ST_Intersects(geometry, ST_GeomFromWKB(:area, 4326)) AND id > :after " +
+            "ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Feature> findIntersectingAfter(@Param("area") byte[] area, @Param("after") UUID after,
+                                        @Param("limit") int limit);
 }
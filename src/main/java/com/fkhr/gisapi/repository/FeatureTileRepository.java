@@ -0,0 +1,39 @@
+package com.fkhr.gisapi.repository;
+
+import com.fkhr.gisapi.utils.GeometryConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Renders Mapbox Vector Tiles of the feature table in PostGIS. Features are selected with the
+ * feature_geometry_gist index on the tile envelope widened by the buffer, so those only drawn into
+ * the buffer are not left out, then clipped and snapped to the tile grid by
+ * ST_AsMVTGeom, which also drops the vertices that collapse onto the same grid cell, so the size of a
+ * tile depends on what is visible in it and not on the detail of the stored geometries.
+ */
+@Repository
+public class FeatureTileRepository {
+    public static final String LAYER = "features";
+    private static final String TILE_SQL = "WITH bounds AS (SELECT ST_TileEnvelope(?, ?, ?) AS geom, " +
+            "ST_TileEnvelope(?, ?, ?, margin => ?) AS buffered), " +
+            "tile AS (SELECT ST_AsMVTGeom(ST_Transform(f.geometry, 3857), bounds.geom, ?, ?, true) AS geom, " +
+            "CAST(f.id AS text) AS id, f.owner, f.description, f.properties " +
+            "FROM feature f, bounds " +
+            "WHERE f.geometry && ST_Transform(bounds.buffered, " + GeometryConverter.SRID + ")) " +
+            "SELECT ST_AsMVT(tile, '" + LAYER + "', ?, 'geom') FROM tile WHERE geom IS NOT NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FeatureTileRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * The tile at z/x/y in the Web Mercator tiling scheme; empty when no feature is visible in it.
+     */
+    public byte[] findTile(int z, int x, int y, int extent, int buffer) {
+        byte[] tile = jdbcTemplate.queryForObject(TILE_SQL, byte[].class, z, x, y, z, x, y,
+                (double) buffer / extent, extent, buffer, extent);
+        return tile == null ? new byte[0] : tile;
+    }
+}
@@ -0,0 +1,15 @@
+package com.fkhr.gisapi.repository;
+
+import com.fkhr.gisapi.model.PropertySchema;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface PropertySchemaRepository extends JpaRepository<PropertySchema, UUID> {
+
+    List<PropertySchema> findByOwner(String owner);
+
+    Optional<PropertySchema> findByOwnerAndPropertyKey(String owner, String propertyKey);
+}
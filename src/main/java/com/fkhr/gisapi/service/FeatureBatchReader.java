@@ -0,0 +1,178 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Streams features by id to a gRPC client. Cached features are taken from the {@link FeatureCache},
+ * the rest are loaded in chunks of {@code chunkSize} ids, each chunk fetched and converted on
+ * {@code executor} so the chunks of one call load and convert in parallel. Features are written by
+ * one task at a time and only while the transport is ready, either in request order or as soon as
+ * their chunk is loaded.
+ */
+class FeatureBatchReader {
+    interface ChunkLoader {
+        /**
+         * Loads and converts the features with the given ids, leaving out the ones that do not exist.
+         */
+        List<FeatureResponseDto> load(List<UUID> ids);
+    }
+
+    private final ServerCallStreamObserver<FeatureResponseDto> observer;
+    private final List<UUID> ids;
+    private final boolean ordered;
+    private final FeatureCache featureCache;
+    private final ChunkLoader loader;
+    private final Function<FeatureResponseDto, FeatureResponseDto> adapter;
+    private final Executor executor;
+    private final int chunkSize;
+    private final AtomicInteger wip = new AtomicInteger();
+    //ordered: the loaded features by id and the chunk each id waits for
+    private final Map<UUID, FeatureResponseDto> loaded = new HashMap<>();
+    private final Map<UUID, CompletableFuture<List<FeatureResponseDto>>> pendingById = new HashMap<>();
+    private int position;
+    //unordered: features ready to be written
+    private final Queue<FeatureResponseDto> ready = new ConcurrentLinkedQueue<>();
+    private final List<CompletableFuture<List<FeatureResponseDto>>> chunks = new ArrayList<>();
+    private volatile boolean done;
+
+    FeatureBatchReader(ServerCallStreamObserver<FeatureResponseDto> observer, List<UUID> ids, boolean ordered,
+                       FeatureCache featureCache, ChunkLoader loader,
+                       Function<FeatureResponseDto, FeatureResponseDto> adapter, Executor executor, int chunkSize) {
+        this.observer = observer;
+        this.ids = ids;
+        this.ordered = ordered;
+        this.featureCache = featureCache;
+        this.loader = loader;
+        this.adapter = adapter;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    void start() {
+        //handlers must be set before a chunk completes and the first message is written
+        observer.setOnCancelHandler(() -> done = true);
+        observer.setOnReadyHandler(this::signal);
+        Map<UUID, FeatureResponseDto> cached = featureCache.getAllPresent(ids);
+        List<UUID> missing = new ArrayList<>(new LinkedHashSet<>(ids));
+        missing.removeAll(cached.keySet());
+        //the state below is only read by the drain task, which only runs once it is complete
+        if (ordered) {
+            loaded.putAll(cached);
+        } else {
+            cached.values().forEach(ready::add);
+        }
+        for (int from = 0; from < missing.size(); from += chunkSize) {
+            List<UUID> chunk = missing.subList(from, Math.min(missing.size(), from + chunkSize));
+            CompletableFuture<List<FeatureResponseDto>> future = CompletableFuture.supplyAsync(() -> load(chunk), executor);
+            chunks.add(future);
+            chunk.forEach(id -> pendingById.put(id, future));
+        }
+        chunks.forEach(future -> future.whenComplete((features, failure) -> signal()));
+        signal();
+    }
+
+    private List<FeatureResponseDto> load(List<UUID> chunk) {
+        if (done) {
+            return List.of();
+        }
+        List<FeatureResponseDto> features = loader.load(chunk);
+        features.forEach(featureCache::put);
+        if (!ordered) {
+            ready.addAll(features);
+        }
+        return features;
+    }
+
+    private void signal() {
+        if (wip.getAndIncrement() == 0) {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    private void drain() {
+        try {
+            if (ordered) {
+                drainOrdered();
+            } else {
+                drainUnordered();
+            }
+        } catch (CompletionException exception) {
+            done = true;
+            observer.onError(exception.getCause());
+        } catch (Exception exception) {
+            done = true;
+            observer.onError(exception);
+        }
+    }
+
+    private void drainOrdered() {
+        while (!done && observer.isReady()) {
+            if (position == ids.size()) {
+                done = true;
+                observer.onCompleted();
+                return;
+            }
+            UUID id = ids.get(position);
+            CompletableFuture<List<FeatureResponseDto>> pending = pendingById.get(id);
+            if (pending != null) {
+                if (!pending.isDone()) {
+                    //the chunk signals once it completes
+                    return;
+                }
+                //an id the chunk left out is not found, and has no entry left either
+                pendingById.remove(id);
+                for (FeatureResponseDto feature : pending.join()) {
+                    UUID loadedId = UUID.fromString(feature.getId());
+                    loaded.put(loadedId, feature);
+                    pendingById.remove(loadedId);
+                }
+            }
+            FeatureResponseDto feature = loaded.get(id);
+            if (feature != null) {
+                observer.onNext(adapter.apply(feature));
+            }
+            position++;
+        }
+    }
+
+    private void drainUnordered() {
+        while (!done && observer.isReady()) {
+            FeatureResponseDto feature = ready.poll();
+            if (feature != null) {
+                observer.onNext(adapter.apply(feature));
+                continue;
+            }
+            for (CompletableFuture<List<FeatureResponseDto>> chunk : chunks) {
+                if (!chunk.isDone()) {
+                    return;
+                }
+                //rethrows the failure of a chunk
+                chunk.join();
+            }
+            if (ready.isEmpty()) {
+                done = true;
+                observer.onCompleted();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.FeatureUpdate;
+import com.fkhr.gisapi.kafka.LatestFeatureStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Bounded (W-TinyLFU, size and TTL evicted) cache of ready-to-send feature responses keyed by id.
+ * Entries are replaced from the feature topic, so every node sees an update as soon as the
+ * owning node publishes it, and dropped once the feature is tombstoned in feature-latest.
+ */
+@Component
+public class FeatureCache {
+    private final Cache<UUID, FeatureResponseDto> cache;
+
+    public FeatureCache(FeatureStreamHub featureStreamHub, LatestFeatureStore latestFeatureStore,
+                        MeterRegistry meterRegistry,
+                        @Value("${gis.cache.feature.maximum-size:100000}") long maximumSize,
+                        @Value("${gis.cache.feature.ttl:10m}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "feature");
+        featureStreamHub.addListener(this::refresh);
+        latestFeatureStore.addRemovalListener(id -> cache.invalidate(UUID.fromString(id)));
+    }
+
+    /**
+     * Returns the cached response or loads it with {@code loader}. A loader returning null (feature
+     * not found) is not cached.
+     */
+    public FeatureResponseDto get(UUID id, Function<UUID, FeatureResponseDto> loader) {
+        return cache.get(id, loader);
+    }
+
+    /**
+     * The cached responses among {@code ids}, without loading the others.
+     */
+    public Map<UUID, FeatureResponseDto> getAllPresent(Collection<UUID> ids) {
+        return cache.getAllPresent(ids);
+    }
+
+    public void put(FeatureResponseDto feature) {
+        cache.put(UUID.fromString(feature.getId()), feature);
+    }
+
+    /**
+     * Replaces the entry if this node has it cached; features nobody asked for are not pulled in, nor
+     * parsed.
+     */
+    public void refresh(FeatureUpdate update) {
+        cache.asMap().computeIfPresent(UUID.fromString(update.id()), (id, cached) -> update.feature());
+    }
+
+    public void invalidate(UUID id) {
+        cache.invalidate(id);
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+}
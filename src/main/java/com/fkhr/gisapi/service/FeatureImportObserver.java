@@ -0,0 +1,160 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureRequestDto;
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.ImportFeaturesResponseDto;
+import com.fkhr.gisapi.model.Feature;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Request side of ImportFeatures. Incoming features are collected into batches which are written
+ * one after another on {@code writeExecutor} while the next batch is being received. Inbound flow
+ * control is manual: the client is granted {@code maxBufferedFeatures} messages up front and gets
+ * one more credit for every feature that has been persisted and published, so a slow database or
+ * broker pushes back on the client instead of growing the heap. The count returned only includes
+ * features that reached both. A batch that fails ends the call, so a client is never left waiting
+ * for credits that will not come.
+ */
+class FeatureImportObserver implements StreamObserver<FeatureRequestDto> {
+    record ImportedFeature(Feature feature, FeatureResponseDto response) {
+    }
+
+    private final ServerCallStreamObserver<ImportFeaturesResponseDto> responseObserver;
+    private final Function<FeatureRequestDto, ImportedFeature> converter;
+    private final Function<List<ImportedFeature>, CompletableFuture<Void>> batchWriter;
+    private final Executor writeExecutor;
+    private final int batchSize;
+    private final int maxBufferedFeatures;
+    private final AtomicInteger imported = new AtomicInteger();
+    private final AtomicBoolean aborted = new AtomicBoolean();
+    private List<ImportedFeature> batch;
+    private CompletableFuture<Void> pendingWrites = CompletableFuture.completedFuture(null);
+    //only replaced by write(), which runs one batch at a time
+    private CompletableFuture<Void> pendingPublishes = CompletableFuture.completedFuture(null);
+
+    FeatureImportObserver(ServerCallStreamObserver<ImportFeaturesResponseDto> responseObserver,
+                          Function<FeatureRequestDto, ImportedFeature> converter,
+                          Function<List<ImportedFeature>, CompletableFuture<Void>> batchWriter,
+                          Executor writeExecutor,
+                          int batchSize, int maxBufferedFeatures) {
+        this.responseObserver = responseObserver;
+        this.converter = converter;
+        this.batchWriter = batchWriter;
+        this.writeExecutor = writeExecutor;
+        this.batchSize = batchSize;
+        this.maxBufferedFeatures = Math.max(maxBufferedFeatures, batchSize);
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Must be called from the service method, before it returns, so auto inbound flow control can
+     * still be disabled.
+     */
+    FeatureImportObserver start() {
+        responseObserver.disableAutoRequest();
+        responseObserver.setOnCancelHandler(() -> aborted.set(true));
+        responseObserver.request(maxBufferedFeatures);
+        return this;
+    }
+
+    @Override
+    public void onNext(FeatureRequestDto request) {
+        if (aborted.get()) {
+            return;
+        }
+        try {
+            batch.add(converter.apply(request));
+        } catch (Exception exception) {
+            fail(Status.INVALID_ARGUMENT.withDescription(exception.getMessage()).withCause(exception));
+            return;
+        }
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        aborted.set(true);
+    }
+
+    @Override
+    public void onCompleted() {
+        if (aborted.get()) {
+            return;
+        }
+        flush();
+        pendingWrites.thenCompose(ignored -> pendingPublishes).whenComplete((ignored, exception) -> {
+            if (exception != null) {
+                //already failed with its own status, unless the failure came from elsewhere
+                fail(Status.INTERNAL.withDescription("Import failed after " + imported.get() + " features")
+                        .withCause(exception));
+            } else if (aborted.compareAndSet(false, true)) {
+                responseObserver.onNext(ImportFeaturesResponseDto.newBuilder().setCount(imported.get()).build());
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<ImportedFeature> toWrite = batch;
+        batch = new ArrayList<>(batchSize);
+        pendingWrites = pendingWrites.thenRunAsync(() -> write(toWrite), writeExecutor)
+                .whenComplete((ignored, exception) -> {
+                    if (exception != null) {
+                        //e.g. the write executor rejected the batch, whose credits would then never come back
+                        fail(Status.RESOURCE_EXHAUSTED.withDescription("Import failed after " + imported.get() +
+                                " features: " + toWrite.size() + " could not be written").withCause(exception));
+                    }
+                });
+    }
+
+    private void write(List<ImportedFeature> features) {
+        if (aborted.get()) {
+            return;
+        }
+        CompletableFuture<Void> published;
+        try {
+            published = batchWriter.apply(features);
+        } catch (Exception exception) {
+            String description = "Import failed after " + imported.get() + " features";
+            //a reused id is the client's to fix, the batch it was in is not saved
+            fail(exception instanceof CustomException custom && custom.getCode() == CustomError.FEATURE_ALREADY_EXIST.getCode()
+                    ? Status.ALREADY_EXISTS.withDescription(description + ": " + custom.getCause().getMessage())
+                    .withCause(exception)
+                    : Status.INTERNAL.withDescription(description).withCause(exception));
+            throw exception;
+        }
+        //the next batch is written meanwhile, request() may be called from any thread
+        pendingPublishes = pendingPublishes.thenCombine(published.whenComplete((ignored, exception) -> {
+            if (exception == null) {
+                imported.addAndGet(features.size());
+                responseObserver.request(features.size());
+            } else {
+                fail(Status.UNAVAILABLE.withDescription(features.size() +
+                        " features were saved but could not be published").withCause(exception));
+            }
+        }), (first, second) -> null);
+    }
+
+    private void fail(Status status) {
+        if (aborted.compareAndSet(false, true)) {
+            responseObserver.onError(status.asRuntimeException());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.model.Feature;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Streams the result of a keyset-paginated feature query to a gRPC client. Pages are only fetched
+ * when the previous one has been written and the transport reports it is ready for more, so at most
+ * one page is held in memory per call regardless of how many rows match.
+ */
+class FeaturePageStreamer<T> {
+    static final UUID FIRST_KEY = new UUID(0L, 0L);
+
+    interface PageFetcher {
+        List<Feature> fetch(UUID after, int limit);
+    }
+
+    /**
+     * Turns a fetched page into the messages to write. {@code first} and {@code last} mark the first
+     * and the final page, the final one may be empty.
+     */
+    interface PageConverter<T> {
+        List<T> convert(List<Feature> page, boolean first, boolean last);
+    }
+
+    private final ServerCallStreamObserver<T> observer;
+    private final PageFetcher fetcher;
+    private final PageConverter<T> converter;
+    private final int pageSize;
+    private final Deque<T> page = new ArrayDeque<>();
+    private UUID lastKey = FIRST_KEY;
+    private boolean first = true;
+    private boolean exhausted;
+    private volatile boolean done;
+
+    FeaturePageStreamer(ServerCallStreamObserver<T> observer, PageFetcher fetcher,
+                        Function<Feature, T> converter, int pageSize) {
+        this(observer, fetcher, (features, first, last) -> features.stream().map(converter).toList(), pageSize);
+    }
+
+    FeaturePageStreamer(ServerCallStreamObserver<T> observer, PageFetcher fetcher,
+                        PageConverter<T> converter, int pageSize) {
+        this.observer = observer;
+        this.fetcher = fetcher;
+        this.converter = converter;
+        this.pageSize = pageSize;
+    }
+
+    void start() {
+        observer.setOnCancelHandler(() -> done = true);
+        observer.setOnReadyHandler(this::drain);
+    }
+
+    private void drain() {
+        try {
+            while (!done && observer.isReady()) {
+                if (page.isEmpty()) {
+                    if (exhausted) {
+                        done = true;
+                        observer.onCompleted();
+                        return;
+                    }
+                    fetchNextPage();
+                    continue;
+                }
+                observer.onNext(page.poll());
+            }
+        } catch (Exception exception) {
+            done = true;
+            observer.onError(exception);
+        }
+    }
+
+    private void fetchNextPage() {
+        List<Feature> features = fetcher.fetch(lastKey, pageSize);
+        if (!features.isEmpty()) {
+            lastKey = features.get(features.size() - 1).getId();
+        }
+        exhausted = features.size() < pageSize;
+        page.addAll(converter.convert(features, first, exhausted));
+        first = false;
+    }
+}
@@ -0,0 +1,170 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.kafka.FeaturePublisher;
+import com.fkhr.gisapi.repository.FeaturePartitionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the feature table's range partitions in step with time. Every {@code gis.partitions.check-interval}
+ * the partition holding now and the {@code gis.partitions.premake} after it are created, each covering
+ * {@code gis.partitions.interval} counted from 1970-01-01, so inserts never wait on DDL. With a
+ * {@code gis.partitions.retention}, partitions entirely older than it are detached and dropped as a
+ * whole instead of deleting their rows; the features they held are tombstoned in feature-latest and
+ * their ids freed first. A position update moves a row to the current partition, so what is dropped
+ * are the features not updated within the retention; an update arriving after the drop finds no row
+ * and is tombstoned again by the {@link PositionUpdateCoalescer}.
+ * <p>
+ * The first run starts once the application is ready. Features are always written with the current
+ * time, so until that run has created the current partition on a new database, or when runs keep
+ * failing for longer than the premade partitions last, inserts fail with "no partition of relation
+ * feature found for row" and the failure is logged here every run. There is deliberately no DEFAULT
+ * partition: rows caught in it would make creating the range partition they belong to fail until
+ * they were moved by hand.
+ */
+@Component
+@DependsOnDatabaseInitialization
+public class FeaturePartitionMaintainer {
+    private static final Logger log = LoggerFactory.getLogger(FeaturePartitionMaintainer.class);
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'feature_p'yyyyMMdd");
+    private static final int TOMBSTONE_BATCH = 1000;
+
+    private final FeaturePartitionRepository featurePartitionRepository;
+    private final FeaturePublisher featurePublisher;
+    private final long intervalDays;
+    private final int premake;
+    private final Duration retention;
+    private final Duration checkInterval;
+    private final ScheduledExecutorService maintainer =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("partition-maintenance-"));
+    private final Counter created;
+    private final Counter dropped;
+    private boolean warnedUnpartitioned;
+
+    public FeaturePartitionMaintainer(FeaturePartitionRepository featurePartitionRepository,
+                                      FeaturePublisher featurePublisher, MeterRegistry meterRegistry,
+                                      @Value("${gis.partitions.interval:7d}") Duration interval,
+                                      @Value("${gis.partitions.premake:4}") int premake,
+                                      @Value("${gis.partitions.retention:0d}") Duration retention,
+                                      @Value("${gis.partitions.check-interval:1h}") Duration checkInterval) {
+        if (interval.toDays() < 1 || !interval.equals(Duration.ofDays(interval.toDays()))) {
+            throw new IllegalArgumentException("gis.partitions.interval must be a whole number of days");
+        }
+        this.featurePartitionRepository = featurePartitionRepository;
+        this.featurePublisher = featurePublisher;
+        this.intervalDays = interval.toDays();
+        this.premake = premake;
+        this.retention = retention;
+        this.checkInterval = checkInterval;
+        this.created = Counter.builder("gis.partitions.created")
+                .description("Feature table partitions created")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("gis.partitions.dropped")
+                .description("Feature table partitions dropped for retention")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        maintainer.scheduleWithFixedDelay(this::maintain, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void maintain() {
+        try {
+            if (!featurePartitionRepository.isPartitioned()) {
+                if (!warnedUnpartitioned) {
+                    warnedUnpartitioned = true;
+                    log.warn("The feature table is not partitioned, partitions are not maintained. Rename it, " +
+                            "restart to create the partitioned table, and copy its rows over to migrate.");
+                }
+                return;
+            }
+            createAhead();
+            if (!retention.isZero()) {
+                dropExpired(LocalDateTime.now().minus(retention));
+            }
+        } catch (Exception exception) {
+            //e.g. another node creating or dropping the same partition; the next run catches up
+            log.warn("Feature partition maintenance failed: {}", exception.getMessage());
+        }
+    }
+
+    private void createAhead() {
+        Set<String> existing = featurePartitionRepository.findPartitions().stream()
+                .map(FeaturePartitionRepository.Partition::name)
+                .collect(Collectors.toSet());
+        long epochDay = LocalDate.now().toEpochDay();
+        LocalDate start = LocalDate.ofEpochDay(Math.floorDiv(epochDay, intervalDays) * intervalDays);
+        for (int i = 0; i <= premake; i++) {
+            LocalDate from = start.plusDays(i * intervalDays);
+            String name = NAME.format(from);
+            if (!existing.contains(name)) {
+                featurePartitionRepository.createPartition(name, from.atStartOfDay(),
+                        from.plusDays(intervalDays).atStartOfDay());
+                created.increment();
+                log.info("Created feature partition {}", name);
+            }
+        }
+    }
+
+    private void dropExpired(LocalDateTime cutoff) {
+        for (FeaturePartitionRepository.Partition partition : featurePartitionRepository.findPartitions()) {
+            if (partition.to().isAfter(cutoff)) {
+                continue;
+            }
+            //once detached no write can reach the rows, so the ids read next are exactly what is removed
+            featurePartitionRepository.detachPartition(partition);
+            long[] features = new long[1];
+            List<CompletableFuture<Void>> tombstones = new ArrayList<>(TOMBSTONE_BATCH);
+            featurePartitionRepository.findIds(partition.name(), id -> {
+                tombstones.add(featurePublisher.publishRemoved(id.toString()));
+                features[0]++;
+                if (tombstones.size() == TOMBSTONE_BATCH) {
+                    await(tombstones);
+                }
+            });
+            await(tombstones);
+            featurePartitionRepository.releaseIds(partition.name());
+            featurePartitionRepository.dropTable(partition.name());
+            dropped.increment();
+            log.info("Dropped feature partition {} with {} features older than {}", partition.name(),
+                    features[0], cutoff);
+        }
+    }
+
+    /**
+     * Waits for the tombstones sent so far, so a large partition never overruns the publisher lanes.
+     * A lost tombstone only leaves a stale entry in feature-latest, so failures are not retried.
+     */
+    private static void await(List<CompletableFuture<Void>> tombstones) {
+        CompletableFuture.allOf(tombstones.toArray(CompletableFuture[]::new)).exceptionally(ignored -> null).join();
+        tombstones.clear();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintainer.shutdownNow();
+    }
+}
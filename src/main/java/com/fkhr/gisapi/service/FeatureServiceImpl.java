@@ -2,139 +2,426 @@ package com.fkhr.gisapi.service;
 
 
 import com.fkhr.gisapi.*;
-import com.fkhr.gisapi.kafka.GroupIds;
-import com.fkhr.gisapi.kafka.KafkaStreamFactory;
-import com.fkhr.gisapi.kafka.KafkaProducer;
-import com.fkhr.gisapi.kafka.Topics;
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.FeatureSubscriber;
+import com.fkhr.gisapi.kafka.FeatureSubscriberFactory;
+import com.fkhr.gisapi.kafka.HistoryReplayer;
+import com.fkhr.gisapi.kafka.FeaturePublisher;
+import com.fkhr.gisapi.kafka.LatestFeatureStore;
+import com.fkhr.gisapi.kafka.SubscriptionFilter;
 import com.fkhr.gisapi.model.Feature;
+import com.fkhr.gisapi.model.PropertySchema;
+import com.fkhr.gisapi.repository.DatabaseConcurrencyLimiter;
+import com.fkhr.gisapi.repository.FeatureBatchWriter;
+import com.fkhr.gisapi.repository.FeatureQueryRepository;
 import com.fkhr.gisapi.repository.FeatureRepository;
+import com.fkhr.gisapi.spatial.GeometrySimplifier;
+import com.fkhr.gisapi.spatial.LivePositionIndex;
+import com.fkhr.gisapi.spatial.PreparedGeometryCache;
 import com.fkhr.gisapi.utils.CustomError;
 import com.fkhr.gisapi.utils.CustomException;
+import com.fkhr.gisapi.utils.GeoJsonWriter;
 import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import com.fkhr.gisapi.utils.PassThroughMarshaller;
 import com.fkhr.gisapi.utils.ProtoUtils;
 import com.google.protobuf.Struct;
+import io.grpc.BindableService;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.locationtech.jts.io.WKBWriter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.grpc.server.service.GrpcService;
-import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
 
 @GrpcService
-public class FeatureServiceImpl extends FeatureServiceGrpc.FeatureServiceImplBase {
+public class FeatureServiceImpl implements FeatureServiceGrpc.AsyncService, BindableService {
+    private static final Logger log = LoggerFactory.getLogger(FeatureServiceImpl.class);
+
     private final GeometryConverter geometryConverter;
+    private final GeometrySimplifier geometrySimplifier;
+    private final PreparedGeometryCache preparedGeometryCache;
+    private final GeoJsonWriter geoJsonWriter;
     private final FeatureRepository featureRepository;
-    private final KafkaProducer kafkaProducer;
-    private final KafkaStreamFactory kafkaSTreamFactory;
+    private final FeatureQueryRepository featureQueryRepository;
+    private final PropertySchemaService propertySchemaService;
+    private final FeaturePublisher featurePublisher;
+    private final LatestFeatureStore latestFeatureStore;
+    private final HistoryReplayer historyReplayer;
+    private final FeatureStreamHub featureStreamHub;
+    private final FeatureSubscriberFactory featureSubscriberFactory;
+    private final FeatureBatchWriter featureBatchWriter;
+    private final PositionUpdateCoalescer positionUpdateCoalescer;
+    private final ThreadPoolTaskExecutor importExecutor;
+    private final LivePositionIndex livePositionIndex;
+    private final FeatureCache featureCache;
+    private final DatabaseConcurrencyLimiter databaseConcurrencyLimiter;
+    private final ExecutorService batchReadExecutor;
+    private final int queryPageSize;
+    private final int queryMaxIds;
+    private final int queryMaxNearest;
+    private final int queryIdChunkSize;
+    private final int importBatchSize;
+    private final int importMaxBuffered;
 
-    public FeatureServiceImpl(GeometryConverter geometryConverter, FeatureRepository featureRepository,
-                              KafkaProducer kafkaProducer, KafkaStreamFactory kafkaSTreamFactory) {
+    public FeatureServiceImpl(GeometryConverter geometryConverter, GeometrySimplifier geometrySimplifier,
+                              PreparedGeometryCache preparedGeometryCache, GeoJsonWriter geoJsonWriter,
+                              FeatureRepository featureRepository, FeatureQueryRepository featureQueryRepository,
+                              PropertySchemaService propertySchemaService,
+                              FeaturePublisher featurePublisher, LatestFeatureStore latestFeatureStore,
+                              HistoryReplayer historyReplayer,
+                              FeatureStreamHub featureStreamHub, FeatureSubscriberFactory featureSubscriberFactory,
+                              FeatureBatchWriter featureBatchWriter, PositionUpdateCoalescer positionUpdateCoalescer,
+                              ThreadPoolTaskExecutor importExecutor, LivePositionIndex livePositionIndex,
+                              FeatureCache featureCache, DatabaseConcurrencyLimiter databaseConcurrencyLimiter,
+                              @Qualifier("batchReadExecutor") ExecutorService batchReadExecutor,
+                              @Value("${gis.query.page-size:500}") int queryPageSize,
+                              @Value("${gis.query.max-ids:10000}") int queryMaxIds,
+                              @Value("${gis.query.max-nearest:1000}") int queryMaxNearest,
+                              @Value("${gis.query.id-chunk-size:500}") int queryIdChunkSize,
+                              @Value("${gis.import.batch-size:1000}") int importBatchSize,
+                              @Value("${gis.import.max-buffered:5000}") int importMaxBuffered) {
         this.geometryConverter = geometryConverter;
+        this.geometrySimplifier = geometrySimplifier;
+        this.preparedGeometryCache = preparedGeometryCache;
+        this.geoJsonWriter = geoJsonWriter;
         this.featureRepository = featureRepository;
-        this.kafkaProducer = kafkaProducer;
-        this.kafkaSTreamFactory = kafkaSTreamFactory;
+        this.featureQueryRepository = featureQueryRepository;
+        this.propertySchemaService = propertySchemaService;
+        this.featurePublisher = featurePublisher;
+        this.latestFeatureStore = latestFeatureStore;
+        this.historyReplayer = historyReplayer;
+        this.featureStreamHub = featureStreamHub;
+        this.featureSubscriberFactory = featureSubscriberFactory;
+        this.featureBatchWriter = featureBatchWriter;
+        this.positionUpdateCoalescer = positionUpdateCoalescer;
+        this.importExecutor = importExecutor;
+        this.livePositionIndex = livePositionIndex;
+        this.featureCache = featureCache;
+        this.databaseConcurrencyLimiter = databaseConcurrencyLimiter;
+        this.batchReadExecutor = batchReadExecutor;
+        this.queryPageSize = queryPageSize;
+        this.queryMaxIds = queryMaxIds;
+        this.queryMaxNearest = queryMaxNearest;
+        this.queryIdChunkSize = queryIdChunkSize;
+        this.importBatchSize = importBatchSize;
+        this.importMaxBuffered = importMaxBuffered;
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        //location streams write queued records as they are, see FeatureSubscriber
+        return PassThroughMarshaller.bind(FeatureServiceGrpc.bindService(this),
+                FeatureServiceGrpc.getGetFeatureLocationStreamMethod(),
+                FeatureServiceGrpc.getGetFeatureLocationHistoryStreamMethod());
+    }
+
+    @Override
+    public void convertToGeoJson(FeatureRequestDto request, StreamObserver<GeoJson> responseObserver) {
+        try {
+            responseObserver.onNext(GeoJson.newBuilder().setJsonBytes(geoJsonWriter.write(request)).build());
+            responseObserver.onCompleted();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
     }
 
     @Override
     public void createFeature(CreateFeatureRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
         try {
             Feature feature = convertCreateFeatureRequestDtoToFeature(request);
-            feature = featureRepository.save(feature);
+            //a plain insert: save() would first look the new id up in every partition
+            databaseConcurrencyLimiter.run(() -> featureBatchWriter.insertAll(List.of(feature)));
             FeatureResponseDto featureResponseDto = convertFeatureToFeatureResponseDto(feature);
-            responseObserver.onNext(featureResponseDto);
+            featureCache.put(featureResponseDto);
+            //the feature is saved once the insert committed; a record the producer gives up on goes to the
+            //dead-letter topic and is counted there, a client retrying would only create it a second time
             sendFeatureToKafka(featureResponseDto);
+            responseObserver.onNext(geometryConverter.adapt(featureResponseDto, GeometryEncoding.current()));
+            responseObserver.onCompleted();
         } catch (Exception exception) {
             responseObserver.onError(exception);
         }
-        finally {
+    }
+
+    private void sendFeatureToKafka(FeatureResponseDto feature){
+        featurePublisher.publish(feature).whenComplete((ignored, exception) -> {
+            if (exception != null) {
+                log.warn("Feature {} was saved but not published: {}", feature.getId(), exception.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void updateFeaturePosition(UpdateFeaturePositionRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
+        try {
+            UUID id = UUID.fromString(request.getId());
+            //the cache spares a database read per update, the rest of the feature does not change
+            FeatureResponseDto current = findFeature(id);
+            org.locationtech.jts.geom.Geometry position = geometryConverter.fromProto(request.getGeometry());
+            LocalDateTime timestamp = LocalDateTime.now();
+            FeatureResponseDto moved = current.toBuilder()
+                    .setGeometry(geometryConverter.adapt(request.getGeometry(), GeometryEncoding.PACKED))
+                    .setTimestamp(timestamp.toString())
+                    .build();
+            featureCache.put(moved);
+            positionUpdateCoalescer.submit(moved, new FeatureBatchWriter.PositionUpdate(id, position, timestamp));
+            responseObserver.onNext(geometryConverter.adapt(moved, GeometryEncoding.current()));
             responseObserver.onCompleted();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
         }
     }
 
-    private void sendFeatureToKafka(FeatureResponseDto feature){
-        byte[] featureBytes = feature.toByteArray();
-        kafkaProducer.send(Topics.FEATURE, feature.getOwner(), featureBytes);
+    private FeatureResponseDto findFeature(UUID featureId) {
+        FeatureResponseDto featureResponseDto = featureCache.get(featureId,
+                id -> databaseConcurrencyLimiter.call(() -> featureRepository.findById(id))
+                        .map(this::convertFeatureToFeatureResponseDto).orElse(null));
+        if (featureResponseDto == null) {
+            throw new CustomException(CustomError.FEATURE_NOT_FOUND);
+        }
+        return featureResponseDto;
     }
 
     @Override
     public void getFeature(FeatureId request, StreamObserver<FeatureResponseDto> responseObserver){
         try {
-            Optional<Feature> featureOptional = featureRepository.findById(UUID.fromString(request.getId()));
-            if (featureOptional.isPresent()) {
-                Feature feature = featureOptional.get();
-                FeatureResponseDto featureResponseDto = convertFeatureToFeatureResponseDto(feature);
-                responseObserver.onNext(featureResponseDto);
-                responseObserver.onCompleted();
-            } else {
-                throw new CustomException(CustomError.FEATURE_NOT_FOUND);
+            FeatureResponseDto featureResponseDto = findFeature(UUID.fromString(request.getId()));
+            responseObserver.onNext(shape(featureResponseDto, GeometryEncoding.current(), LevelOfDetail.current()));
+            responseObserver.onCompleted();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
+    }
+
+    @Override
+    public void getFeatures(GetFeaturesRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
+        try {
+            if (request.getIdsCount() > queryMaxIds) {
+                throw new CustomException(CustomError.INVALID_QUERY,
+                        new IllegalArgumentException("At most " + queryMaxIds + " ids can be read at once"));
             }
+            List<UUID> ids = request.getIdsList().stream().map(id -> UUID.fromString(id.getId())).toList();
+            GeometryEncoding encoding = GeometryEncoding.current();
+            LevelOfDetail levelOfDetail = LevelOfDetail.current();
+            new FeatureBatchReader((ServerCallStreamObserver<FeatureResponseDto>) responseObserver, ids,
+                    request.getOrdered(), featureCache,
+                    chunk -> databaseConcurrencyLimiter.call(() -> featureQueryRepository.findByIds(chunk)).stream()
+                            .map(this::convertFeatureToFeatureResponseDto).toList(),
+                    feature -> shape(feature, encoding, levelOfDetail), batchReadExecutor, queryIdChunkSize).start();
         } catch (Exception exception) {
             responseObserver.onError(exception);
         }
-        finally {
+    }
+
+    @Override
+    public void getNearestFeatures(GetNearestFeaturesRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
+        try {
+            //limit is a uint32, which Java reads as negative from 2^31 up
+            if (Integer.toUnsignedLong(request.getLimit()) > queryMaxNearest) {
+                throw new CustomException(CustomError.INVALID_QUERY,
+                        new IllegalArgumentException("At most " + queryMaxNearest + " nearest features can be read at once"));
+            }
+            int limit = request.getLimit() == 0 ? 10 : request.getLimit();
+            org.locationtech.jts.geom.Geometry origin = geometryConverter.fromProto(request.getGeometry());
+            GeometryEncoding encoding = GeometryEncoding.current();
+            LevelOfDetail levelOfDetail = LevelOfDetail.current();
+            if (request.getLive()) {
+                livePositionIndex.nearest(origin, limit, request.getOwner())
+                        .forEach(nearest -> responseObserver.onNext(shape(nearest.feature(), encoding, levelOfDetail)
+                                .toBuilder().setDistance(nearest.distance()).build()));
+            } else {
+                byte[] wkb = new WKBWriter().write(origin);
+                databaseConcurrencyLimiter.call(() -> featureQueryRepository.findNearest(wkb, limit, request.getOwner()))
+                        .forEach(nearest -> responseObserver.onNext(
+                                convertFeatureToFeatureResponseDto(nearest.feature(), encoding, levelOfDetail)
+                                        .toBuilder().setDistance(nearest.distance()).build()));
+            }
             responseObserver.onCompleted();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
         }
     }
 
     @Override
     public void getFeatureLocationStream(GetFeatureLocationStreamRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
-        getFeatureLocationConsumerStream(request,
-                (ServerCallStreamObserver<FeatureResponseDto>) responseObserver,
-                false);
+        ServerCallStreamObserver<FeatureResponseDto> serverObserver =
+                (ServerCallStreamObserver<FeatureResponseDto>) responseObserver;
+        try {
+            FeatureSubscriber subscriber = featureSubscriberFactory.create(toSubscriptionFilter(request),
+                    serverObserver, GeometryEncoding.current(), LevelOfDetail.current(), request.getSlowConsumerPolicy());
+            serverObserver.setOnCancelHandler(() -> featureStreamHub.unsubscribe(subscriber));
+            featureStreamHub.subscribe(subscriber, () -> request.getOwner().isEmpty()
+                    ? List.of() : latestFeatureStore.snapshot(request.getOwner()));
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
+    }
+
+    private SubscriptionFilter toSubscriptionFilter(GetFeatureLocationStreamRequestDto request) {
+        return SubscriptionFilter.of(request,
+                request.hasGeofence() ? preparedGeometryCache.prepare(request.getGeofence()) : null);
     }
 
     @Override
     public void getFeatureLocationHistoryStream(GetFeatureLocationStreamRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
-        getFeatureLocationConsumerStream(request,
-                (ServerCallStreamObserver<FeatureResponseDto>) responseObserver,
-                true);
+        try {
+            ServerCallStreamObserver<FeatureResponseDto> serverObserver =
+                    (ServerCallStreamObserver<FeatureResponseDto>) responseObserver;
+            FeatureSubscriber subscriber = featureSubscriberFactory.createForReplay(toSubscriptionFilter(request),
+                    serverObserver, GeometryEncoding.current(), LevelOfDetail.current());
+            HistoryReplayer.Replay replay = historyReplayer.start(subscriber, request.getFromMillis(),
+                    request.getToMillis(), request.getFollowLive());
+            serverObserver.setOnCancelHandler(replay::cancel);
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
     }
 
-    private void getFeatureLocationConsumerStream(GetFeatureLocationStreamRequestDto request,
-                                                  ServerCallStreamObserver<FeatureResponseDto> responseObserver,
-                                                  boolean consumeHistory) {
-        ServerCallStreamObserver<FeatureResponseDto> serverObserver =
-                responseObserver;
+    @Override
+    public void getFeaturesInArea(GetFeaturesInAreaRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
+        try {
+            byte[] area = new WKBWriter().write(geometryConverter.fromProto(request.getGeometry()));
+            GeometryEncoding encoding = GeometryEncoding.current();
+            LevelOfDetail levelOfDetail = LevelOfDetail.current();
+            new FeaturePageStreamer<>((ServerCallStreamObserver<FeatureResponseDto>) responseObserver,
+                    (after, limit) -> databaseConcurrencyLimiter.call(
+                            () -> featureRepository.findIntersectingAfter(area, after, limit)),
+                    feature -> convertFeatureToFeatureResponseDto(feature, encoding, levelOfDetail), queryPageSize).start();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
+    }
 
-        AtomicBoolean cancelled = new AtomicBoolean(false);
+    @Override
+    public void getFeaturesInAreaGeoJson(GetFeaturesInAreaRequestDto request, StreamObserver<GeoJson> responseObserver) {
+        try {
+            byte[] area = new WKBWriter().write(geometryConverter.fromProto(request.getGeometry()));
+            LevelOfDetail levelOfDetail = LevelOfDetail.current();
+            //one chunk per page, so only a single page of the collection is ever held in memory
+            new FeaturePageStreamer<>((ServerCallStreamObserver<GeoJson>) responseObserver,
+                    (after, limit) -> databaseConcurrencyLimiter.call(
+                            () -> featureRepository.findIntersectingAfter(area, after, limit)),
+                    (features, first, last) -> List.of(GeoJson.newBuilder()
+                            .setJsonBytes(geoJsonWriter.writeCollectionChunk(
+                                    simplify(features, levelOfDetail), first, last)).build()),
+                    queryPageSize).start();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
+    }
 
-        serverObserver.setOnCancelHandler(() -> {
-            cancelled.set(true);
-            System.out.println("Client cancelled the stream.");
-        });
+    @Override
+    public void queryFeatures(QueryFeaturesRequestDto request, StreamObserver<FeatureResponseDto> responseObserver) {
+        try {
+            byte[] area = request.hasGeometry()
+                    ? new WKBWriter().write(geometryConverter.fromProto(request.getGeometry())) : null;
+            //compiled up front so an invalid predicate fails the call before anything is streamed
+            FeatureQueryRepository.CompiledQuery query =
+                    featureQueryRepository.compile(request.getOwner(), area, request.getPredicatesList());
+            GeometryEncoding encoding = GeometryEncoding.current();
+            LevelOfDetail levelOfDetail = LevelOfDetail.current();
+            new FeaturePageStreamer<>((ServerCallStreamObserver<FeatureResponseDto>) responseObserver,
+                    (after, limit) -> databaseConcurrencyLimiter.call(
+                            () -> featureQueryRepository.findAfter(query, after, limit)),
+                    feature -> convertFeatureToFeatureResponseDto(feature, encoding, levelOfDetail), queryPageSize).start();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
+    }
 
-        String owner = request.getOwner();
-
-        ConcurrentMessageListenerContainer<String, byte[]> container = kafkaSTreamFactory.createFilteredContainer(
-                  Topics.FEATURE, GroupIds.GIS_BRIDGE, owner, serverObserver, consumeHistory
-        );
-        container.start();
-
-        String containerGroupId = container.getContainerProperties().getGroupId();
-        serverObserver.setOnCancelHandler(() -> {
-            System.out.println(String.format("Client cancelled stream for owner {}. Stopping container {}", owner, containerGroupId));
-
-            CompletableFuture.runAsync(() -> kafkaSTreamFactory.stopAndRemoveContainer(containerGroupId))
-                    .whenComplete((v, ex) -> {
-                        if (ex != null) {
-                            System.out.println(String.format("Error stopping container {}: {}", containerGroupId, ex.getMessage()));
-                        }
-                        try {
-                            serverObserver.onCompleted();
-                            container.stop();
-                        } catch (Exception ignore) {
-                            System.out.println(ignore.getMessage());
-                        }
-                    });
-        });
+    @Override
+    public void declarePropertySchema(PropertySchemaDto request, StreamObserver<PropertySchemaDto> responseObserver) {
+        try {
+            if (request.getType() == PropertyType.PROPERTY_TYPE_UNSPECIFIED || request.getType() == PropertyType.UNRECOGNIZED) {
+                throw new CustomException(CustomError.INVALID_PROPERTY,
+                        new IllegalArgumentException("A property schema needs a type"));
+            }
+            PropertySchema schema = propertySchemaService.declare(request.getOwner(), request.getKey(),
+                    com.fkhr.gisapi.model.PropertyType.valueOf(request.getType().name()), request.getIndexed());
+            responseObserver.onNext(convertPropertySchemaToPropertySchemaDto(schema));
+            responseObserver.onCompleted();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
+    }
+
+    @Override
+    public void getPropertySchemas(GetPropertySchemasRequestDto request, StreamObserver<PropertySchemaDto> responseObserver) {
+        try {
+            propertySchemaService.getSchemas(request.getOwner())
+                    .forEach(schema -> responseObserver.onNext(convertPropertySchemaToPropertySchemaDto(schema)));
+            responseObserver.onCompleted();
+        } catch (Exception exception) {
+            responseObserver.onError(exception);
+        }
+    }
+
+    @Override
+    public StreamObserver<FeatureRequestDto> importFeatures(StreamObserver<ImportFeaturesResponseDto> responseObserver) {
+        return new FeatureImportObserver((ServerCallStreamObserver<ImportFeaturesResponseDto>) responseObserver,
+                this::convertFeatureRequestDtoToImportedFeature, this::writeImportedFeatures, importExecutor,
+                importBatchSize, importMaxBuffered).start();
+    }
+
+    private CompletableFuture<Void> writeImportedFeatures(List<FeatureImportObserver.ImportedFeature> importedFeatures) {
+        List<Feature> features = importedFeatures.stream().map(FeatureImportObserver.ImportedFeature::feature).toList();
+        databaseConcurrencyLimiter.run(() -> featureBatchWriter.insertAll(features));
+        return CompletableFuture.allOf(importedFeatures.stream()
+                .map(importedFeature -> featurePublisher.publish(importedFeature.response()))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public StreamObserver<Geometry> liveProximitySearch(StreamObserver<FeatureResponseDto> responseObserver) {
+        GeometryEncoding encoding = GeometryEncoding.current();
+        LevelOfDetail levelOfDetail = LevelOfDetail.current();
+        return new StreamObserver<>() {
+            private boolean closed;
+
+            @Override
+            public void onNext(Geometry geometry) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    livePositionIndex.search(geometryConverter.fromProto(geometry))
+                            .forEach(feature -> responseObserver.onNext(shape(feature, encoding, levelOfDetail)));
+                } catch (Exception exception) {
+                    closed = true;
+                    responseObserver.onError(exception);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                closed = true;
+            }
+
+            @Override
+            public void onCompleted() {
+                if (!closed) {
+                    closed = true;
+                    responseObserver.onCompleted();
+                }
+            }
+        };
     }
 
     private Feature convertCreateFeatureRequestDtoToFeature(CreateFeatureRequestDto createFeatureRequestDto){
+        propertySchemaService.validate(createFeatureRequestDto.getOwner(), createFeatureRequestDto.getProperties());
         org.locationtech.jts.geom.Geometry geometry = geometryConverter.fromProto(createFeatureRequestDto.getGeometry());
         Map<String, Object> properties = ProtoUtils.structToMap(createFeatureRequestDto.getProperties());
         Feature feature = new Feature(UUID.randomUUID(), createFeatureRequestDto.getOwner(),
@@ -144,16 +431,41 @@ public class FeatureServiceImpl extends FeatureServiceGrpc.FeatureServiceImplBas
     }
 
     private Feature convertFeatureRequestDtoToFeature(FeatureRequestDto featureRequestDto){
+        propertySchemaService.validate(featureRequestDto.getOwner(), featureRequestDto.getProperties());
         org.locationtech.jts.geom.Geometry geometry = geometryConverter.fromProto(featureRequestDto.getGeometry());
         Map<String, Object> properties = ProtoUtils.structToMap(featureRequestDto.getProperties());
-        Feature feature = new Feature(UUID.fromString(featureRequestDto.getId()), featureRequestDto.getOwner(),
+        UUID id = featureRequestDto.getId().isEmpty() ? UUID.randomUUID() : UUID.fromString(featureRequestDto.getId());
+        Feature feature = new Feature(id, featureRequestDto.getOwner(),
                 featureRequestDto.getDescription(), geometry,
                 LocalDateTime.now(), properties);
         return feature;
     }
 
+    private FeatureImportObserver.ImportedFeature convertFeatureRequestDtoToImportedFeature(FeatureRequestDto featureRequestDto){
+        Feature feature = convertFeatureRequestDtoToFeature(featureRequestDto);
+        //the request already carries the proto geometry and properties, so there is no need to convert back from JTS
+        FeatureResponseDto featureResponseDto = FeatureResponseDto.newBuilder()
+                .setId(feature.getId().toString())
+                .setOwner(feature.getOwner())
+                .setDescription(feature.getDescription())
+                .setGeometry(geometryConverter.adapt(featureRequestDto.getGeometry(), GeometryEncoding.PACKED))
+                .setTimestamp(feature.getTimestamp().toString())
+                .setProperties(featureRequestDto.getProperties()).build();
+        return new FeatureImportObserver.ImportedFeature(feature, featureResponseDto);
+    }
+
     private FeatureResponseDto convertFeatureToFeatureResponseDto(Feature feature){
-        Geometry geometry = geometryConverter.toProto(feature.getGeometry());
+        //packed is what goes to Kafka, callers adapt it to the encoding their client negotiated
+        return convertFeatureToFeatureResponseDto(feature, GeometryEncoding.PACKED);
+    }
+
+    private FeatureResponseDto convertFeatureToFeatureResponseDto(Feature feature, GeometryEncoding encoding){
+        return convertFeatureToFeatureResponseDto(feature, encoding, LevelOfDetail.FULL);
+    }
+
+    private FeatureResponseDto convertFeatureToFeatureResponseDto(Feature feature, GeometryEncoding encoding,
+                                                                  LevelOfDetail levelOfDetail){
+        Geometry geometry = geometryConverter.toProto(geometrySimplifier.apply(feature, levelOfDetail), encoding);
         Struct properties = ProtoUtils.mapToStruct(feature.getProperties());
 
         FeatureResponseDto featureResponseDto = FeatureResponseDto.newBuilder()
@@ -165,7 +477,28 @@ public class FeatureServiceImpl extends FeatureServiceGrpc.FeatureServiceImplBas
                 .setProperties(properties).build();
         return featureResponseDto;
     }
-}
 
+    /**
+     * Shapes a packed feature for the client: simplified to its level of detail, in its encoding.
+     */
+    private FeatureResponseDto shape(FeatureResponseDto feature, GeometryEncoding encoding, LevelOfDetail levelOfDetail){
+        return geometryConverter.adapt(geometrySimplifier.apply(feature, levelOfDetail), encoding);
+    }
 
+    private List<Feature> simplify(List<Feature> features, LevelOfDetail levelOfDetail){
+        if (levelOfDetail.isFull()) {
+            return features;
+        }
+        return features.stream().map(feature -> new Feature(feature.getId(), feature.getOwner(),
+                feature.getDescription(), geometrySimplifier.apply(feature, levelOfDetail),
+                feature.getTimestamp(), feature.getProperties())).toList();
+    }
 
+    private PropertySchemaDto convertPropertySchemaToPropertySchemaDto(PropertySchema schema){
+        return PropertySchemaDto.newBuilder()
+                .setOwner(schema.getOwner())
+                .setKey(schema.getPropertyKey())
+                .setType(PropertyType.valueOf(schema.getType().name()))
+                .setIndexed(schema.isIndexed()).build();
+    }
+}
@@ -0,0 +1,173 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeaturePublisher;
+import com.fkhr.gisapi.repository.DatabaseConcurrencyLimiter;
+import com.fkhr.gisapi.repository.FeatureBatchWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces position updates per feature. Only the latest position of each feature is kept and
+ * written every {@code gis.position.flush-interval} in batched updates, so a tracker reporting several
+ * times per second costs one row write per interval. Updates are published to the feature topic as
+ * they come, or a random {@code gis.position.publish-sample-rate} of them; the latest position of a
+ * feature is always published by the flush if its own update was not, so live streams never stay on
+ * an older position for longer than one interval. Both publish under the lock {@code pending} holds
+ * for the feature, so the positions of one feature reach the publisher, and the topic, in the order
+ * they were submitted. A feature whose row is gone by the time its position is written, e.g. dropped
+ * for retention, is tombstoned in feature-latest again, since the published position brought it back
+ * there.
+ * <p>
+ * The written {@code timestamp} is the partition key of the feature table, on purpose: it is what
+ * keeps a moving feature out of the partitions dropped for retention. Postgres only moves the row,
+ * as a delete and an insert, when the new timestamp falls in another partition, so at most once per
+ * {@code gis.partitions.interval} for each feature; every other update stays in place.
+ */
+@Component
+public class PositionUpdateCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(PositionUpdateCoalescer.class);
+
+    private record Pending(FeatureBatchWriter.PositionUpdate update, FeatureResponseDto unpublished) {
+    }
+
+    private final FeatureBatchWriter featureBatchWriter;
+    private final DatabaseConcurrencyLimiter databaseConcurrencyLimiter;
+    private final FeaturePublisher featurePublisher;
+    private final int batchSize;
+    private final double publishSampleRate;
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("position-flush-"));
+    private final Counter updates;
+    private final Counter coalesced;
+    private final Counter written;
+    private final Counter missing;
+
+    public PositionUpdateCoalescer(FeatureBatchWriter featureBatchWriter,
+                                   DatabaseConcurrencyLimiter databaseConcurrencyLimiter,
+                                   FeaturePublisher featurePublisher, MeterRegistry meterRegistry,
+                                   @Value("${gis.position.flush-interval:1s}") Duration flushInterval,
+                                   @Value("${gis.position.batch-size:1000}") int batchSize,
+                                   @Value("${gis.position.publish-sample-rate:1.0}") double publishSampleRate) {
+        this.featureBatchWriter = featureBatchWriter;
+        this.databaseConcurrencyLimiter = databaseConcurrencyLimiter;
+        this.featurePublisher = featurePublisher;
+        this.batchSize = batchSize;
+        this.publishSampleRate = publishSampleRate;
+        this.updates = Counter.builder("gis.position.updates")
+                .description("Position updates received")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("gis.position.coalesced")
+                .description("Position updates replaced by a newer one before they were written")
+                .register(meterRegistry);
+        this.written = Counter.builder("gis.position.written")
+                .description("Feature positions written to the database")
+                .register(meterRegistry);
+        this.missing = Counter.builder("gis.position.missing")
+                .description("Feature positions not written since the feature no longer exists")
+                .register(meterRegistry);
+        Gauge.builder("gis.position.pending", pending, Map::size)
+                .description("Features with a position waiting to be written")
+                .register(meterRegistry);
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes the new position of {@code feature}, which already carries it.
+     */
+    public void submit(FeatureResponseDto feature, FeatureBatchWriter.PositionUpdate update) {
+        boolean publish = publishSampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < publishSampleRate;
+        updates.increment();
+        Pending submitted = new Pending(update, publish ? null : feature);
+        CompletableFuture<?>[] published = new CompletableFuture<?>[1];
+        pending.compute(update.id(), (id, previous) -> {
+            if (previous != null) {
+                coalesced.increment();
+            }
+            if (publish) {
+                published[0] = featurePublisher.publish(feature);
+            }
+            return submitted;
+        });
+        if (published[0] != null) {
+            //a position that could not be published is left to the flush, unless that already took it; not
+            //from within compute, since a rejected publish has already failed and would run this right away
+            published[0].exceptionally(exception -> {
+                pending.replace(update.id(), submitted, new Pending(update, feature));
+                return null;
+            });
+        }
+    }
+
+    void flush() {
+        List<FeatureBatchWriter.PositionUpdate> batch = new ArrayList<>(batchSize);
+        for (UUID id : pending.keySet()) {
+            Pending[] taken = new Pending[1];
+            //the latest position is taken, and published if submit did not, before a newer one can be submitted
+            pending.computeIfPresent(id, (key, latest) -> {
+                if (latest.unpublished() != null) {
+                    featurePublisher.publish(latest.unpublished());
+                }
+                taken[0] = latest;
+                return null;
+            });
+            if (taken[0] == null) {
+                continue;
+            }
+            batch.add(taken[0].update());
+            if (batch.size() == batchSize) {
+                write(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<FeatureBatchWriter.PositionUpdate> batch) {
+        List<UUID> gone;
+        try {
+            gone = databaseConcurrencyLimiter.call(() -> featureBatchWriter.updatePositions(batch));
+        } catch (Exception exception) {
+            log.warn("Could not write {} feature positions, retrying with the next flush: {}",
+                    batch.size(), exception.getMessage());
+            //already published, only the row is still behind; newer positions win
+            batch.forEach(update -> pending.putIfAbsent(update.id(), new Pending(update, null)));
+            return;
+        }
+        written.increment(batch.size() - gone.size());
+        missing.increment(gone.size());
+        for (UUID id : gone) {
+            featurePublisher.publishRemoved(id.toString());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+    }
+}
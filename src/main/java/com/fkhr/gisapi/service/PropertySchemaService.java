@@ -0,0 +1,128 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.model.PropertySchema;
+import com.fkhr.gisapi.model.PropertyType;
+import com.fkhr.gisapi.repository.DatabaseConcurrencyLimiter;
+import com.fkhr.gisapi.repository.FeatureQueryRepository;
+import com.fkhr.gisapi.repository.PropertySchemaRepository;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Declared property types per owner. Writes are checked against them from a short lived cache, so a
+ * schema declared on another node applies here within {@code gis.property-schema.ttl}. Declaring an
+ * indexed key builds its expression index in the background, since that can take a while on a large
+ * table. The index is per key and type, so an owner declaring a key another owner already indexed
+ * with the same type finds it built.
+ */
+@Service
+public class PropertySchemaService {
+    private static final Logger log = LoggerFactory.getLogger(PropertySchemaService.class);
+
+    private final PropertySchemaRepository propertySchemaRepository;
+    private final FeatureQueryRepository featureQueryRepository;
+    private final DatabaseConcurrencyLimiter databaseConcurrencyLimiter;
+    private final Cache<String, Map<String, PropertyType>> typesByOwner;
+    private final ExecutorService indexBuilder =
+            Executors.newSingleThreadExecutor(new CustomizableThreadFactory("property-index-"));
+
+    public PropertySchemaService(PropertySchemaRepository propertySchemaRepository,
+                                 FeatureQueryRepository featureQueryRepository,
+                                 DatabaseConcurrencyLimiter databaseConcurrencyLimiter,
+                                 @org.springframework.beans.factory.annotation.Value("${gis.property-schema.ttl:1m}") Duration ttl) {
+        this.propertySchemaRepository = propertySchemaRepository;
+        this.featureQueryRepository = featureQueryRepository;
+        this.databaseConcurrencyLimiter = databaseConcurrencyLimiter;
+        this.typesByOwner = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    public PropertySchema declare(String owner, String key, PropertyType type, boolean indexed) {
+        if (owner.isEmpty() || !FeatureQueryRepository.PROPERTY_KEY.matcher(key).matches()) {
+            throw new CustomException(CustomError.INVALID_PROPERTY,
+                    new IllegalArgumentException("A schema needs an owner and a key of 1 to 48 letters, digits or underscores"));
+        }
+        PropertySchema schema = databaseConcurrencyLimiter.call(() -> {
+            PropertySchema declared = propertySchemaRepository.findByOwnerAndPropertyKey(owner, key)
+                    .orElseGet(() -> new PropertySchema(UUID.randomUUID(), owner, key, type, indexed));
+            declared.setType(type);
+            declared.setIndexed(indexed);
+            return propertySchemaRepository.save(declared);
+        });
+        typesByOwner.invalidate(owner);
+        if (indexed && type != PropertyType.BOOLEAN) {
+            indexBuilder.execute(() -> buildIndex(key, type));
+        }
+        return schema;
+    }
+
+    public List<PropertySchema> getSchemas(String owner) {
+        return databaseConcurrencyLimiter.call(() -> propertySchemaRepository.findByOwner(owner));
+    }
+
+    /**
+     * Rejects properties whose value for a declared key has another type. Nulls and undeclared keys
+     * are always accepted.
+     */
+    public void validate(String owner, Struct properties) {
+        Map<String, PropertyType> types = typesByOwner.get(owner, this::loadTypes);
+        if (types.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, PropertyType> declared : types.entrySet()) {
+            Value value = properties.getFieldsOrDefault(declared.getKey(), null);
+            if (value == null || value.getKindCase() == Value.KindCase.NULL_VALUE) {
+                continue;
+            }
+            boolean matches = switch (declared.getValue()) {
+                case NUMBER -> value.hasNumberValue();
+                case STRING -> value.hasStringValue();
+                case BOOLEAN -> value.hasBoolValue();
+            };
+            if (!matches) {
+                throw new CustomException(CustomError.INVALID_PROPERTY, new IllegalArgumentException(
+                        "Property " + declared.getKey() + " of " + owner + " must be a " + declared.getValue()));
+            }
+        }
+    }
+
+    private Map<String, PropertyType> loadTypes(String owner) {
+        return getSchemas(owner).stream()
+                .collect(Collectors.toUnmodifiableMap(PropertySchema::getPropertyKey, PropertySchema::getType));
+    }
+
+    private void buildIndex(String key, PropertyType type) {
+        try {
+            long start = System.nanoTime();
+            featureQueryRepository.createPropertyIndex(key, type);
+            log.info("Property index for {} ({}) ready in {} ms", key, type,
+                    Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (Exception exception) {
+            log.warn("Could not build the property index for {} ({}): {}", key, type, exception.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        indexBuilder.shutdownNow();
+    }
+}
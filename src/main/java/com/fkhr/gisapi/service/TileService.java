@@ -0,0 +1,173 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.FeatureUpdate;
+import com.fkhr.gisapi.repository.DatabaseConcurrencyLimiter;
+import com.fkhr.gisapi.repository.FeatureTileRepository;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Vector tiles of the feature table, cached by z/x/y in a cache bounded by the total size of the
+ * tiles. Every update on the feature topic invalidates the cached tiles around the feature's new
+ * position and around the last position this node saw for it, so a tile is only rendered again once
+ * something visible in it changed. Invalidation runs on the hub's listener thread, so it only visits
+ * the zoom levels that have tiles cached, and per level never costs more than a pass over the cache.
+ * The last positions are kept for the {@code gis.tiles.last-positions} most recently updated
+ * features; for the others, and for positions from before this node started, a tile a feature moved
+ * out of may be stale for up to {@code gis.tiles.cache.ttl}.
+ */
+@Service
+public class TileService {
+    public record TileKey(int z, int x, int y) {
+    }
+
+    private static final double MAX_LATITUDE = 85.0511287798066;
+
+    private final FeatureTileRepository featureTileRepository;
+    private final DatabaseConcurrencyLimiter databaseConcurrencyLimiter;
+    private final GeometryConverter geometryConverter;
+    private final Cache<TileKey, byte[]> tiles;
+    //tiles cached per zoom level, counted as they are loaded and removed
+    private final AtomicIntegerArray cachedPerZoom;
+    //feature id -> envelope of the last position seen, to invalidate the tiles a feature left
+    private final Cache<String, Envelope> lastEnvelopes;
+    private final int extent;
+    private final int buffer;
+    private final int maxZoom;
+
+    public TileService(FeatureTileRepository featureTileRepository, DatabaseConcurrencyLimiter databaseConcurrencyLimiter,
+                       GeometryConverter geometryConverter, FeatureStreamHub featureStreamHub,
+                       MeterRegistry meterRegistry,
+                       @Value("${gis.tiles.extent:4096}") int extent,
+                       @Value("${gis.tiles.buffer:64}") int buffer,
+                       @Value("${gis.tiles.max-zoom:22}") int maxZoom,
+                       @Value("${gis.tiles.cache.maximum-size:256MB}") DataSize maximumSize,
+                       @Value("${gis.tiles.cache.ttl:10m}") Duration ttl,
+                       @Value("${gis.tiles.last-positions:1000000}") long lastPositions) {
+        this.featureTileRepository = featureTileRepository;
+        this.databaseConcurrencyLimiter = databaseConcurrencyLimiter;
+        this.geometryConverter = geometryConverter;
+        this.extent = extent;
+        this.buffer = buffer;
+        this.maxZoom = maxZoom;
+        this.cachedPerZoom = new AtomicIntegerArray(maxZoom + 1);
+        this.tiles = Caffeine.newBuilder()
+                .maximumWeight(maximumSize.toBytes())
+                //empty tiles are cached too, so every entry weighs at least its key
+                .<TileKey, byte[]>weigher((key, tile) -> tile.length + 32)
+                .expireAfterWrite(ttl)
+                //runs as part of the eviction, unlike a removal listener, so the counts never lag behind
+                .evictionListener((TileKey key, byte[] tile, RemovalCause cause) -> cachedPerZoom.decrementAndGet(key.z()))
+                .recordStats()
+                .build();
+        this.lastEnvelopes = Caffeine.newBuilder()
+                .maximumSize(lastPositions)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, tiles, "tile");
+        featureStreamHub.addListener(this::invalidate);
+    }
+
+    /**
+     * The encoded tile, empty when no feature is visible in it. Concurrent requests for a tile that
+     * is not cached render it once.
+     */
+    public byte[] getTile(int z, int x, int y) {
+        if (z < 0 || z > maxZoom || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            throw new CustomException(CustomError.INVALID_QUERY,
+                    new IllegalArgumentException("No tile " + z + "/" + x + "/" + y + " up to zoom " + maxZoom));
+        }
+        return tiles.get(new TileKey(z, x, y), key -> {
+            byte[] tile = databaseConcurrencyLimiter.call(
+                    () -> featureTileRepository.findTile(key.z(), key.x(), key.y(), extent, buffer));
+            cachedPerZoom.incrementAndGet(key.z());
+            return tile;
+        });
+    }
+
+    public long size() {
+        return tiles.estimatedSize();
+    }
+
+    void invalidate(FeatureUpdate update) {
+        Envelope envelope = geometryConverter.fromProto(update.geometry()).getEnvelopeInternal();
+        Envelope previous = lastEnvelopes.asMap().put(update.id(), envelope);
+        invalidate(envelope);
+        if (previous != null && !previous.equals(envelope)) {
+            invalidate(previous);
+        }
+    }
+
+    private void invalidate(Envelope envelope) {
+        long cached = tiles.estimatedSize();
+        if (cached == 0) {
+            return;
+        }
+        //a feature is drawn into the buffer of the neighbouring tiles as well
+        double margin = (double) buffer / extent;
+        int[][] ranges = new int[maxZoom + 1][];
+        boolean scan = false;
+        for (int z = 0; z <= maxZoom; z++) {
+            if (cachedPerZoom.get(z) <= 0) {
+                continue;
+            }
+            int scale = 1 << z;
+            int minX = tile(tileX(envelope.getMinX(), scale) - margin, scale);
+            int maxX = tile(tileX(envelope.getMaxX(), scale) + margin, scale);
+            int minY = tile(tileY(envelope.getMaxY(), scale) - margin, scale);
+            int maxY = tile(tileY(envelope.getMinY(), scale) + margin, scale);
+            //past as many tiles as are cached, one pass over the cache is cheaper than looking each up
+            if ((long) (maxX - minX + 1) * (maxY - minY + 1) > cached) {
+                ranges[z] = new int[]{minX, maxX, minY, maxY};
+                scan = true;
+                continue;
+            }
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    remove(new TileKey(z, x, y));
+                }
+            }
+        }
+        if (scan) {
+            for (TileKey key : tiles.asMap().keySet()) {
+                int[] range = ranges[key.z()];
+                if (range != null && key.x() >= range[0] && key.x() <= range[1]
+                        && key.y() >= range[2] && key.y() <= range[3]) {
+                    remove(key);
+                }
+            }
+        }
+    }
+
+    private void remove(TileKey key) {
+        if (tiles.asMap().remove(key) != null) {
+            cachedPerZoom.decrementAndGet(key.z());
+        }
+    }
+
+    private static double tileX(double longitude, int scale) {
+        return (longitude + 180) / 360 * scale;
+    }
+
+    private static double tileY(double latitude, int scale) {
+        double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * scale;
+    }
+
+    private static int tile(double coordinate, int scale) {
+        return (int) Math.max(0, Math.min(scale - 1, Math.floor(coordinate)));
+    }
+}
@@ -0,0 +1,97 @@
+package com.fkhr.gisapi.spatial;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.model.Feature;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * Topology-preserving simplification of feature geometries for a {@link LevelOfDetail}. Simplified
+ * variants are cached per feature and zoom level, bounded by their total number of coordinates, and
+ * tied to the feature's timestamp, which every write renews, so a changed geometry is never served
+ * from an older variant. Geometries of fewer than {@code gis.lod.min-coordinates} coordinates are
+ * always returned as they are.
+ */
+@Component
+public class GeometrySimplifier {
+    private record VariantKey(String featureId, int zoom) {
+    }
+
+    private record Variant(String version, Geometry geometry) {
+    }
+
+    private final GeometryConverter geometryConverter;
+    private final Cache<VariantKey, Variant> variants;
+    private final int minCoordinates;
+
+    public GeometrySimplifier(GeometryConverter geometryConverter, MeterRegistry meterRegistry,
+                              @Value("${gis.lod.min-coordinates:256}") int minCoordinates,
+                              @Value("${gis.lod.cache.maximum-coordinates:20000000}") long maximumCoordinates) {
+        this.geometryConverter = geometryConverter;
+        this.minCoordinates = minCoordinates;
+        this.variants = Caffeine.newBuilder()
+                .maximumWeight(maximumCoordinates)
+                .<VariantKey, Variant>weigher((key, variant) -> variant.geometry().getNumPoints())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, variants, "lod");
+    }
+
+    /**
+     * {@code feature} with its geometry simplified for {@code lod}, in the geometry's encoding.
+     */
+    public FeatureResponseDto apply(FeatureResponseDto feature, LevelOfDetail lod) {
+        com.fkhr.gisapi.Geometry proto = feature.getGeometry();
+        GeometryEncoding encoding = GeometryEncoding.of(proto);
+        if (lod.isFull() || (encoding == GeometryEncoding.PACKED && proto.getPackedCoordinatesCount() / 2 < minCoordinates)) {
+            return feature;
+        }
+        Geometry[] source = new Geometry[1];
+        Geometry simplified = simplify(feature.getId(), feature.getTimestamp(), lod, () -> {
+            source[0] = geometryConverter.fromProto(proto);
+            return source[0];
+        });
+        if (simplified == source[0]) {
+            //decoded from the list encoding and too small to simplify
+            return feature;
+        }
+        return feature.toBuilder().setGeometry(geometryConverter.toProto(simplified, encoding)).build();
+    }
+
+    /**
+     * The geometry of {@code feature} simplified for {@code lod}.
+     */
+    public Geometry apply(Feature feature, LevelOfDetail lod) {
+        Geometry geometry = feature.getGeometry();
+        if (lod.isFull() || geometry.getNumPoints() < minCoordinates) {
+            return geometry;
+        }
+        return simplify(feature.getId().toString(), feature.getTimestamp().toString(), lod, () -> geometry);
+    }
+
+    private Geometry simplify(String featureId, String version, LevelOfDetail lod, Supplier<Geometry> source) {
+        VariantKey key = new VariantKey(featureId, lod.zoom());
+        Variant variant = variants.getIfPresent(key);
+        if (variant != null && variant.version().equals(version)) {
+            return variant.geometry();
+        }
+        Geometry geometry = source.get();
+        if (geometry.getNumPoints() < minCoordinates) {
+            return geometry;
+        }
+        Geometry simplified = TopologyPreservingSimplifier.simplify(geometry, lod.tolerance());
+        variants.put(key, new Variant(version, simplified));
+        return simplified;
+    }
+}
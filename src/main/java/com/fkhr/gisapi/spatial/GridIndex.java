@@ -0,0 +1,162 @@
+package com.fkhr.gisapi.spatial;
+
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Mutable spatial index over a uniform grid of {@code cellSize} x {@code cellSize} cells. Each key
+ * owns exactly one entry, and replacing it only locks that key, so frequently moving points can be
+ * updated in place while other threads query. Entries covering more than {@code maxCellsPerEntry}
+ * cells are kept in a separate list that every query scans.
+ */
+public class GridIndex<K, V> {
+    public record Entry<K, V>(K key, Envelope envelope, V value) {
+    }
+
+    private final double cellSize;
+    private final int maxCellsPerEntry;
+    private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    private final Map<Long, Map<K, Entry<K, V>>> cells = new ConcurrentHashMap<>();
+    private final Map<K, Entry<K, V>> oversized = new ConcurrentHashMap<>();
+
+    public GridIndex(double cellSize, int maxCellsPerEntry) {
+        this.cellSize = cellSize;
+        this.maxCellsPerEntry = maxCellsPerEntry;
+    }
+
+    public void put(K key, Envelope envelope, V value) {
+        entries.compute(key, (k, previous) -> {
+            if (previous != null) {
+                unlink(previous);
+            }
+            Entry<K, V> entry = new Entry<>(k, envelope, value);
+            link(entry);
+            return entry;
+        });
+    }
+
+    public void remove(K key) {
+        entries.computeIfPresent(key, (k, previous) -> {
+            unlink(previous);
+            return null;
+        });
+    }
+
+    /**
+     * Removes every entry whose value matches {@code predicate} and returns how many were removed.
+     * An entry replaced meanwhile is tested in its new version.
+     */
+    public int removeIf(Predicate<V> predicate) {
+        int[] removed = new int[1];
+        for (K key : entries.keySet()) {
+            entries.computeIfPresent(key, (k, entry) -> {
+                if (!predicate.test(entry.value())) {
+                    return entry;
+                }
+                unlink(entry);
+                removed[0]++;
+                return null;
+            });
+        }
+        return removed[0];
+    }
+
+    public V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        return entry == null ? null : entry.value();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Visits every entry whose envelope intersects {@code area} exactly once.
+     */
+    public void query(Envelope area, Consumer<Entry<K, V>> visitor) {
+        oversized.values().forEach(entry -> {
+            if (entry.envelope().intersects(area)) {
+                visitor.accept(entry);
+            }
+        });
+        long minX = cell(area.getMinX()), maxX = cell(area.getMaxX());
+        long minY = cell(area.getMinY()), maxY = cell(area.getMaxY());
+        if ((maxX - minX + 1) * (maxY - minY + 1) > cells.size()) {
+            cells.forEach((cellKey, cell) -> visitCell(cellKey, cell, area, visitor));
+            return;
+        }
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                long cellKey = cellKey(x, y);
+                Map<K, Entry<K, V>> cell = cells.get(cellKey);
+                if (cell != null) {
+                    visitCell(cellKey, cell, area, visitor);
+                }
+            }
+        }
+    }
+
+    private void visitCell(long cellKey, Map<K, Entry<K, V>> cell, Envelope area, Consumer<Entry<K, V>> visitor) {
+        for (Entry<K, V> entry : cell.values()) {
+            Envelope envelope = entry.envelope();
+            if (!envelope.intersects(area)) {
+                continue;
+            }
+            //an entry spanning several cells is reported only from the cell holding the lower-left
+            //corner of its overlap with the query, so no de-duplication set is needed
+            long ownerCell = cellKey(cell(Math.max(envelope.getMinX(), area.getMinX())),
+                    cell(Math.max(envelope.getMinY(), area.getMinY())));
+            if (ownerCell == cellKey) {
+                visitor.accept(entry);
+            }
+        }
+    }
+
+    private void link(Entry<K, V> entry) {
+        Envelope envelope = entry.envelope();
+        long minX = cell(envelope.getMinX()), maxX = cell(envelope.getMaxX());
+        long minY = cell(envelope.getMinY()), maxY = cell(envelope.getMaxY());
+        if ((maxX - minX + 1) * (maxY - minY + 1) > maxCellsPerEntry) {
+            oversized.put(entry.key(), entry);
+            return;
+        }
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                //linking and unlinking both run under the cell's map lock so an empty cell being
+                //dropped can never swallow a concurrent insert
+                cells.compute(cellKey(x, y), (key, cell) -> {
+                    Map<K, Entry<K, V>> target = cell == null ? new ConcurrentHashMap<>() : cell;
+                    target.put(entry.key(), entry);
+                    return target;
+                });
+            }
+        }
+    }
+
+    private void unlink(Entry<K, V> entry) {
+        if (oversized.remove(entry.key(), entry)) {
+            return;
+        }
+        Envelope envelope = entry.envelope();
+        for (long x = cell(envelope.getMinX()); x <= cell(envelope.getMaxX()); x++) {
+            for (long y = cell(envelope.getMinY()); y <= cell(envelope.getMaxY()); y++) {
+                cells.computeIfPresent(cellKey(x, y), (key, cell) -> {
+                    cell.remove(entry.key(), entry);
+                    return cell.isEmpty() ? null : cell;
+                });
+            }
+        }
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private static long cellKey(long x, long y) {
+        return (x << 32) | (y & 0xffffffffL);
+    }
+}
@@ -0,0 +1,217 @@
+package com.fkhr.gisapi.spatial;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.FeatureUpdate;
+import com.fkhr.gisapi.kafka.LatestFeatureStore;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.operation.distance.DistanceOp;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Latest known geometry of every feature seen on the feature topic since this node started, kept
+ * in a {@link GridIndex} so proximity queries are answered without touching the database. A feature
+ * leaves the index when it is tombstoned in feature-latest, or once it has not been updated for
+ * {@code gis.live-index.expire-after}, so features that stopped reporting do not pile up.
+ * <p>
+ * Longitudes wrap at the antimeridian: a query reaching past 180 or -180 continues on the other
+ * side of the map.
+ * <p>
+ * Only the geometry of an update is parsed when it arrives; the rest of the feature is parsed once a
+ * query returns it, so positions that are replaced before anyone asks for them never are.
+ */
+@Component
+public class LivePositionIndex {
+    public record LivePosition(FeatureUpdate update, Geometry geometry, long updatedAt) {
+        public FeatureResponseDto feature() {
+            return update.feature();
+        }
+    }
+
+    /**
+     * A feature and its distance in meters from the point asked about.
+     */
+    public record Nearest(FeatureResponseDto feature, double distance) {
+    }
+
+    //mean earth radius, as used by PostGIS' ST_DistanceSphere
+    private static final double EARTH_RADIUS = 6371008.7714;
+    private static final Envelope WORLD = new Envelope(-180, 180, -90, 90);
+    //what is added to the longitudes of a query to bring each part of it back on the map
+    private static final double[] WRAPS = {0, 360, -360};
+    private static final Duration EXPIRY_CHECK_INTERVAL = Duration.ofMinutes(1);
+
+    private final GeometryConverter geometryConverter;
+    private final PreparedGeometryCache preparedGeometryCache;
+    private final GridIndex<String, LivePosition> index;
+    private final double cellSize;
+    private final double proximityDistance;
+    private final Duration expireAfter;
+    private final ScheduledExecutorService expirer =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("live-index-expiry-"));
+    private final Counter expired;
+
+    public LivePositionIndex(GeometryConverter geometryConverter, PreparedGeometryCache preparedGeometryCache,
+                             FeatureStreamHub featureStreamHub, LatestFeatureStore latestFeatureStore,
+                             MeterRegistry meterRegistry,
+                             @Value("${gis.live-index.cell-size:0.01}") double cellSize,
+                             @Value("${gis.live-index.max-cells-per-entry:64}") int maxCellsPerEntry,
+                             @Value("${gis.live-index.proximity-distance:0.001}") double proximityDistance,
+                             @Value("${gis.live-index.expire-after:24h}") Duration expireAfter) {
+        this.geometryConverter = geometryConverter;
+        this.preparedGeometryCache = preparedGeometryCache;
+        this.index = new GridIndex<>(cellSize, maxCellsPerEntry);
+        this.cellSize = cellSize;
+        this.proximityDistance = proximityDistance;
+        this.expireAfter = expireAfter;
+        featureStreamHub.addListener(this::update);
+        latestFeatureStore.addRemovalListener(this::remove);
+        Gauge.builder("gis.live-index.size", this, LivePositionIndex::size)
+                .description("Features with a live position on this node")
+                .register(meterRegistry);
+        this.expired = Counter.builder("gis.live-index.expired")
+                .description("Features dropped from the live index after not being updated")
+                .register(meterRegistry);
+        if (!expireAfter.isZero()) {
+            long interval = Math.min(expireAfter.toMillis(), EXPIRY_CHECK_INTERVAL.toMillis());
+            expirer.scheduleWithFixedDelay(() -> expire(System.currentTimeMillis()), interval, interval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void update(FeatureUpdate update) {
+        Geometry geometry = geometryConverter.fromProto(update.geometry());
+        index.put(update.id(), geometry.getEnvelopeInternal(),
+                new LivePosition(update, geometry, System.currentTimeMillis()));
+    }
+
+    public void remove(String featureId) {
+        index.remove(featureId);
+    }
+
+    /**
+     * Drops the features not updated for {@code gis.live-index.expire-after} as of {@code now}.
+     */
+    void expire(long now) {
+        long before = now - expireAfter.toMillis();
+        expired.increment(index.removeIf(position -> position.updatedAt() < before));
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Features intersecting {@code area}. Points and lines have no area of their own, so for them
+     * everything within {@code gis.live-index.proximity-distance} (in SRID units) is returned.
+     * Areas are prepared through the {@link PreparedGeometryCache}, so a client repeating the same
+     * area only pays for indexing it once.
+     */
+    public List<FeatureResponseDto> search(Geometry area) {
+        double distance = area.getDimension() < 2 ? proximityDistance : 0;
+        Envelope envelope = new Envelope(area.getEnvelopeInternal());
+        envelope.expandBy(distance);
+        PreparedGeometry prepared = distance == 0 ? preparedGeometryCache.prepare(area) : null;
+
+        List<FeatureResponseDto> result = new ArrayList<>();
+        query(envelope, area, (position, wrappedArea) -> {
+            boolean matches = prepared != null
+                    ? prepared.intersects(position.geometry())
+                    : wrappedArea.isWithinDistance(position.geometry(), distance);
+            if (matches) {
+                result.add(position.feature());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The {@code limit} features closest to {@code origin}, optionally only those of {@code owner},
+     * closest first. The search starts with the cells around the origin and doubles its radius, ranking
+     * what each ring holds in meters, until the {@code limit}-th closest lies within the radius: nothing
+     * outside the ring can be closer. A degree of longitude is shorter than one of latitude away from the
+     * equator, so each ring reaches as much further east and west. The search also stops once a ring
+     * holds every position in the index, so an owner with fewer features than {@code limit} does not
+     * widen it to the whole map.
+     */
+    public List<Nearest> nearest(Geometry origin, int limit, String owner) {
+        Envelope bounds = origin.getEnvelopeInternal();
+        for (double radius = cellSize; ; radius *= 2) {
+            double latitude = Math.max(Math.abs(bounds.getMinY()), Math.abs(bounds.getMaxY())) + radius;
+            double widening = latitude >= 90 ? 360 : radius / Math.cos(Math.toRadians(latitude));
+            Envelope envelope = new Envelope(bounds.getMinX() - widening, bounds.getMaxX() + widening,
+                    bounds.getMinY() - radius, bounds.getMaxY() + radius);
+            int size = index.size();
+            int[] visited = new int[1];
+            List<Nearest> candidates = new ArrayList<>();
+            query(envelope, origin, (position, wrappedOrigin) -> {
+                visited[0]++;
+                if (owner.isEmpty() || owner.equals(position.update().owner())) {
+                    candidates.add(new Nearest(position.feature(), sphereDistance(wrappedOrigin, position.geometry())));
+                }
+            });
+            candidates.sort(Comparator.comparingDouble(Nearest::distance));
+            boolean found = candidates.size() >= limit
+                    && candidates.get(limit - 1).distance() <= Math.toRadians(radius) * EARTH_RADIUS;
+            if (found || visited[0] >= size || radius >= 180) {
+                return candidates.size() > limit ? List.copyOf(candidates.subList(0, limit)) : candidates;
+            }
+        }
+    }
+
+    /**
+     * Visits the positions in {@code envelope}, whose longitudes may reach past the antimeridian,
+     * each with {@code geometry} moved by as much as the part of the map it was found in, so planar
+     * tests against the position work across the antimeridian.
+     */
+    private void query(Envelope envelope, Geometry geometry, BiConsumer<LivePosition, Geometry> visitor) {
+        if (envelope.getWidth() >= 360) {
+            index.query(WORLD, entry -> visitor.accept(entry.value(), geometry));
+            return;
+        }
+        for (double wrap : WRAPS) {
+            Envelope part = new Envelope(envelope.getMinX() + wrap, envelope.getMaxX() + wrap,
+                    envelope.getMinY(), envelope.getMaxY()).intersection(WORLD);
+            if (part.isNull()) {
+                continue;
+            }
+            Geometry wrapped = wrap == 0 ? geometry
+                    : AffineTransformation.translationInstance(wrap, 0).transform(geometry);
+            index.query(part, entry -> visitor.accept(entry.value(), wrapped));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        expirer.shutdownNow();
+    }
+
+    private static double sphereDistance(Geometry origin, Geometry geometry) {
+        Coordinate[] closest = DistanceOp.nearestPoints(origin, geometry);
+        double lat1 = Math.toRadians(closest[0].y), lat2 = Math.toRadians(closest[1].y);
+        double dLat = lat2 - lat1, dLon = Math.toRadians(closest[1].x - closest[0].x);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+}
@@ -0,0 +1,49 @@
+package com.fkhr.gisapi.spatial;
+
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Prepared forms of the areas and geofences clients query with, shared by every query and stream
+ * using the same geometry. A prepared polygon indexes its edges on first use, after which testing a
+ * point costs about log(n) in the polygon's vertex count instead of n; caching keeps those indexes
+ * across requests. Geometries are keyed by content, as their protobuf message when there is one so
+ * a repeated geometry is not even decoded again, and bounded by their total number of coordinates.
+ * Prepared geometries are thread-safe.
+ */
+@Component
+public class PreparedGeometryCache {
+    private final GeometryConverter geometryConverter;
+    private final Cache<Object, PreparedGeometry> prepared;
+
+    public PreparedGeometryCache(GeometryConverter geometryConverter, MeterRegistry meterRegistry,
+                                 @Value("${gis.prepared-geometry.cache.maximum-coordinates:5000000}") long maximumCoordinates) {
+        this.geometryConverter = geometryConverter;
+        this.prepared = Caffeine.newBuilder()
+                .maximumWeight(maximumCoordinates)
+                .weigher((Object key, PreparedGeometry geometry) -> geometry.getGeometry().getNumPoints())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, prepared, "prepared_geometry");
+    }
+
+    public PreparedGeometry prepare(com.fkhr.gisapi.Geometry proto) {
+        return prepared.get(proto, key -> PreparedGeometryFactory.prepare(geometryConverter.fromProto(proto)));
+    }
+
+    /**
+     * Same as {@link #prepare(com.fkhr.gisapi.Geometry)} for a decoded geometry, keyed by its exact
+     * coordinates.
+     */
+    public PreparedGeometry prepare(Geometry geometry) {
+        return prepared.get(geometry, key -> PreparedGeometryFactory.prepare(geometry));
+    }
+}
@@ -6,6 +6,10 @@ public enum CustomError {
     FEATURE_NOT_FOUND(2002, "feature_not_found", HttpStatus.ACCEPTED),
     FEATURE_NOT_UPDATED(2003, "feature_not_updated", HttpStatus.ACCEPTED),
     FEATURE_ALREADY_EXIST(2004, "feature_already_exist", HttpStatus.ACCEPTED),
+    INVALID_SUBSCRIPTION(2005, "invalid_subscription", HttpStatus.BAD_REQUEST),
+    INVALID_PROPERTY(2006, "invalid_property", HttpStatus.BAD_REQUEST),
+    INVALID_QUERY(2007, "invalid_query", HttpStatus.BAD_REQUEST),
+    INVALID_GEOMETRY(2008, "invalid_geometry", HttpStatus.BAD_REQUEST),
     ;
 
     private final int code;
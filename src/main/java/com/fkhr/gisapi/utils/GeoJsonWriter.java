@@ -0,0 +1,484 @@
+package com.fkhr.gisapi.utils;
+
+import com.fkhr.gisapi.FeatureRequestDto;
+import com.fkhr.gisapi.model.Feature;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Writes GeoJSON (RFC 7946) straight from proto messages or JTS geometries into pooled UTF-8
+ * buffers, without building an intermediate map tree or {@code String}. Coordinates are rounded to
+ * {@code precision} decimal places; owner, description and timestamp are written as foreign members.
+ */
+@Component
+public class GeoJsonWriter {
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    //buffers that grew beyond this are left to the GC instead of being pooled
+    private static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L,
+            10_000_000L, 100_000_000L, 1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L};
+    private static final Set<String> GEOMETRY_TYPES = Set.of("Point", "LineString", "Polygon",
+            "MultiPoint", "MultiLineString", "MultiPolygon");
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final int precision;
+    private final BlockingQueue<Buffer> pool;
+
+    public GeoJsonWriter(@Value("${gis.geojson.precision:7}") int precision,
+                         @Value("${gis.geojson.pool-size:64}") int poolSize) {
+        if (precision < 0 || precision >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("gis.geojson.precision must be between 0 and " + (POWERS_OF_TEN.length - 1));
+        }
+        this.precision = precision;
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Returns the request as a GeoJSON Feature.
+     */
+    public ByteString write(FeatureRequestDto feature) {
+        return write(buffer -> {
+            buffer.ascii("{\"type\":\"Feature\"");
+            if (!feature.getId().isEmpty()) {
+                buffer.ascii(",\"id\":").string(feature.getId());
+            }
+            buffer.ascii(",\"geometry\":");
+            writeGeometry(buffer, feature.getGeometry());
+            buffer.ascii(",\"properties\":");
+            writeStruct(buffer, feature.getProperties());
+            buffer.ascii(",\"owner\":").string(feature.getOwner());
+            buffer.ascii(",\"description\":").string(feature.getDescription());
+            buffer.write('}');
+        });
+    }
+
+    /**
+     * Returns one chunk of a FeatureCollection. The first chunk opens the collection and the last one
+     * closes it, so concatenating the chunks in order yields a single valid document. The first chunk
+     * may only be empty if it is also the last, since every later chunk starts with a separator.
+     */
+    public ByteString writeCollectionChunk(List<Feature> features, boolean first, boolean last) {
+        return write(buffer -> {
+            if (first) {
+                buffer.ascii("{\"type\":\"FeatureCollection\",\"features\":[");
+            }
+            for (int i = 0; i < features.size(); i++) {
+                if (!first || i > 0) {
+                    buffer.write(',');
+                }
+                writeFeature(buffer, features.get(i));
+            }
+            if (last) {
+                buffer.ascii("]}");
+            }
+        });
+    }
+
+    private ByteString write(Consumer<Buffer> writer) {
+        Buffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = new Buffer();
+        }
+        try {
+            writer.accept(buffer);
+            return ByteString.copyFrom(buffer.bytes, 0, buffer.count);
+        } finally {
+            buffer.count = 0;
+            if (buffer.bytes.length <= MAX_POOLED_CAPACITY) {
+                pool.offer(buffer);
+            }
+        }
+    }
+
+    private void writeFeature(Buffer buffer, Feature feature) {
+        buffer.ascii("{\"type\":\"Feature\",\"id\":").string(feature.getId().toString());
+        buffer.ascii(",\"geometry\":");
+        writeGeometry(buffer, feature.getGeometry());
+        buffer.ascii(",\"properties\":");
+        writeObject(buffer, feature.getProperties());
+        buffer.ascii(",\"owner\":").string(feature.getOwner());
+        buffer.ascii(",\"description\":").string(feature.getDescription());
+        buffer.ascii(",\"timestamp\":").string(feature.getTimestamp() == null ? null : feature.getTimestamp().toString());
+        buffer.write('}');
+    }
+
+    // ================= Proto geometry =================
+    private void writeGeometry(Buffer buffer, com.fkhr.gisapi.Geometry geometry) {
+        String type = geometry.getType();
+        if (!GEOMETRY_TYPES.contains(type)) {
+            throw new IllegalArgumentException("Unsupported geometry type: " + type);
+        }
+        buffer.ascii("{\"type\":").string(type).ascii(",\"coordinates\":");
+        if (GeometryEncoding.of(geometry) == GeometryEncoding.PACKED) {
+            writePacked(buffer, geometry);
+        } else {
+            writeCoordinateList(buffer, geometry.getCoordinates());
+        }
+        buffer.write('}');
+    }
+
+    private void writeCoordinateList(Buffer buffer, ListValue list) {
+        buffer.write('[');
+        for (int i = 0; i < list.getValuesCount(); i++) {
+            if (i > 0) {
+                buffer.write(',');
+            }
+            com.google.protobuf.Value value = list.getValues(i);
+            if (value.hasListValue()) {
+                writeCoordinateList(buffer, value.getListValue());
+            } else {
+                writeCoordinate(buffer, value.getNumberValue());
+            }
+        }
+        buffer.write(']');
+    }
+
+    private void writePacked(Buffer buffer, com.fkhr.gisapi.Geometry geometry) {
+        int points = geometry.getPackedCoordinatesCount() / 2;
+        int parts = geometry.getPartOffsetsCount() + 1;
+        switch (geometry.getType()) {
+            case "Point" -> writePackedPoint(buffer, geometry, 0);
+            case "LineString", "MultiPoint" -> writePackedRange(buffer, geometry, 0, points);
+            case "MultiPolygon" -> {
+                int polygons = geometry.getPolygonOffsetsCount() + 1;
+                buffer.write('[');
+                for (int i = 0; i < polygons; i++) {
+                    if (i > 0) {
+                        buffer.write(',');
+                    }
+                    writePackedParts(buffer, geometry, i == 0 ? 0 : geometry.getPolygonOffsets(i - 1),
+                            i == polygons - 1 ? parts : geometry.getPolygonOffsets(i));
+                }
+                buffer.write(']');
+            }
+            //the rings of a Polygon or the lines of a MultiLineString
+            default -> writePackedParts(buffer, geometry, 0, parts);
+        }
+    }
+
+    private void writePackedParts(Buffer buffer, com.fkhr.gisapi.Geometry geometry, int startPart, int endPart) {
+        int points = geometry.getPackedCoordinatesCount() / 2;
+        buffer.write('[');
+        for (int i = startPart; i < endPart; i++) {
+            if (i > startPart) {
+                buffer.write(',');
+            }
+            writePackedRange(buffer, geometry, i == 0 ? 0 : geometry.getPartOffsets(i - 1),
+                    i == geometry.getPartOffsetsCount() ? points : geometry.getPartOffsets(i));
+        }
+        buffer.write(']');
+    }
+
+    private void writePackedRange(Buffer buffer, com.fkhr.gisapi.Geometry geometry, int startPoint, int endPoint) {
+        buffer.write('[');
+        for (int i = startPoint; i < endPoint; i++) {
+            if (i > startPoint) {
+                buffer.write(',');
+            }
+            writePackedPoint(buffer, geometry, i);
+        }
+        buffer.write(']');
+    }
+
+    private void writePackedPoint(Buffer buffer, com.fkhr.gisapi.Geometry geometry, int point) {
+        buffer.write('[');
+        writeCoordinate(buffer, geometry.getPackedCoordinates(point * 2));
+        buffer.write(',');
+        writeCoordinate(buffer, geometry.getPackedCoordinates(point * 2 + 1));
+        buffer.write(']');
+    }
+
+    // ================= JTS geometry =================
+    private void writeGeometry(Buffer buffer, Geometry geometry) {
+        buffer.ascii("{\"type\":").string(geometry.getGeometryType()).ascii(",\"coordinates\":");
+        writeCoordinates(buffer, geometry);
+        buffer.write('}');
+    }
+
+    private void writeCoordinates(Buffer buffer, Geometry geometry) {
+        if (geometry instanceof Point point) {
+            writeSequencePoint(buffer, point.getCoordinateSequence(), 0);
+        } else if (geometry instanceof LineString line) {
+            writeSequence(buffer, line.getCoordinateSequence());
+        } else if (geometry instanceof Polygon polygon) {
+            buffer.write('[');
+            writeSequence(buffer, polygon.getExteriorRing().getCoordinateSequence());
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                buffer.write(',');
+                writeSequence(buffer, polygon.getInteriorRingN(i).getCoordinateSequence());
+            }
+            buffer.write(']');
+        } else if (geometry instanceof MultiPoint || geometry instanceof MultiLineString
+                || geometry instanceof MultiPolygon) {
+            GeometryCollection collection = (GeometryCollection) geometry;
+            buffer.write('[');
+            for (int i = 0; i < collection.getNumGeometries(); i++) {
+                if (i > 0) {
+                    buffer.write(',');
+                }
+                writeCoordinates(buffer, collection.getGeometryN(i));
+            }
+            buffer.write(']');
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type: " + geometry.getGeometryType());
+        }
+    }
+
+    private void writeSequence(Buffer buffer, CoordinateSequence sequence) {
+        buffer.write('[');
+        for (int i = 0; i < sequence.size(); i++) {
+            if (i > 0) {
+                buffer.write(',');
+            }
+            writeSequencePoint(buffer, sequence, i);
+        }
+        buffer.write(']');
+    }
+
+    private void writeSequencePoint(Buffer buffer, CoordinateSequence sequence, int index) {
+        buffer.write('[');
+        writeCoordinate(buffer, sequence.getX(index));
+        buffer.write(',');
+        writeCoordinate(buffer, sequence.getY(index));
+        buffer.write(']');
+    }
+
+    // ================= Properties =================
+    private void writeStruct(Buffer buffer, Struct struct) {
+        buffer.write('{');
+        boolean first = true;
+        for (Map.Entry<String, com.google.protobuf.Value> field : struct.getFieldsMap().entrySet()) {
+            if (!first) {
+                buffer.write(',');
+            }
+            first = false;
+            buffer.string(field.getKey()).write(':');
+            writeValue(buffer, field.getValue());
+        }
+        buffer.write('}');
+    }
+
+    private void writeValue(Buffer buffer, com.google.protobuf.Value value) {
+        switch (value.getKindCase()) {
+            case BOOL_VALUE -> buffer.ascii(value.getBoolValue() ? "true" : "false");
+            case NUMBER_VALUE -> writeNumber(buffer, value.getNumberValue());
+            case STRING_VALUE -> buffer.string(value.getStringValue());
+            case STRUCT_VALUE -> writeStruct(buffer, value.getStructValue());
+            case LIST_VALUE -> {
+                ListValue list = value.getListValue();
+                buffer.write('[');
+                for (int i = 0; i < list.getValuesCount(); i++) {
+                    if (i > 0) {
+                        buffer.write(',');
+                    }
+                    writeValue(buffer, list.getValues(i));
+                }
+                buffer.write(']');
+            }
+            default -> buffer.ascii("null");
+        }
+    }
+
+    private void writeObject(Buffer buffer, Object value) {
+        if (value == null) {
+            buffer.ascii("null");
+        } else if (value instanceof String string) {
+            buffer.string(string);
+        } else if (value instanceof Boolean bool) {
+            buffer.ascii(bool ? "true" : "false");
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            buffer.signedLong(((Number) value).longValue());
+        } else if (value instanceof Number number) {
+            writeNumber(buffer, number.doubleValue());
+        } else if (value instanceof Map<?, ?> map) {
+            buffer.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) {
+                    buffer.write(',');
+                }
+                first = false;
+                buffer.string(String.valueOf(entry.getKey())).write(':');
+                writeObject(buffer, entry.getValue());
+            }
+            buffer.write('}');
+        } else if (value instanceof List<?> list) {
+            buffer.write('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    buffer.write(',');
+                }
+                writeObject(buffer, list.get(i));
+            }
+            buffer.write(']');
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass());
+        }
+    }
+
+    // ================= Numbers =================
+    private void writeCoordinate(Buffer buffer, double value) {
+        checkFinite(value);
+        long scale = POWERS_OF_TEN[precision];
+        double scaled = value * scale;
+        if (Math.abs(scaled) >= 1e15) {
+            buffer.ascii(Double.toString(value));
+            return;
+        }
+        long rounded = Math.round(scaled);
+        if (rounded < 0) {
+            buffer.write('-');
+            rounded = -rounded;
+        }
+        buffer.unsignedLong(rounded / scale);
+        long fraction = rounded % scale;
+        if (fraction != 0) {
+            int digits = precision;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            buffer.write('.');
+            buffer.digits(fraction, digits);
+        }
+    }
+
+    private void writeNumber(Buffer buffer, double value) {
+        checkFinite(value);
+        //property values are written exactly, integral ones without the trailing ".0"
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            buffer.signedLong((long) value);
+        } else {
+            buffer.ascii(Double.toString(value));
+        }
+    }
+
+    private static void checkFinite(double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("GeoJSON cannot represent " + value);
+        }
+    }
+
+    private static final class Buffer {
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int count;
+
+        private void ensure(int extra) {
+            if (count + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+            }
+        }
+
+        private Buffer write(char ascii) {
+            ensure(1);
+            bytes[count++] = (byte) ascii;
+            return this;
+        }
+
+        private Buffer ascii(String ascii) {
+            int length = ascii.length();
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                bytes[count++] = (byte) ascii.charAt(i);
+            }
+            return this;
+        }
+
+        private void signedLong(long value) {
+            if (value < 0) {
+                if (value == Long.MIN_VALUE) {
+                    ascii(Long.toString(value));
+                    return;
+                }
+                write('-');
+                value = -value;
+            }
+            unsignedLong(value);
+        }
+
+        private void unsignedLong(long value) {
+            int digits = 1;
+            for (long rest = value / 10; rest != 0; rest /= 10) {
+                digits++;
+            }
+            digits(value, digits);
+        }
+
+        /**
+         * Writes {@code value} as exactly {@code digits} digits, zero padded on the left.
+         */
+        private void digits(long value, int digits) {
+            ensure(digits);
+            for (int i = count + digits - 1; i >= count; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            count += digits;
+        }
+
+        private Buffer string(String value) {
+            if (value == null) {
+                return ascii("null");
+            }
+            int length = value.length();
+            //worst case: every char becomes a six byte escape
+            ensure(length * 6 + 2);
+            bytes[count++] = '"';
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    bytes[count++] = '\\';
+                    bytes[count++] = (byte) c;
+                } else if (c < 0x20) {
+                    bytes[count++] = '\\';
+                    bytes[count++] = 'u';
+                    bytes[count++] = '0';
+                    bytes[count++] = '0';
+                    bytes[count++] = HEX[c >> 4];
+                    bytes[count++] = HEX[c & 0xF];
+                } else if (c < 0x80) {
+                    bytes[count++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[count++] = (byte) (0xC0 | c >> 6);
+                    bytes[count++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    bytes[count++] = (byte) (0xF0 | codePoint >> 18);
+                    bytes[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    bytes[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    bytes[count++] = (byte) (0x80 | codePoint & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    //unpaired surrogate, replaced like String.getBytes(UTF_8) does
+                    bytes[count++] = '?';
+                } else {
+                    bytes[count++] = (byte) (0xE0 | c >> 12);
+                    bytes[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    bytes[count++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            bytes[count++] = '"';
+            return this;
+        }
+    }
+}
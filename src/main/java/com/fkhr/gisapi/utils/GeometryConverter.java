@@ -2,19 +2,84 @@ package com.fkhr.gisapi.utils;
 
 import com.google.protobuf.ListValue;
 import com.google.protobuf.Value;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.locationtech.jts.geom.*;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class GeometryConverter {
+    public static final int SRID = 4326;
 
-    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private enum Direction {
+        FROM_PROTO("from_proto"),
+        TO_PROTO("to_proto");
+
+        private final String tag;
+
+        Direction(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final GeometryFactory geometryFactory =
+            new GeometryFactory(new PrecisionModel(), SRID, PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+    private final MeterRegistry meterRegistry;
+    //meters per geometry type, indexed by direction and encoding, so recording does not allocate
+    private final Map<String, ConversionMeters[]> meters = new ConcurrentHashMap<>();
+
+    private record ConversionMeters(Timer timer, DistributionSummary coordinates) {
+    }
+
+    public GeometryConverter() {
+        this(Metrics.globalRegistry);
+    }
+
+    @Autowired
+    public GeometryConverter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Factory of every geometry this converter creates: SRID 4326 on packed coordinate sequences.
+     */
+    public GeometryFactory getGeometryFactory() {
+        return geometryFactory;
+    }
 
     // ================= Proto -> JTS =================
+    /**
+     * Decodes a geometry sent by a client or read from the feature topic. One that cannot be
+     * decoded, e.g. packed coordinates that do not match their offsets or a ring that is not
+     * closed, fails with {@link CustomError#INVALID_GEOMETRY}.
+     */
     public Geometry fromProto(com.fkhr.gisapi.Geometry proto) {
+        long start = System.nanoTime();
+        Geometry geometry;
+        try {
+            geometry = decode(proto);
+        } catch (IllegalArgumentException ex) {
+            //what JTS throws for coordinates that make no valid geometry of the type
+            throw new CustomException(CustomError.INVALID_GEOMETRY, ex);
+        }
+        record(Direction.FROM_PROTO, proto.getType(), GeometryEncoding.of(proto), geometry.getNumPoints(), start);
+        return geometry;
+    }
+
+    private Geometry decode(com.fkhr.gisapi.Geometry proto) {
+        if (GeometryEncoding.of(proto) == GeometryEncoding.PACKED) {
+            return fromPacked(proto);
+        }
         String type = proto.getType();
         ListValue coords = proto.getCoordinates();
 
@@ -25,22 +90,41 @@ public class GeometryConverter {
                 return geometryFactory.createLineString(listToCoordinates(coords));
             case "Polygon":
                 return listValueToPolygon(coords);
+            case "MultiPoint":
+                return geometryFactory.createMultiPoint(listToCoordinates(coords));
+            case "MultiLineString":
+                LineString[] lines = new LineString[coords.getValuesCount()];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = geometryFactory.createLineString(listToCoordinates(coords.getValues(i).getListValue()));
+                }
+                return geometryFactory.createMultiLineString(lines);
+            case "MultiPolygon":
+                Polygon[] polygons = new Polygon[coords.getValuesCount()];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = listValueToPolygon(coords.getValues(i).getListValue());
+                }
+                return geometryFactory.createMultiPolygon(polygons);
             default:
                 throw new IllegalArgumentException("Unsupported geometry type: " + type);
         }
     }
 
-    private Coordinate listToCoordinate(ListValue coords) {
-        return new Coordinate(
+    private CoordinateSequence listToCoordinate(ListValue coords) {
+        return new PackedCoordinateSequence.Double(new double[]{
                 coords.getValues(0).getNumberValue(),
                 coords.getValues(1).getNumberValue()
-        );
+        }, 2, 0);
     }
 
-    private Coordinate[] listToCoordinates(ListValue listValue) {
-        return listValue.getValuesList().stream()
-                .map(v -> listToCoordinate(v.getListValue()))
-                .toArray(Coordinate[]::new);
+    private CoordinateSequence listToCoordinates(ListValue listValue) {
+        int size = listValue.getValuesCount();
+        double[] ordinates = new double[size * 2];
+        for (int i = 0; i < size; i++) {
+            ListValue coordinate = listValue.getValues(i).getListValue();
+            ordinates[i * 2] = coordinate.getValues(0).getNumberValue();
+            ordinates[i * 2 + 1] = coordinate.getValues(1).getNumberValue();
+        }
+        return new PackedCoordinateSequence.Double(ordinates, 2, 0);
     }
 
     private Polygon listValueToPolygon(ListValue coords) {
@@ -55,8 +139,124 @@ public class GeometryConverter {
         return geometryFactory.createPolygon(shell, holes);
     }
 
+    private Geometry fromPacked(com.fkhr.gisapi.Geometry proto) {
+        checkPacked(proto);
+        int points = proto.getPackedCoordinatesCount() / 2;
+        int parts = proto.getPartOffsetsCount() + 1;
+        switch (proto.getType()) {
+            case "Point":
+                return geometryFactory.createPoint(packedSlice(proto, 0, points));
+            case "LineString":
+                return geometryFactory.createLineString(packedSlice(proto, 0, points));
+            case "Polygon":
+                return packedPolygon(proto, 0, parts);
+            case "MultiPoint":
+                return geometryFactory.createMultiPoint(packedSlice(proto, 0, points));
+            case "MultiLineString":
+                LineString[] lines = new LineString[parts];
+                for (int i = 0; i < parts; i++) {
+                    lines[i] = geometryFactory.createLineString(packedPart(proto, i));
+                }
+                return geometryFactory.createMultiLineString(lines);
+            case "MultiPolygon":
+                int polygonCount = proto.getPolygonOffsetsCount() + 1;
+                Polygon[] polygons = new Polygon[polygonCount];
+                for (int i = 0; i < polygonCount; i++) {
+                    int firstRing = i == 0 ? 0 : proto.getPolygonOffsets(i - 1);
+                    int endRing = i == polygonCount - 1 ? parts : proto.getPolygonOffsets(i);
+                    polygons[i] = packedPolygon(proto, firstRing, endRing);
+                }
+                return geometryFactory.createMultiPolygon(polygons);
+            default:
+                throw new IllegalArgumentException("Unsupported geometry type: " + proto.getType());
+        }
+    }
+
+    /**
+     * Checks that the offsets delimit the coordinates as the type expects, before any of them is
+     * used as an index.
+     */
+    private static void checkPacked(com.fkhr.gisapi.Geometry proto) {
+        if (proto.getPackedCoordinatesCount() % 2 != 0) {
+            throw invalidPacked("packed_coordinates holds an odd number of values");
+        }
+        int points = proto.getPackedCoordinatesCount() / 2;
+        boolean hasParts = switch (proto.getType()) {
+            case "Polygon", "MultiLineString", "MultiPolygon" -> true;
+            default -> false;
+        };
+        if (!hasParts && proto.getPartOffsetsCount() > 0) {
+            throw invalidPacked("part_offsets is not used by a " + proto.getType());
+        }
+        if (!proto.getType().equals("MultiPolygon") && proto.getPolygonOffsetsCount() > 0) {
+            throw invalidPacked("polygon_offsets is not used by a " + proto.getType());
+        }
+        if (proto.getType().equals("Point") && points > 1) {
+            throw invalidPacked("a Point has at most one coordinate");
+        }
+        checkOffsets(proto.getPartOffsetsList(), points, "part_offsets");
+        checkOffsets(proto.getPolygonOffsetsList(), proto.getPartOffsetsCount() + 1, "polygon_offsets");
+    }
+
+    /**
+     * Offsets must increase strictly and stay inside (0, {@code count}), so no part is empty.
+     */
+    private static void checkOffsets(List<Integer> offsets, int count, String field) {
+        int previous = 0;
+        for (int offset : offsets) {
+            if (offset <= previous || offset >= count) {
+                throw invalidPacked(field + " must increase and stay between 0 and " + count + ", found " + offset);
+            }
+            previous = offset;
+        }
+    }
+
+    private static CustomException invalidPacked(String message) {
+        return new CustomException(CustomError.INVALID_GEOMETRY, new IllegalArgumentException(message));
+    }
+
+    private Polygon packedPolygon(com.fkhr.gisapi.Geometry proto, int firstRing, int endRing) {
+        LinearRing shell = geometryFactory.createLinearRing(packedPart(proto, firstRing));
+        LinearRing[] holes = new LinearRing[endRing - firstRing - 1];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = geometryFactory.createLinearRing(packedPart(proto, firstRing + 1 + i));
+        }
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
+    /**
+     * Coordinates of the {@code part}-th ring or line, as delimited by part_offsets.
+     */
+    private CoordinateSequence packedPart(com.fkhr.gisapi.Geometry proto, int part) {
+        int start = part == 0 ? 0 : proto.getPartOffsets(part - 1);
+        int end = part == proto.getPartOffsetsCount() ? proto.getPackedCoordinatesCount() / 2 : proto.getPartOffsets(part);
+        return packedSlice(proto, start, end);
+    }
+
+    private CoordinateSequence packedSlice(com.fkhr.gisapi.Geometry proto, int startPoint, int endPoint) {
+        double[] ordinates = new double[(endPoint - startPoint) * 2];
+        for (int i = 0; i < ordinates.length; i++) {
+            ordinates[i] = proto.getPackedCoordinates(startPoint * 2 + i);
+        }
+        return new PackedCoordinateSequence.Double(ordinates, 2, 0);
+    }
+
     // ================= JTS -> Proto =================
     public com.fkhr.gisapi.Geometry toProto(Geometry geom) {
+        return toProto(geom, GeometryEncoding.LIST_VALUE);
+    }
+
+    public com.fkhr.gisapi.Geometry toProto(Geometry geom, GeometryEncoding encoding) {
+        long start = System.nanoTime();
+        com.fkhr.gisapi.Geometry proto = encode(geom, encoding);
+        record(Direction.TO_PROTO, geom.getGeometryType(), encoding, geom.getNumPoints(), start);
+        return proto;
+    }
+
+    private com.fkhr.gisapi.Geometry encode(Geometry geom, GeometryEncoding encoding) {
+        if (encoding == GeometryEncoding.PACKED) {
+            return toPacked(geom);
+        }
         if (geom instanceof Point point) {
             return com.fkhr.gisapi.Geometry.newBuilder()
                     .setType("Point")
@@ -65,18 +265,79 @@ public class GeometryConverter {
         } else if (geom instanceof LineString line) {
             return com.fkhr.gisapi.Geometry.newBuilder()
                     .setType("LineString")
-                    .setCoordinates(lineCoordinates(line))
+                    .setCoordinates(sequenceCoordinates(line.getCoordinateSequence()))
                     .build();
         } else if (geom instanceof Polygon polygon) {
             return com.fkhr.gisapi.Geometry.newBuilder()
                     .setType("Polygon")
                     .setCoordinates(polygonCoordinates(polygon))
                     .build();
+        } else if (geom instanceof MultiPoint || geom instanceof MultiLineString || geom instanceof MultiPolygon) {
+            ListValue.Builder parts = ListValue.newBuilder();
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                Geometry part = geom.getGeometryN(i);
+                ListValue coordinates = part instanceof Point point ? pointCoordinates(point)
+                        : part instanceof LineString line ? sequenceCoordinates(line.getCoordinateSequence())
+                        : polygonCoordinates((Polygon) part);
+                parts.addValues(Value.newBuilder().setListValue(coordinates));
+            }
+            return com.fkhr.gisapi.Geometry.newBuilder()
+                    .setType(geom.getGeometryType())
+                    .setCoordinates(parts)
+                    .build();
         } else {
             throw new IllegalArgumentException("Unsupported geometry type: " + geom.getGeometryType());
         }
     }
 
+    /**
+     * Returns {@code proto} in the requested encoding, converting only when it differs.
+     */
+    public com.fkhr.gisapi.Geometry adapt(com.fkhr.gisapi.Geometry proto, GeometryEncoding encoding) {
+        if (GeometryEncoding.of(proto) == encoding) {
+            return proto;
+        }
+        return toProto(fromProto(proto), encoding);
+    }
+
+    /**
+     * Returns {@code feature} with its geometry in the requested encoding, rebuilding the message
+     * only when the encoding differs.
+     */
+    public com.fkhr.gisapi.FeatureResponseDto adapt(com.fkhr.gisapi.FeatureResponseDto feature, GeometryEncoding encoding) {
+        if (GeometryEncoding.of(feature.getGeometry()) == encoding) {
+            return feature;
+        }
+        return feature.toBuilder().setGeometry(adapt(feature.getGeometry(), encoding)).build();
+    }
+
+    private void record(Direction direction, String type, GeometryEncoding encoding, int coordinates, long start) {
+        ConversionMeters[] byDirectionAndEncoding = meters.computeIfAbsent(type, this::registerMeters);
+        ConversionMeters conversionMeters = byDirectionAndEncoding[meterIndex(direction, encoding)];
+        conversionMeters.timer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        conversionMeters.coordinates().record(coordinates);
+    }
+
+    private ConversionMeters[] registerMeters(String type) {
+        ConversionMeters[] registered = new ConversionMeters[Direction.values().length * GeometryEncoding.values().length];
+        for (Direction direction : Direction.values()) {
+            for (GeometryEncoding encoding : GeometryEncoding.values()) {
+                registered[meterIndex(direction, encoding)] = new ConversionMeters(
+                        Timer.builder("gis.geometry.conversion")
+                                .tags("direction", direction.tag, "type", type, "encoding", encoding.name())
+                                .register(meterRegistry),
+                        DistributionSummary.builder("gis.geometry.coordinates")
+                                .tags("direction", direction.tag, "type", type)
+                                .register(meterRegistry));
+            }
+        }
+        return registered;
+    }
+
+    private static int meterIndex(Direction direction, GeometryEncoding encoding) {
+        return direction.ordinal() * GeometryEncoding.values().length + encoding.ordinal();
+    }
+
     private ListValue pointCoordinates(Point point) {
         return ListValue.newBuilder()
                 .addValues(Value.newBuilder().setNumberValue(point.getX()))
@@ -84,37 +345,77 @@ public class GeometryConverter {
                 .build();
     }
 
-    private ListValue lineCoordinates(LineString line) {
-        List<Value> coords = java.util.Arrays.stream(line.getCoordinates())
-                .map(c -> Value.newBuilder()
-                        .setListValue(ListValue.newBuilder()
-                                .addValues(Value.newBuilder().setNumberValue(c.x))
-                                .addValues(Value.newBuilder().setNumberValue(c.y))
-                                .build())
-                        .build())
-                .collect(Collectors.toList());
-        return ListValue.newBuilder().addAllValues(coords).build();
+    private ListValue sequenceCoordinates(CoordinateSequence sequence) {
+        ListValue.Builder coords = ListValue.newBuilder();
+        for (int i = 0; i < sequence.size(); i++) {
+            coords.addValues(Value.newBuilder()
+                    .setListValue(ListValue.newBuilder()
+                            .addValues(Value.newBuilder().setNumberValue(sequence.getX(i)))
+                            .addValues(Value.newBuilder().setNumberValue(sequence.getY(i)))));
+        }
+        return coords.build();
     }
 
     private ListValue polygonCoordinates(Polygon polygon) {
-        List<Value> rings = new java.util.ArrayList<>();
-        rings.add(ringCoordinates(polygon.getExteriorRing()));
+        ListValue.Builder rings = ListValue.newBuilder();
+        rings.addValues(Value.newBuilder().setListValue(sequenceCoordinates(polygon.getExteriorRing().getCoordinateSequence())));
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            rings.addValues(Value.newBuilder().setListValue(sequenceCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence())));
+        }
+        return rings.build();
+    }
+
+    private com.fkhr.gisapi.Geometry toPacked(Geometry geom) {
+        com.fkhr.gisapi.Geometry.Builder builder = com.fkhr.gisapi.Geometry.newBuilder();
+        if (geom instanceof Point point) {
+            builder.setType("Point");
+            appendPacked(builder, point.getCoordinateSequence());
+        } else if (geom instanceof LineString line) {
+            builder.setType("LineString");
+            appendPacked(builder, line.getCoordinateSequence());
+        } else if (geom instanceof Polygon polygon) {
+            builder.setType("Polygon");
+            appendPackedRings(builder, polygon);
+        } else if (geom instanceof MultiPoint multiPoint) {
+            builder.setType("MultiPoint");
+            for (int i = 0; i < multiPoint.getNumGeometries(); i++) {
+                appendPacked(builder, ((Point) multiPoint.getGeometryN(i)).getCoordinateSequence());
+            }
+        } else if (geom instanceof MultiLineString multiLine) {
+            builder.setType("MultiLineString");
+            for (int i = 0; i < multiLine.getNumGeometries(); i++) {
+                if (i > 0) {
+                    builder.addPartOffsets(builder.getPackedCoordinatesCount() / 2);
+                }
+                appendPacked(builder, ((LineString) multiLine.getGeometryN(i)).getCoordinateSequence());
+            }
+        } else if (geom instanceof MultiPolygon multiPolygon) {
+            builder.setType("MultiPolygon");
+            for (int i = 0; i < multiPolygon.getNumGeometries(); i++) {
+                if (i > 0) {
+                    builder.addPolygonOffsets(builder.getPartOffsetsCount() + 1);
+                    builder.addPartOffsets(builder.getPackedCoordinatesCount() / 2);
+                }
+                appendPackedRings(builder, (Polygon) multiPolygon.getGeometryN(i));
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type: " + geom.getGeometryType());
+        }
+        return builder.build();
+    }
+
+    private void appendPackedRings(com.fkhr.gisapi.Geometry.Builder builder, Polygon polygon) {
+        appendPacked(builder, polygon.getExteriorRing().getCoordinateSequence());
         for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
-            rings.add(ringCoordinates(polygon.getInteriorRingN(i)));
+            builder.addPartOffsets(builder.getPackedCoordinatesCount() / 2);
+            appendPacked(builder, polygon.getInteriorRingN(i).getCoordinateSequence());
         }
-        return ListValue.newBuilder().addAllValues(rings).build();
     }
 
-    private Value ringCoordinates(LineString ring) {
-        List<Value> coords = java.util.Arrays.stream(ring.getCoordinates())
-                .map(c -> Value.newBuilder()
-                        .setListValue(ListValue.newBuilder()
-                                .addValues(Value.newBuilder().setNumberValue(c.x))
-                                .addValues(Value.newBuilder().setNumberValue(c.y))
-                                .build())
-                        .build())
-                .collect(Collectors.toList());
-        return Value.newBuilder().setListValue(ListValue.newBuilder().addAllValues(coords)).build();
+    private void appendPacked(com.fkhr.gisapi.Geometry.Builder builder, CoordinateSequence sequence) {
+        for (int i = 0; i < sequence.size(); i++) {
+            builder.addPackedCoordinates(sequence.getX(i));
+            builder.addPackedCoordinates(sequence.getY(i));
+        }
     }
 }
-
@@ -0,0 +1,32 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.Context;
+import io.grpc.Metadata;
+
+/**
+ * Wire representation of {@code Geometry} coordinates. Clients get {@link #LIST_VALUE} unless they
+ * send {@code x-geometry-encoding: packed}; the feature topic always carries {@link #PACKED}.
+ */
+public enum GeometryEncoding {
+    LIST_VALUE,
+    PACKED;
+
+    public static final Metadata.Key<String> HEADER =
+            Metadata.Key.of("x-geometry-encoding", Metadata.ASCII_STRING_MARSHALLER);
+    static final Context.Key<GeometryEncoding> CONTEXT_KEY = Context.keyWithDefault("geometry-encoding", LIST_VALUE);
+
+    /**
+     * Encoding negotiated by the gRPC call currently being handled.
+     */
+    public static GeometryEncoding current() {
+        return CONTEXT_KEY.get();
+    }
+
+    public static GeometryEncoding of(com.fkhr.gisapi.Geometry proto) {
+        return proto.hasCoordinates() || proto.getPackedCoordinatesCount() == 0 ? LIST_VALUE : PACKED;
+    }
+
+    static GeometryEncoding fromHeader(String value) {
+        return value != null && value.equalsIgnoreCase("packed") ? PACKED : LIST_VALUE;
+    }
+}
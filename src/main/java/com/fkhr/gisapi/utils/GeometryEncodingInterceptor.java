@@ -0,0 +1,29 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import org.springframework.grpc.server.GlobalServerInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Puts the geometry encoding and level of detail a client asked for in its headers into the call's
+ * context, see {@link GeometryEncoding#current()} and {@link LevelOfDetail#current()}.
+ */
+@Component
+@GlobalServerInterceptor
+public class GeometryEncodingInterceptor implements ServerInterceptor {
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        GeometryEncoding encoding = GeometryEncoding.fromHeader(headers.get(GeometryEncoding.HEADER));
+        Context context = Context.current()
+                .withValue(GeometryEncoding.CONTEXT_KEY, encoding)
+                .withValue(LevelOfDetail.CONTEXT_KEY, LevelOfDetail.fromHeaders(headers));
+        return Contexts.interceptCall(context, call, headers, next);
+    }
+}
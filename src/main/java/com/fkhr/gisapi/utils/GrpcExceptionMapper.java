@@ -0,0 +1,36 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import org.springframework.http.HttpStatus;
+import org.springframework.grpc.server.exception.GrpcExceptionHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * The gRPC counterpart of {@link RestExceptionHandler}: gives a {@link CustomException} passed to
+ * {@code onError} a status the client can act on instead of UNKNOWN. Other exceptions are left to
+ * the default handling.
+ */
+@Component
+public class GrpcExceptionMapper implements GrpcExceptionHandler {
+    @Override
+    public StatusException handleException(Throwable exception) {
+        if (!(exception instanceof CustomException customException)) {
+            return null;
+        }
+        Status status;
+        if (customException.getCode() == CustomError.FEATURE_NOT_FOUND.getCode()) {
+            status = Status.NOT_FOUND;
+        } else if (customException.getCode() == CustomError.FEATURE_ALREADY_EXIST.getCode()) {
+            status = Status.ALREADY_EXISTS;
+        } else if (customException.getStatus() == HttpStatus.BAD_REQUEST) {
+            status = Status.INVALID_ARGUMENT;
+        } else {
+            return null;
+        }
+        String description = customException.getCause() != null
+                ? customException.getMessage() + ": " + customException.getCause().getMessage()
+                : customException.getMessage();
+        return status.withDescription(description).withCause(customException).asException();
+    }
+}
@@ -0,0 +1,61 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.Context;
+import io.grpc.Metadata;
+
+/**
+ * How much geometry detail a client needs, as the map zoom level it displays at. Clients get full
+ * detail unless they send {@code x-geometry-zoom: <0-22>}, or {@code x-geometry-tolerance: <degrees>}
+ * which is rounded to the first zoom level at least that detailed. Zoom levels rather than arbitrary
+ * tolerances are what simplified geometries are cached by.
+ */
+public record LevelOfDetail(int zoom) {
+    public static final int MAX_ZOOM = 22;
+    public static final LevelOfDetail FULL = new LevelOfDetail(-1);
+    public static final Metadata.Key<String> ZOOM_HEADER =
+            Metadata.Key.of("x-geometry-zoom", Metadata.ASCII_STRING_MARSHALLER);
+    public static final Metadata.Key<String> TOLERANCE_HEADER =
+            Metadata.Key.of("x-geometry-tolerance", Metadata.ASCII_STRING_MARSHALLER);
+    static final Context.Key<LevelOfDetail> CONTEXT_KEY = Context.keyWithDefault("level-of-detail", FULL);
+
+    /**
+     * Level of detail negotiated by the gRPC call currently being handled.
+     */
+    public static LevelOfDetail current() {
+        return CONTEXT_KEY.get();
+    }
+
+    public boolean isFull() {
+        return zoom < 0;
+    }
+
+    /**
+     * Simplification tolerance in degrees: the width of one pixel of a 256 pixel tile at this zoom.
+     */
+    public double tolerance() {
+        return 360.0 / (256L << zoom);
+    }
+
+    static LevelOfDetail fromHeaders(Metadata headers) {
+        try {
+            String zoom = headers.get(ZOOM_HEADER);
+            if (zoom != null) {
+                int level = Integer.parseInt(zoom.trim());
+                return level < 0 ? FULL : ofZoom(level);
+            }
+            String tolerance = headers.get(TOLERANCE_HEADER);
+            if (tolerance != null) {
+                double degrees = Double.parseDouble(tolerance.trim());
+                return degrees > 0 ? ofZoom((int) Math.ceil(Math.log(360.0 / (256 * degrees)) / Math.log(2))) : FULL;
+            }
+        } catch (NumberFormatException ignored) {
+            //unreadable values fall back to full detail
+        }
+        return FULL;
+    }
+
+    private static LevelOfDetail ofZoom(int zoom) {
+        //past the last zoom level the simplification would be below the precision clients display
+        return zoom > MAX_ZOOM ? FULL : new LevelOfDetail(Math.max(0, zoom));
+    }
+}
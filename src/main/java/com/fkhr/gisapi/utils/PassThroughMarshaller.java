@@ -0,0 +1,82 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Response marshaller that writes a {@link SerializedMessage} to the wire without touching it and
+ * hands every other response to the method's own marshaller. A stream fed from Kafka can so forward
+ * record payloads as they are, instead of parsing them only for the call to serialize them again.
+ * <p>
+ * The generated stubs type responses as messages, so a {@link SerializedMessage} has to be passed
+ * to {@code onNext} of an observer cast to {@code StreamObserver<Object>}; this is only valid for
+ * methods bound through {@link #bind}.
+ */
+public class PassThroughMarshaller implements MethodDescriptor.Marshaller<Object> {
+    private final MethodDescriptor.Marshaller<Object> delegate;
+
+    private PassThroughMarshaller(MethodDescriptor.Marshaller<Object> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * {@code service} with the responses of {@code methods} marshalled by a {@link PassThroughMarshaller}.
+     */
+    public static ServerServiceDefinition bind(ServerServiceDefinition service, MethodDescriptor<?, ?>... methods) {
+        Set<String> names = Arrays.stream(methods).map(MethodDescriptor::getFullMethodName).collect(Collectors.toSet());
+        ServiceDescriptor descriptor = service.getServiceDescriptor();
+        //the service descriptor must list the very method descriptors that are bound
+        ServiceDescriptor.Builder descriptorBuilder = ServiceDescriptor.newBuilder(descriptor.getName())
+                .setSchemaDescriptor(descriptor.getSchemaDescriptor());
+        List<ServerMethodDefinition<?, ?>> definitions = new ArrayList<>();
+        for (ServerMethodDefinition<?, ?> definition : service.getMethods()) {
+            ServerMethodDefinition<?, ?> bound = names.contains(definition.getMethodDescriptor().getFullMethodName())
+                    ? passThrough(definition) : definition;
+            descriptorBuilder.addMethod(bound.getMethodDescriptor());
+            definitions.add(bound);
+        }
+        ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(descriptorBuilder.build());
+        definitions.forEach(builder::addMethod);
+        return builder.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <ReqT, RespT> ServerMethodDefinition<ReqT, RespT> passThrough(ServerMethodDefinition<ReqT, RespT> definition) {
+        MethodDescriptor<ReqT, RespT> method = definition.getMethodDescriptor();
+        //the marshaller is the only place responses are looked at, so widening it to Object is safe
+        MethodDescriptor.Marshaller<RespT> marshaller = (MethodDescriptor.Marshaller<RespT>) (Object)
+                new PassThroughMarshaller((MethodDescriptor.Marshaller<Object>) method.getResponseMarshaller());
+        return ServerMethodDefinition.create(method.toBuilder().setResponseMarshaller(marshaller).build(),
+                definition.getServerCallHandler());
+    }
+
+    @Override
+    public InputStream stream(Object value) {
+        if (value instanceof SerializedMessage message) {
+            return new KnownLengthStream(message.bytes());
+        }
+        return delegate.stream(value);
+    }
+
+    @Override
+    public Object parse(InputStream stream) {
+        return delegate.parse(stream);
+    }
+
+    private static final class KnownLengthStream extends ByteArrayInputStream implements KnownLength {
+        private KnownLengthStream(byte[] bytes) {
+            super(bytes);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.fkhr.gisapi.utils;
+
+import com.google.protobuf.MessageLite;
+
+/**
+ * A protobuf message already in its wire form, written to a call as it is by
+ * {@link PassThroughMarshaller}. The bytes are shared, not copied, and must not be modified.
+ */
+public record SerializedMessage(byte[] bytes) {
+
+    public static SerializedMessage of(MessageLite message) {
+        return new SerializedMessage(message.toByteArray());
+    }
+}
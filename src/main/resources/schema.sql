@@ -0,0 +1,26 @@
+CREATE EXTENSION IF NOT EXISTS postgis;
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+CREATE TABLE IF NOT EXISTS feature (
+    id uuid NOT NULL,
+    owner varchar(255),
+    description varchar(255),
+    geometry geometry(Geometry,4326),
+    timestamp timestamp(6) NOT NULL,
+    properties jsonb,
+    PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+CREATE TABLE IF NOT EXISTS feature_id (
+    id uuid PRIMARY KEY
+);
+CREATE TABLE IF NOT EXISTS property_schema (
+    id uuid PRIMARY KEY,
+    owner varchar(255),
+    property_key varchar(48),
+    type varchar(16),
+    indexed boolean NOT NULL,
+    UNIQUE (owner, property_key)
+);
+CREATE INDEX IF NOT EXISTS feature_geometry_gist ON feature USING GIST (geometry);
+CREATE INDEX IF NOT EXISTS feature_owner_geometry_gist ON feature USING GIST (owner, geometry);
+CREATE INDEX IF NOT EXISTS feature_properties_gin ON feature USING GIN (properties);
+CREATE INDEX IF NOT EXISTS feature_timestamp_brin ON feature USING BRIN (timestamp);
@@ -0,0 +1,99 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.utils.SerializedMessage;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records what a subscriber writes to its call, with readiness and cancellation set by the test.
+ * Subscribers write serialized messages, so the observer takes any object.
+ */
+class FakeServerCallStreamObserver extends ServerCallStreamObserver<Object> {
+    final List<SerializedMessage> written = new ArrayList<>();
+    Throwable error;
+    boolean completed;
+    boolean ready;
+    boolean cancelled;
+    private Runnable onReadyHandler;
+
+    FakeServerCallStreamObserver(boolean ready) {
+        this.ready = ready;
+    }
+
+    @SuppressWarnings("unchecked")
+    ServerCallStreamObserver<FeatureResponseDto> typed() {
+        return (ServerCallStreamObserver<FeatureResponseDto>) (ServerCallStreamObserver<?>) this;
+    }
+
+    void becomeReady() {
+        ready = true;
+        onReadyHandler.run();
+    }
+
+    List<FeatureResponseDto> writtenFeatures() throws Exception {
+        List<FeatureResponseDto> features = new ArrayList<>();
+        for (SerializedMessage message : written) {
+            features.add(FeatureResponseDto.parseFrom(message.bytes()));
+        }
+        return features;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {
+    }
+
+    @Override
+    public void setCompression(String compression) {
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+        this.onReadyHandler = onReadyHandler;
+    }
+
+    @Override
+    public void request(int count) {
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+    }
+
+    @Override
+    public void onNext(Object value) {
+        written.add((SerializedMessage) value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (error != null || completed) {
+            throw new IllegalStateException("call already closed");
+        }
+        error = t;
+    }
+
+    @Override
+    public void onCompleted() {
+        if (error != null || completed) {
+            throw new IllegalStateException("call already closed");
+        }
+        completed = true;
+    }
+}
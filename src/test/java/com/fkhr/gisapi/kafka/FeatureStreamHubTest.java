@@ -0,0 +1,151 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.GeofenceEvent;
+import com.fkhr.gisapi.SlowConsumerPolicy;
+import com.fkhr.gisapi.spatial.GeometrySimplifier;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.kafka.core.ConsumerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class FeatureStreamHubTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GeometryConverter geometryConverter = new GeometryConverter();
+    @SuppressWarnings("unchecked")
+    private final FeatureStreamHub hub = new FeatureStreamHub(mock(ConsumerFactory.class), geometryConverter,
+            new GeometrySimplifier(geometryConverter, meterRegistry, 256, 1_000_000), meterRegistry,
+            mock(AsyncTaskExecutor.class), 1, 0.05, 256);
+    private final FeatureSubscriber.Meters meters = new FeatureSubscriber.Meters(
+            Counter.builder("conflated").register(meterRegistry), Counter.builder("dropped").register(meterRegistry),
+            Counter.builder("disconnected").register(meterRegistry), new AtomicInteger());
+    private long offset;
+
+    @Test
+    void featureMovingThroughTheGeofenceEntersUpdatesAndExits() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        hub.subscribe(subscriber(observer, "", false));
+
+        move("a", "owner", 20, 20);
+        move("a", "owner", 5, 5);
+        move("a", "owner", 6, 6);
+        //far enough that only having been inside brings the geofence up again
+        move("a", "owner", 50, 50);
+        move("a", "owner", 60, 60);
+
+        assertEquals(List.of(GeofenceEvent.ENTER, GeofenceEvent.GEOFENCE_EVENT_UNSPECIFIED, GeofenceEvent.EXIT),
+                events(observer));
+    }
+
+    @Test
+    void transitionsOnlySuppressesUpdatesInside() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        hub.subscribe(subscriber(observer, "", true));
+
+        move("a", "owner", 5, 5);
+        move("a", "owner", 6, 6);
+        move("a", "owner", 7, 7);
+        move("a", "owner", 20, 20);
+
+        assertEquals(List.of(GeofenceEvent.ENTER, GeofenceEvent.EXIT), events(observer));
+    }
+
+    @Test
+    void ownerAndGeofenceMustBothMatch() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        hub.subscribe(subscriber(observer, "owner", false));
+
+        move("theirs", "other", 5, 5);
+        move("mine", "owner", 20, 20);
+        move("mine", "owner", 5, 5);
+
+        List<FeatureResponseDto> written = observer.writtenFeatures();
+        assertEquals(List.of("mine"), written.stream().map(FeatureResponseDto::getId).toList());
+        assertEquals(GeofenceEvent.ENTER, written.get(0).getGeofenceEvent());
+    }
+
+    @Test
+    void eachGeofenceTracksItsOwnTransitions() throws Exception {
+        FakeServerCallStreamObserver all = new FakeServerCallStreamObserver(true);
+        FakeServerCallStreamObserver transitions = new FakeServerCallStreamObserver(true);
+        hub.subscribe(subscriber(all, "", false));
+        FeatureSubscriber transitionsOnly = hub.subscribe(subscriber(transitions, "", true));
+
+        move("a", "owner", 5, 5);
+        hub.unsubscribe(transitionsOnly);
+        move("a", "owner", 20, 20);
+
+        assertEquals(List.of(GeofenceEvent.ENTER, GeofenceEvent.EXIT), events(all));
+        assertEquals(List.of(GeofenceEvent.ENTER), events(transitions));
+    }
+
+    @Test
+    void snapshotInsideCountsAsEntered() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        hub.subscribe(subscriber(observer, "", true), () -> List.of(feature("a", "owner", 5, 5)));
+
+        move("a", "owner", 6, 6);
+        move("a", "owner", 20, 20);
+
+        //the snapshot is not sent with transitions only, but leaving is
+        assertEquals(List.of(GeofenceEvent.EXIT), events(observer));
+    }
+
+    @Test
+    void featureThatNeverEntersSendsNothing() {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        hub.subscribe(subscriber(observer, "", false));
+
+        move("a", "owner", 20, 20);
+        move("a", "owner", 10.5, 10.5);
+        move("a", "owner", -1, 5);
+
+        assertTrue(observer.written.isEmpty());
+    }
+
+    private FeatureSubscriber subscriber(FakeServerCallStreamObserver observer, String owner, boolean transitionsOnly) {
+        //a square from (0, 0) to (10, 10)
+        SubscriptionFilter filter = new SubscriptionFilter(owner, PreparedGeometryFactory.prepare(
+                geometryConverter.getGeometryFactory().toGeometry(new Envelope(0, 10, 0, 10))), List.of(),
+                transitionsOnly);
+        return new FeatureSubscriber(filter, observer.typed(), GeometryEncoding.LIST_VALUE, LevelOfDetail.FULL,
+                Runnable::run, SlowConsumerPolicy.DROP_OLDEST, 100, meters);
+    }
+
+    private void move(String id, String owner, double x, double y) {
+        FeatureResponseDto feature = feature(id, owner, x, y);
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(Topics.FEATURE, 0, offset++, owner,
+                feature.toByteArray());
+        for (Header header : FeatureHeaders.of(feature)) {
+            record.headers().add(header);
+        }
+        hub.onRecord(record);
+    }
+
+    private FeatureResponseDto feature(String id, String owner, double x, double y) {
+        return FeatureResponseDto.newBuilder().setId(id).setOwner(owner)
+                .setGeometry(geometryConverter.toProto(geometryConverter.getGeometryFactory()
+                        .createPoint(new Coordinate(x, y)), GeometryEncoding.PACKED))
+                .build();
+    }
+
+    private static List<GeofenceEvent> events(FakeServerCallStreamObserver observer) throws Exception {
+        return observer.writtenFeatures().stream().map(FeatureResponseDto::getGeofenceEvent).toList();
+    }
+}
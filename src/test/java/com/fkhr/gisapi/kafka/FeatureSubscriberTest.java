@@ -0,0 +1,208 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.SlowConsumerPolicy;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeatureSubscriberTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FeatureSubscriber.Meters meters = new FeatureSubscriber.Meters(
+            Counter.builder("conflated").register(meterRegistry), Counter.builder("dropped").register(meterRegistry),
+            Counter.builder("disconnected").register(meterRegistry), new AtomicInteger());
+    //drain tasks run when the test says so, like on a busy stream executor
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor = tasks::add;
+
+    @Test
+    void disconnectFailsTheCallEvenWhenClosedBeforeTheDrainRuns() {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.DISCONNECT, 2);
+
+        assertTrue(subscriber.deliver(feature("a", 1)));
+        assertTrue(subscriber.deliver(feature("b", 1)));
+        assertFalse(subscriber.deliver(feature("c", 1)));
+        //what the hub does with a subscriber that refused a delivery
+        subscriber.close();
+        runTasks();
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(observer.error).getCode());
+        assertTrue(observer.written.isEmpty());
+        assertEquals(0, subscriber.getQueued());
+        assertEquals(0, meters.queued().get());
+        assertEquals(1, meters.disconnected().count());
+    }
+
+    @Test
+    void replaySubscriberFailsWhenItFallsBehind() {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.DISCONNECT, 1);
+
+        subscriber.deliver(feature("a", 1));
+        subscriber.deliver(feature("a", 2));
+        runTasks();
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(observer.error).getCode());
+        assertTrue(subscriber.isClosed());
+    }
+
+    @Test
+    void closeEndsTheCall() {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.CONFLATE, 10);
+
+        subscriber.close();
+        runTasks();
+
+        assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(observer.error).getCode());
+        assertFalse(subscriber.deliver(feature("a", 1)));
+    }
+
+    @Test
+    void closeAfterCancelLeavesTheCallAlone() {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.CONFLATE, 10);
+
+        observer.cancelled = true;
+        subscriber.close();
+        runTasks();
+
+        assertNull(observer.error);
+        assertFalse(observer.completed);
+    }
+
+    @Test
+    void completeWritesWhatIsQueuedFirst() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.DISCONNECT, 10);
+
+        subscriber.deliver(feature("a", 1));
+        subscriber.deliver(feature("b", 1));
+        subscriber.complete();
+        runTasks();
+        assertFalse(observer.completed);
+
+        observer.becomeReady();
+        runTasks();
+
+        assertEquals(List.of("a", "b"), observer.writtenFeatures().stream().map(FeatureResponseDto::getId).toList());
+        assertTrue(observer.completed);
+        assertNull(observer.error);
+    }
+
+    @Test
+    void conflateKeepsTheLatestUpdatePerFeature() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.CONFLATE, 10);
+
+        subscriber.deliver(feature("a", 1));
+        subscriber.deliver(feature("b", 1));
+        subscriber.deliver(feature("a", 2));
+        observer.becomeReady();
+        runTasks();
+
+        List<FeatureResponseDto> written = observer.writtenFeatures();
+        assertEquals(List.of("a", "b"), written.stream().map(FeatureResponseDto::getId).toList());
+        assertEquals("2", written.get(0).getDescription());
+        assertEquals(1, meters.conflated().count());
+    }
+
+    @Test
+    void snapshotSkipsFeaturesUpdatedLiveWhileItWasRead() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.DROP_OLDEST, 10);
+
+        subscriber.beginSnapshot();
+        //a live update arriving between registering with the hub and reading the store
+        subscriber.deliver(feature("a", 2));
+        subscriber.deliverSnapshot(List.of(feature("a", 1), feature("b", 1)));
+        subscriber.deliver(feature("b", 2));
+        observer.becomeReady();
+        runTasks();
+
+        assertEquals(List.of("a:2", "b:1", "b:2"), versions(observer.writtenFeatures()));
+    }
+
+    @Test
+    void conflatedSnapshotDoesNotOvertakeALiveUpdate() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.CONFLATE, 10);
+
+        subscriber.beginSnapshot();
+        subscriber.deliver(feature("a", 2));
+        subscriber.deliverSnapshot(List.of(feature("a", 1), feature("b", 1)));
+        observer.becomeReady();
+        runTasks();
+
+        assertEquals(List.of("a:2", "b:1"), versions(observer.writtenFeatures()));
+        assertEquals(0, meters.queued().get());
+    }
+
+    @Test
+    void snapshotDoesNotCountAsFallingBehind() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.DISCONNECT, 1);
+
+        subscriber.beginSnapshot();
+        subscriber.deliverSnapshot(List.of(feature("a", 1), feature("b", 1), feature("c", 1)));
+        assertTrue(subscriber.deliver(feature("d", 1)));
+        assertFalse(subscriber.deliver(feature("e", 1)));
+        observer.becomeReady();
+        runTasks();
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(observer.error).getCode());
+    }
+
+    @Test
+    void snapshotAllowanceIsUsedUpAsItIsWritten() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        FeatureSubscriber subscriber = subscriber(observer, SlowConsumerPolicy.DISCONNECT, 1);
+
+        subscriber.beginSnapshot();
+        subscriber.deliverSnapshot(List.of(feature("a", 1), feature("b", 1)));
+        observer.becomeReady();
+        runTasks();
+        observer.ready = false;
+
+        assertTrue(subscriber.deliver(feature("c", 1)));
+        assertFalse(subscriber.deliver(feature("d", 1)));
+        assertEquals(List.of("a:1", "b:1"), versions(observer.writtenFeatures()));
+    }
+
+    private FeatureSubscriber subscriber(FakeServerCallStreamObserver observer, SlowConsumerPolicy policy,
+                                         int capacity) {
+        return new FeatureSubscriber(new SubscriptionFilter("owner", null, List.of(), false), observer.typed(),
+                GeometryEncoding.PACKED, LevelOfDetail.FULL, executor, policy, capacity, meters);
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static List<String> versions(List<FeatureResponseDto> features) {
+        return features.stream().map(feature -> feature.getId() + ":" + feature.getDescription()).toList();
+    }
+
+    static FeatureResponseDto feature(String id, int version) {
+        return FeatureResponseDto.newBuilder().setId(id).setOwner("owner").setDescription(String.valueOf(version))
+                .build();
+    }
+}
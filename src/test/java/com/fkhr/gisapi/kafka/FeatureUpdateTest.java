@@ -0,0 +1,76 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.UncheckedIOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeatureUpdateTest {
+    private final GeometryConverter geometryConverter = new GeometryConverter();
+    private final FeatureResponseDto feature = FeatureResponseDto.newBuilder()
+            .setId("a").setOwner("owner").setDescription("description")
+            .setGeometry(geometryConverter.toProto(
+                    geometryConverter.getGeometryFactory().createPoint(new Coordinate(51.4, 35.7)), GeometryEncoding.PACKED))
+            .setProperties(Struct.newBuilder().putFields("speed", Value.newBuilder().setNumberValue(12).build()))
+            .build();
+
+    @Test
+    void idOwnerAndGeometryAreReadWithoutParsingTheFeature() {
+        FeatureUpdate update = FeatureUpdate.of(record(feature.toByteArray(), FeatureHeaders.of(feature)));
+
+        assertEquals("a", update.id());
+        assertEquals("owner", update.owner());
+        assertEquals(feature.getGeometry(), update.geometry());
+        assertFalse(update.isParsed());
+
+        assertEquals(feature, update.feature());
+        assertTrue(update.isParsed());
+    }
+
+    @Test
+    void recordWithoutHeadersIsParsedForItsIdAndOwner() {
+        FeatureUpdate update = FeatureUpdate.of(record(feature.toByteArray()));
+
+        assertEquals("owner", update.owner());
+        assertTrue(update.isParsed());
+        assertEquals("a", update.id());
+    }
+
+    @Test
+    void featureWithoutGeometryHasTheEmptyOne() {
+        FeatureResponseDto noGeometry = feature.toBuilder().clearGeometry().build();
+
+        FeatureUpdate update = FeatureUpdate.of(record(noGeometry.toByteArray(), FeatureHeaders.of(noGeometry)));
+
+        assertEquals(com.fkhr.gisapi.Geometry.getDefaultInstance(), update.geometry());
+    }
+
+    @Test
+    void malformedRecordFailsOnlyWhenItsContentIsNeeded() {
+        FeatureUpdate update = FeatureUpdate.of(record(new byte[]{(byte) 0x22, 0x7f, 1}, FeatureHeaders.of(feature)));
+
+        assertEquals("a", update.id());
+        assertThrows(UncheckedIOException.class, update::geometry);
+        assertThrows(UncheckedIOException.class, update::feature);
+    }
+
+    private static ConsumerRecord<String, byte[]> record(byte[] value, Header... headers) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(Topics.FEATURE, 0, 0, "a", value);
+        for (Header header : headers) {
+            record.headers().add(header);
+        }
+        return record;
+    }
+}
@@ -0,0 +1,295 @@
+package com.fkhr.gisapi.kafka;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.SlowConsumerPolicy;
+import com.fkhr.gisapi.spatial.GeometrySimplifier;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.internals.BuiltInPartitioner;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Timeout(10)
+class HistoryReplayerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GeometryConverter geometryConverter = new GeometryConverter();
+    private final FeatureSubscriber.Meters meters = new FeatureSubscriber.Meters(
+            Counter.builder("conflated").register(meterRegistry), Counter.builder("dropped").register(meterRegistry),
+            Counter.builder("disconnected").register(meterRegistry), new AtomicInteger());
+    @SuppressWarnings("unchecked")
+    private final ConsumerFactory<String, byte[]> consumerFactory = mock(ConsumerFactory.class);
+    //replays run when the test says so, on the test thread
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final TimestampedMockConsumer consumer = new TimestampedMockConsumer();
+
+    HistoryReplayerTest() {
+        when(consumerFactory.createConsumer(isNull(), anyString(), anyString(), any(Properties.class))).thenReturn(consumer);
+    }
+
+    @Test
+    void replaySeeksToTheWindowAndStopsAtItsEnd() {
+        TopicPartition partition = partitions(1).get(0);
+        for (int i = 0; i < 6; i++) {
+            consumer.append(record(partition, i, 100L * (i + 1), "f" + i));
+        }
+        consumer.updateEndOffsets(Map.of(partition, 6L));
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+
+        replayer(Map.of()).start(subscriber(observer, 10), 200, 400, false);
+        runTasks();
+
+        assertEquals(List.of("f1", "f2", "f3"), ids(observer));
+        assertTrue(observer.completed);
+        assertTrue(consumer.closed());
+        //offsetsForTimes found the start; nothing before it was read
+        assertEquals(List.of(1L), consumer.seeks.get(partition));
+    }
+
+    @Test
+    void replayWithNothingAfterFromCompletesEmpty() {
+        TopicPartition partition = partitions(1).get(0);
+        consumer.append(record(partition, 0, 100, "f0"));
+        consumer.updateEndOffsets(Map.of(partition, 1L));
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+
+        replayer(Map.of()).start(subscriber(observer, 10), 500, 0, false);
+        runTasks();
+
+        assertTrue(observer.written.isEmpty());
+        assertTrue(observer.completed);
+    }
+
+    @Test
+    void ownerReplayOnlyReadsThePartitionTheProducerPicksForTheOwner() {
+        List<TopicPartition> partitions = partitions(12);
+        int expected = BuiltInPartitioner.partitionForKey("owner".getBytes(StandardCharsets.UTF_8), 12);
+
+        List<TopicPartition> read = replayer(Map.of()).partitionsFor(consumer,
+                new SubscriptionFilter("owner", null, List.of(), false));
+
+        assertEquals(List.of(partitions.get(expected)), read);
+    }
+
+    @Test
+    void replayWithACustomPartitionerReadsEveryPartition() {
+        List<TopicPartition> partitions = partitions(12);
+
+        List<TopicPartition> read = replayer(Map.of(ProducerConfig.PARTITIONER_CLASS_CONFIG, "com.example.Custom"))
+                .partitionsFor(consumer, new SubscriptionFilter("owner", null, List.of(), false));
+
+        assertEquals(partitions, read);
+    }
+
+    @Test
+    void consumerPausesAtHalfTheQueueAndResumesOnceItDrained() {
+        TopicPartition partition = partitions(1).get(0);
+        consumer.updateEndOffsets(Map.of(partition, 6L));
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(false);
+        List<Boolean> pausedWhenPolled = new ArrayList<>();
+        //the real consumer returns max.poll.records at a time; the mock returns what the test adds per poll
+        consumer.schedulePollTask(() -> {
+            consumer.append(record(partition, 0, 100, "f0"));
+            consumer.append(record(partition, 1, 100, "f1"));
+        });
+        consumer.schedulePollTask(() -> {
+            pausedWhenPolled.add(consumer.paused().contains(partition));
+            IntStream.range(2, 6).forEach(i -> consumer.append(record(partition, i, 100, "f" + i)));
+        });
+        consumer.schedulePollTask(() -> {
+            pausedWhenPolled.add(consumer.paused().contains(partition));
+            observer.becomeReady();
+        });
+        consumer.schedulePollTask(() -> pausedWhenPolled.add(consumer.paused().contains(partition)));
+
+        replayer(Map.of()).start(subscriber(observer, 4), 0, 0, false);
+        runTasks();
+
+        assertEquals(List.of(true, true, false), pausedWhenPolled);
+        assertEquals(List.of("f0", "f1", "f2", "f3", "f4", "f5"), ids(observer));
+        assertTrue(observer.completed);
+        assertEquals(0, meters.dropped().count());
+    }
+
+    @Test
+    void replayPollsHalfTheQueueAtATime() {
+        ArgumentCaptor<Properties> properties = ArgumentCaptor.forClass(Properties.class);
+
+        replayer(Map.of()).start(subscriber(new FakeServerCallStreamObserver(true), 64), 0, 0, false);
+
+        verify(consumerFactory).createConsumer(isNull(), anyString(), anyString(), properties.capture());
+        assertEquals("32", properties.getValue().getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+    }
+
+    @Test
+    void concurrentReplaysHaveTheirOwnClientId() {
+        HistoryReplayer replayer = replayer(Map.of());
+        ArgumentCaptor<String> prefix = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> suffix = ArgumentCaptor.forClass(String.class);
+
+        replayer.start(subscriber(new FakeServerCallStreamObserver(true), 10), 0, 0, false);
+        replayer.start(subscriber(new FakeServerCallStreamObserver(true), 10), 0, 0, false);
+
+        verify(consumerFactory, times(2)).createConsumer(isNull(), prefix.capture(), suffix.capture(), any(Properties.class));
+        assertEquals(prefix.getAllValues().get(0), prefix.getAllValues().get(1));
+        assertNotEquals(suffix.getAllValues().get(0), suffix.getAllValues().get(1));
+    }
+
+    @Test
+    void cancelStopsTheReplayAndClosesTheConsumer() {
+        TopicPartition partition = partitions(1).get(0);
+        consumer.updateEndOffsets(Map.of(partition, 10L));
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(true);
+        HistoryReplayer.Replay[] replay = new HistoryReplayer.Replay[1];
+        consumer.schedulePollTask(() -> consumer.append(record(partition, 0, 100, "f0")));
+        consumer.schedulePollTask(() -> replay[0].cancel());
+
+        replay[0] = replayer(Map.of()).start(subscriber(observer, 10), 0, 0, true);
+        runTasks();
+
+        assertEquals(List.of("f0"), ids(observer));
+        assertFalse(observer.completed);
+        assertTrue(consumer.closed());
+        assertEquals(0, meterRegistry.get("gis.stream.replays").gauge().value());
+    }
+
+    private HistoryReplayer replayer(Map<String, Object> producerConfig) {
+        @SuppressWarnings("unchecked")
+        ProducerFactory<String, byte[]> producerFactory = mock(ProducerFactory.class);
+        when(producerFactory.getConfigurationProperties()).thenReturn(producerConfig);
+        return new HistoryReplayer(consumerFactory, geometryConverter,
+                new GeometrySimplifier(geometryConverter, meterRegistry, 256, 1000), producerFactory, meterRegistry,
+                new TaskExecutorAdapter(tasks::add), Duration.ofMillis(1));
+    }
+
+    private FeatureSubscriber subscriber(FakeServerCallStreamObserver observer, int capacity) {
+        return new FeatureSubscriber(new SubscriptionFilter("owner", null, List.of(), false), observer.typed(),
+                GeometryEncoding.PACKED, LevelOfDetail.FULL, Runnable::run, SlowConsumerPolicy.DROP_OLDEST, capacity,
+                meters);
+    }
+
+    private List<TopicPartition> partitions(int count) {
+        List<PartitionInfo> infos = new ArrayList<>();
+        Map<TopicPartition, Long> beginning = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            infos.add(new PartitionInfo(Topics.FEATURE, i, null, null, null));
+            beginning.put(new TopicPartition(Topics.FEATURE, i), 0L);
+        }
+        consumer.updatePartitions(Topics.FEATURE, infos);
+        consumer.updateBeginningOffsets(beginning);
+        return infos.stream().map(info -> new TopicPartition(Topics.FEATURE, info.partition())).toList();
+    }
+
+    private static ConsumerRecord<String, byte[]> record(TopicPartition partition, long offset, long timestamp, String id) {
+        FeatureResponseDto feature = FeatureResponseDto.newBuilder().setId(id).setOwner("owner").build();
+        return new ConsumerRecord<>(partition.topic(), partition.partition(), offset, timestamp,
+                TimestampType.CREATE_TIME, -1, -1, "owner", feature.toByteArray(),
+                new RecordHeaders(FeatureHeaders.of(feature)), Optional.empty());
+    }
+
+    private static List<String> ids(FakeServerCallStreamObserver observer) {
+        try {
+            return observer.writtenFeatures().stream().map(FeatureResponseDto::getId).toList();
+        } catch (Exception exception) {
+            throw new AssertionError(exception);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * MockConsumer does not implement offsetsForTimes; this one answers it from the records
+     * appended, and remembers where the replay seeked.
+     */
+    private static class TimestampedMockConsumer extends MockConsumer<String, byte[]> {
+        private final List<ConsumerRecord<String, byte[]>> added = new ArrayList<>();
+        private final Map<TopicPartition, List<Long>> seeks = new HashMap<>();
+
+        TimestampedMockConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        /**
+         * Writes the record to the topic; the mock only takes records for assigned partitions, so
+         * the others are handed to it once the replay assigns them.
+         */
+        synchronized void append(ConsumerRecord<String, byte[]> record) {
+            added.add(record);
+            if (assignment().contains(new TopicPartition(record.topic(), record.partition()))) {
+                addRecord(record);
+            }
+        }
+
+        @Override
+        public synchronized void assign(Collection<TopicPartition> partitions) {
+            super.assign(partitions);
+            added.stream()
+                    .filter(record -> partitions.contains(new TopicPartition(record.topic(), record.partition())))
+                    .forEach(this::addRecord);
+        }
+
+        @Override
+        public synchronized void seek(TopicPartition partition, long offset) {
+            seeks.computeIfAbsent(partition, key -> new ArrayList<>()).add(offset);
+            super.seek(partition, offset);
+        }
+
+        @Override
+        public synchronized Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(Map<TopicPartition, Long> query) {
+            Map<TopicPartition, OffsetAndTimestamp> found = new HashMap<>();
+            query.forEach((partition, timestamp) -> found.put(partition, added.stream()
+                    .filter(record -> record.partition() == partition.partition() && record.timestamp() >= timestamp)
+                    .findFirst()
+                    .map(record -> new OffsetAndTimestamp(record.offset(), record.timestamp()))
+                    .orElse(null)));
+            return found;
+        }
+    }
+}
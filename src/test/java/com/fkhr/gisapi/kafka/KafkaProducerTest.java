@@ -0,0 +1,171 @@
+package com.fkhr.gisapi.kafka;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.mock.MockProducerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KafkaProducerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    //sends are sent right away by the lane, they complete when the test says so
+    private final MockProducer<String, byte[]> mockProducer = new SharedMockProducer(false);
+    private KafkaProducer kafkaProducer;
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        if (kafkaProducer != null) {
+            kafkaProducer.shutdown();
+        }
+    }
+
+    @Test
+    void recordsWithTheSameKeyAreSentInOrder() throws Exception {
+        kafkaProducer = producer(mockProducer, 4, 100);
+
+        CompletableFuture<?>[] deliveries = new CompletableFuture<?>[20];
+        for (int i = 0; i < deliveries.length; i++) {
+            deliveries[i] = kafkaProducer.send("feature", "owner", new byte[]{(byte) i});
+        }
+        awaitUntil(() -> mockProducer.history().size() == deliveries.length);
+        while (mockProducer.completeNext()) {
+        }
+
+        CompletableFuture.allOf(deliveries).get(5, TimeUnit.SECONDS);
+        List<ProducerRecord<String, byte[]>> sent = mockProducer.history();
+        for (int i = 0; i < sent.size(); i++) {
+            assertArrayEquals(new byte[]{(byte) i}, sent.get(i).value());
+        }
+        assertEquals(20, kafkaProducer.getDelivered());
+    }
+
+    @Test
+    void sendIsRejectedOnceTheLaneIsFull() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MockProducer<String, byte[]> blocking = new SharedMockProducer(true) {
+            @Override
+            public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+                //a producer whose buffer is full blocks the lane thread in send()
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.send(record, callback);
+            }
+        };
+        kafkaProducer = producer(blocking, 1, 1);
+
+        CompletableFuture<Void> first = kafkaProducer.send("feature", "a", new byte[1]);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> queued = kafkaProducer.send("feature", "a", new byte[1]);
+        CompletableFuture<Void> rejected = kafkaProducer.send("feature", "a", new byte[1]);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+        assertEquals(1, kafkaProducer.getRejected());
+        assertEquals(1, kafkaProducer.getQueuedRecords());
+        release.countDown();
+        CompletableFuture.allOf(first, queued).get(5, TimeUnit.SECONDS);
+        assertEquals(2, kafkaProducer.getDelivered());
+    }
+
+    @Test
+    void recordTheProducerGaveUpOnGoesToTheDeadLetterTopic() throws Exception {
+        kafkaProducer = producer(mockProducer, 1, 100);
+        Header[] headers = {new RecordHeader("feature-id", "f1".getBytes(StandardCharsets.UTF_8))};
+
+        CompletableFuture<Void> delivery = kafkaProducer.send("feature", "owner", new byte[]{7}, headers);
+        awaitUntil(() -> mockProducer.history().size() == 1);
+        RuntimeException failure = new RuntimeException("delivery timeout");
+        mockProducer.errorNext(failure);
+        awaitUntil(() -> mockProducer.history().size() == 2);
+        mockProducer.completeNext();
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> delivery.get(5, TimeUnit.SECONDS));
+        //the template's exception for the original send, not the dead letter's
+        assertSame(failure, exception.getCause().getCause());
+        ProducerRecord<String, byte[]> deadLetter = mockProducer.history().get(1);
+        assertEquals("feature-dlt", deadLetter.topic());
+        assertEquals("owner", deadLetter.key());
+        assertArrayEquals(new byte[]{7}, deadLetter.value());
+        assertArrayEquals("f1".getBytes(StandardCharsets.UTF_8), deadLetter.headers().lastHeader("feature-id").value());
+        assertEquals(1, kafkaProducer.getDeadLettered());
+        assertEquals(1, meterRegistry.get("gis.kafka.publisher.records").tag("result", "dead_lettered")
+                .functionCounter().count());
+    }
+
+    @Test
+    void recordIsLostWhenTheDeadLetterTopicFailsToo() throws Exception {
+        kafkaProducer = producer(mockProducer, 1, 100);
+
+        CompletableFuture<Void> delivery = kafkaProducer.send("feature", "owner", new byte[1]);
+        awaitUntil(() -> mockProducer.history().size() == 1);
+        mockProducer.errorNext(new RuntimeException("delivery timeout"));
+        awaitUntil(() -> mockProducer.history().size() == 2);
+        mockProducer.errorNext(new RuntimeException("delivery timeout"));
+
+        assertThrows(ExecutionException.class, () -> delivery.get(5, TimeUnit.SECONDS));
+        assertEquals(0, kafkaProducer.getDeadLettered());
+        assertEquals(1, kafkaProducer.getLost());
+    }
+
+    private KafkaProducer producer(MockProducer<String, byte[]> producer, int lanes, int queueCapacity) {
+        return new KafkaProducer(new KafkaTemplate<>(new MockProducerFactory<>(() -> producer)), meterRegistry,
+                lanes, queueCapacity);
+    }
+
+    /**
+     * The template closes the producer it got after every send, as it would a pooled producer; the
+     * test keeps sending through the same one.
+     */
+    private static class SharedMockProducer extends MockProducer<String, byte[]> {
+        SharedMockProducer(boolean autoComplete) {
+            super(autoComplete, new StringSerializer(), new ByteArraySerializer());
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(Duration timeout) {
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
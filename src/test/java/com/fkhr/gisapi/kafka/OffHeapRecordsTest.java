@@ -0,0 +1,106 @@
+package com.fkhr.gisapi.kafka;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapRecordsTest {
+    //four segments of 16 bytes
+    private final OffHeapRecords records = new OffHeapRecords(16, 64);
+
+    @Test
+    void readsReturnTheLatestBytesAfterCompaction() {
+        records.put("a", bytes(10, 1));
+        records.put("b", bytes(10, 2));
+        records.put("c", bytes(10, 3));
+        records.put("a", bytes(12, 4));
+        records.remove("b");
+        assertEquals(64, records.allocatedBytes());
+
+        //no segment left and none with room: the replaced and removed bytes are reclaimed
+        assertTrue(records.put("d", bytes(16, 5)));
+
+        assertArrayEquals(bytes(12, 4), records.get("a"));
+        assertNull(records.get("b"));
+        assertArrayEquals(bytes(10, 3), records.get("c"));
+        assertArrayEquals(bytes(16, 5), records.get("d"));
+        assertEquals(3, records.size());
+        assertEquals(38, records.liveBytes());
+    }
+
+    @Test
+    void replacingOneKeyForeverStaysWithinTheLimit() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(records.put("a", bytes(1 + i % 16, i)));
+            assertArrayEquals(bytes(1 + i % 16, i), records.get("a"));
+        }
+        assertTrue(records.allocatedBytes() <= 64);
+        assertEquals(1, records.size());
+    }
+
+    @Test
+    void recordLargerThanASegmentIsRejected() {
+        records.put("a", bytes(4, 1));
+
+        assertFalse(records.put("a", bytes(17, 2)));
+
+        //the previous version is gone, as the store no longer indexes it
+        assertNull(records.get("a"));
+        assertEquals(0, records.liveBytes());
+    }
+
+    @Test
+    void fullStoreRejectsTheRecordAndKeepsTheOthers() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(records.put("k" + i, bytes(16, i)));
+        }
+
+        assertFalse(records.put("extra", bytes(1, 9)));
+
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(bytes(16, i), records.get("k" + i));
+        }
+        assertNull(records.get("extra"));
+    }
+
+    @Test
+    void randomUpdatesMatchAMap() {
+        Random random = new Random(42);
+        Map<String, byte[]> expected = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            String key = "k" + random.nextInt(6);
+            if (random.nextInt(4) == 0) {
+                records.remove(key);
+                expected.remove(key);
+            } else {
+                byte[] value = bytes(1 + random.nextInt(10), i);
+                if (records.put(key, value)) {
+                    expected.put(key, value);
+                } else {
+                    expected.remove(key);
+                }
+            }
+            for (int k = 0; k < 6; k++) {
+                assertArrayEquals(expected.get("k" + k), records.get("k" + k));
+            }
+        }
+        assertEquals(expected.size(), records.size());
+        assertEquals(expected.values().stream().mapToLong(value -> value.length).sum(), records.liveBytes());
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+        return bytes;
+    }
+}
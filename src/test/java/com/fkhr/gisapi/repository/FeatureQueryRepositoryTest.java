@@ -0,0 +1,150 @@
+package com.fkhr.gisapi.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fkhr.gisapi.PropertyPredicate;
+import com.fkhr.gisapi.model.PropertyType;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.google.protobuf.Value;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class FeatureQueryRepositoryTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final FeaturePartitionRepository featurePartitionRepository = mock(FeaturePartitionRepository.class);
+    private final FeatureQueryRepository repository = new FeatureQueryRepository(mock(JdbcTemplate.class),
+            objectMapper, new GeometryConverter(), featurePartitionRepository);
+
+    @Test
+    void ownerAndAreaComeFirst() {
+        byte[] area = new byte[]{1, 2, 3};
+
+        FeatureQueryRepository.CompiledQuery query = repository.compile("owner", area, List.of());
+
+        assertEquals(" AND owner = ? AND ST_Intersects(geometry, ST_GeomFromWKB(?, 4326))", query.conditions());
+        assertEquals(List.of("owner", area), query.arguments());
+    }
+
+    @Test
+    void noConditionsWithoutOwnerAreaOrPredicates() {
+        FeatureQueryRepository.CompiledQuery query = repository.compile("", null, List.of());
+
+        assertEquals("", query.conditions());
+        assertTrue(query.arguments().isEmpty());
+    }
+
+    @Test
+    void equalityIsJsonbContainmentWithTheValueBound() throws Exception {
+        FeatureQueryRepository.CompiledQuery query = compile(
+                predicate("color", PropertyPredicate.Operator.EQ, Value.newBuilder().setStringValue("red").build()));
+
+        assertEquals(" AND properties @> CAST(? AS jsonb)", query.conditions());
+        assertEquals(Map.of("color", "red"), objectMapper.readValue((String) query.arguments().get(0), Map.class));
+    }
+
+    @Test
+    void inequalityIsNegatedContainmentSoFeaturesWithoutTheKeyMatch() throws Exception {
+        //like the live stream filter, a feature without the key is not equal to the value
+        FeatureQueryRepository.CompiledQuery query = compile(
+                predicate("speed", PropertyPredicate.Operator.NE, Value.newBuilder().setNumberValue(5).build()));
+
+        assertEquals(" AND NOT properties @> CAST(? AS jsonb)", query.conditions());
+        assertEquals(Map.of("speed", 5.0), objectMapper.readValue((String) query.arguments().get(0), Map.class));
+    }
+
+    @Test
+    void existsIgnoresTheValueAndSkipsJsonNull() {
+        FeatureQueryRepository.CompiledQuery query = compile(
+                predicate("color", PropertyPredicate.Operator.EXISTS, Value.newBuilder().setStringValue("ignored").build()));
+
+        assertEquals(" AND properties ?? 'color' AND properties->'color' <> 'null'::jsonb", query.conditions());
+        assertTrue(query.arguments().isEmpty());
+    }
+
+    @Test
+    void numberRangeIsGuardedByItsType() {
+        FeatureQueryRepository.CompiledQuery query = compile(
+                predicate("speed", PropertyPredicate.Operator.LT, Value.newBuilder().setNumberValue(30).build()),
+                predicate("speed", PropertyPredicate.Operator.GTE, Value.newBuilder().setNumberValue(10).build()));
+
+        String guard = "jsonb_typeof(properties->'speed') = 'number'";
+        String expression = "(CASE WHEN " + guard + " THEN (properties->>'speed')::double precision END)";
+        assertEquals(" AND " + guard + " AND " + expression + " < ?" +
+                " AND " + guard + " AND " + expression + " >= ?", query.conditions());
+        assertEquals(List.of(30.0, 10.0), query.arguments());
+    }
+
+    @Test
+    void stringRangeComparesCodePoints() {
+        FeatureQueryRepository.CompiledQuery query = compile(
+                predicate("name", PropertyPredicate.Operator.GT, Value.newBuilder().setStringValue("m").build()));
+
+        assertEquals(" AND jsonb_typeof(properties->'name') = 'string' AND (properties->>'name') COLLATE \"C\" > ?",
+                query.conditions());
+        assertEquals(List.of("m"), query.arguments());
+    }
+
+    @Test
+    void rangeOnABooleanIsRejected() {
+        CustomException exception = assertThrows(CustomException.class, () -> compile(
+                predicate("active", PropertyPredicate.Operator.LTE, Value.newBuilder().setBoolValue(true).build())));
+
+        assertEquals(CustomError.INVALID_QUERY.getCode(), exception.getCode());
+    }
+
+    @Test
+    void keysThatCouldEscapeTheSqlAreRejected() {
+        for (String key : List.of("", "a'b", "a b", "color')) OR true --", "x".repeat(49))) {
+            CustomException exception = assertThrows(CustomException.class, () -> compile(
+                    predicate(key, PropertyPredicate.Operator.EXISTS, Value.getDefaultInstance())), key);
+            assertEquals(CustomError.INVALID_QUERY.getCode(), exception.getCode());
+        }
+    }
+
+    @Test
+    void rangePredicatesRepeatTheIndexedExpression() {
+        ArgumentCaptor<String> definition = ArgumentCaptor.forClass(String.class);
+        repository.createPropertyIndex("speed", PropertyType.NUMBER);
+        verify(featurePartitionRepository).createIndex(eq("feature_prop_n_speed"), definition.capture());
+
+        FeatureQueryRepository.CompiledQuery query = compile(
+                predicate("speed", PropertyPredicate.Operator.GT, Value.newBuilder().setNumberValue(1).build()));
+
+        //the planner only uses an expression index for the same expression, written the same way
+        String indexed = definition.getValue().substring("(owner, (".length(), definition.getValue().indexOf(")) WHERE "));
+        assertTrue(query.conditions().contains(indexed + " > ?"), query.conditions());
+        assertTrue(definition.getValue().endsWith(" WHERE jsonb_typeof(properties->'speed') = 'number'"));
+    }
+
+    @Test
+    void stringIndexIsNamedByTypeAndBooleansGetNone() {
+        repository.createPropertyIndex("name", PropertyType.STRING);
+        repository.createPropertyIndex("active", PropertyType.BOOLEAN);
+
+        verify(featurePartitionRepository).createIndex(eq("feature_prop_s_name"), anyString());
+        verify(featurePartitionRepository, never()).createIndex(eq("feature_prop_s_active"), anyString());
+        verify(featurePartitionRepository, never()).createIndex(eq("feature_prop_n_active"), anyString());
+    }
+
+    private FeatureQueryRepository.CompiledQuery compile(PropertyPredicate... predicates) {
+        return repository.compile("", null, List.of(predicates));
+    }
+
+    private static PropertyPredicate predicate(String key, PropertyPredicate.Operator operator, Value value) {
+        return PropertyPredicate.newBuilder().setKey(key).setOperator(operator).setValue(value).build();
+    }
+}
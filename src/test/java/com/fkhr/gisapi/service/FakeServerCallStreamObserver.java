@@ -0,0 +1,114 @@
+package com.fkhr.gisapi.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records what a call writes and the credits it grants, with readiness and cancellation set by the
+ * test.
+ */
+class FakeServerCallStreamObserver<T> extends ServerCallStreamObserver<T> {
+    final List<T> written = new ArrayList<>();
+    Throwable error;
+    boolean completed;
+    boolean ready;
+    int requested;
+    boolean autoRequestDisabled;
+    //messages written before the transport stops being ready, unlimited when negative
+    private int readyFor = -1;
+    private Runnable onReadyHandler;
+    private Runnable onCancelHandler;
+
+    FakeServerCallStreamObserver(boolean ready) {
+        this.ready = ready;
+    }
+
+    /**
+     * Becomes ready for {@code messages} more messages and tells the call so.
+     */
+    void becomeReadyFor(int messages) {
+        readyFor = messages;
+        ready = messages != 0;
+        onReadyHandler.run();
+    }
+
+    void becomeReady() {
+        becomeReadyFor(-1);
+    }
+
+    void cancel() {
+        onCancelHandler.run();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {
+        this.onCancelHandler = onCancelHandler;
+    }
+
+    @Override
+    public void setCompression(String compression) {
+    }
+
+    @Override
+    public void disableAutoRequest() {
+        autoRequestDisabled = true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+        this.onReadyHandler = onReadyHandler;
+    }
+
+    @Override
+    public void request(int count) {
+        requested += count;
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+    }
+
+    @Override
+    public void disableAutoInboundFlowControl() {
+        autoRequestDisabled = true;
+    }
+
+    @Override
+    public void onNext(T value) {
+        if (error != null || completed) {
+            throw new IllegalStateException("call already closed");
+        }
+        written.add(value);
+        if (readyFor > 0 && --readyFor == 0) {
+            ready = false;
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (error != null || completed) {
+            throw new IllegalStateException("call already closed");
+        }
+        error = t;
+    }
+
+    @Override
+    public void onCompleted() {
+        if (error != null || completed) {
+            throw new IllegalStateException("call already closed");
+        }
+        completed = true;
+    }
+}
@@ -0,0 +1,160 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.LatestFeatureStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class FeatureBatchReaderTest {
+    private static final UUID A = new UUID(0L, 1), B = new UUID(0L, 2), C = new UUID(0L, 3), D = new UUID(0L, 4);
+
+    private final FakeServerCallStreamObserver<FeatureResponseDto> observer = new FakeServerCallStreamObserver<>(false);
+    private final FeatureCache featureCache = new FeatureCache(mock(FeatureStreamHub.class),
+            mock(LatestFeatureStore.class), new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+    //chunks load when the test says so, in the order it picks
+    private final Deque<Runnable> chunks = new ArrayDeque<>();
+    private final List<List<UUID>> loads = new ArrayList<>();
+    private Set<UUID> existing = Set.of(A, B, C, D);
+
+    @Test
+    void orderedWritesInRequestOrderWhateverOrderChunksLoadIn() {
+        featureCache.put(response(A));
+        reader(true).start();
+        assertEquals(2, chunks.size());
+
+        observer.becomeReady();
+        //the cached feature goes out, the next one waits for its chunk
+        assertEquals(List.of("1"), writtenIds());
+        chunks.pollLast().run();
+        assertEquals(List.of("1"), writtenIds());
+        chunks.pollLast().run();
+
+        assertEquals(List.of("1", "2", "3", "4"), writtenIds());
+        assertEquals(List.of(List.of(D), List.of(B, C)), loads);
+        assertTrue(observer.completed);
+    }
+
+    @Test
+    void unorderedWritesEachChunkAsItLoads() {
+        featureCache.put(response(A));
+        reader(false).start();
+        observer.becomeReady();
+
+        chunks.pollLast().run();
+        assertEquals(List.of("1", "4"), writtenIds());
+        assertFalse(observer.completed);
+        chunks.pollLast().run();
+
+        assertEquals(List.of("1", "4", "2", "3"), writtenIds());
+        assertTrue(observer.completed);
+    }
+
+    @Test
+    void missingIdsAreSkippedInBothModes() {
+        existing = Set.of(A, D);
+        for (boolean ordered : new boolean[]{true, false}) {
+            FakeServerCallStreamObserver<FeatureResponseDto> call = new FakeServerCallStreamObserver<>(true);
+            new FeatureBatchReader(call, List.of(A, B, C, D), ordered, featureCache, this::load,
+                    feature -> feature, chunks::add, 2).start();
+            runChunks();
+
+            //cached features go out unordered in no particular order
+            assertEquals(Set.of("1", "4"), Set.copyOf(ids(call.written)), "ordered " + ordered);
+            assertTrue(call.completed);
+        }
+    }
+
+    @Test
+    void writesOnlyWhileTheTransportIsReady() {
+        reader(true).start();
+        runChunks();
+
+        observer.becomeReadyFor(1);
+        assertEquals(List.of("1"), writtenIds());
+        observer.becomeReadyFor(2);
+        assertEquals(List.of("1", "2", "3"), writtenIds());
+        assertFalse(observer.completed);
+        observer.becomeReady();
+
+        assertEquals(List.of("1", "2", "3", "4"), writtenIds());
+        assertTrue(observer.completed);
+        //loaded features are cached for the next read
+        assertNotNull(featureCache.getAllPresent(List.of(D)).get(D));
+    }
+
+    @Test
+    void failedChunkGoesToOnErrorInBothModes() {
+        IllegalStateException failure = new IllegalStateException("database down");
+        for (boolean ordered : new boolean[]{true, false}) {
+            FakeServerCallStreamObserver<FeatureResponseDto> call = new FakeServerCallStreamObserver<>(true);
+            new FeatureBatchReader(call, List.of(A, B), ordered, featureCache, ids -> {
+                throw failure;
+            }, feature -> feature, chunks::add, 1).start();
+            runChunks();
+
+            assertSame(failure, call.error, "ordered " + ordered);
+            assertFalse(call.completed);
+        }
+    }
+
+    @Test
+    void cancelStopsChunksFromLoading() {
+        reader(true).start();
+        observer.becomeReady();
+
+        observer.cancel();
+        runChunks();
+
+        assertTrue(loads.isEmpty());
+        assertTrue(observer.written.isEmpty());
+        assertFalse(observer.completed);
+        assertNull(observer.error);
+    }
+
+    private FeatureBatchReader reader(boolean ordered) {
+        return new FeatureBatchReader(observer, List.of(A, B, C, D), ordered, featureCache, this::load,
+                feature -> feature, chunks::add, 2);
+    }
+
+    private List<FeatureResponseDto> load(List<UUID> ids) {
+        loads.add(List.copyOf(ids));
+        return ids.stream().filter(existing::contains).map(FeatureBatchReaderTest::response).toList();
+    }
+
+    private void runChunks() {
+        while (!chunks.isEmpty()) {
+            chunks.poll().run();
+        }
+    }
+
+    private List<String> writtenIds() {
+        return ids(observer.written);
+    }
+
+    private static List<String> ids(List<FeatureResponseDto> features) {
+        return features.stream()
+                .map(feature -> String.valueOf(UUID.fromString(feature.getId()).getLeastSignificantBits()))
+                .toList();
+    }
+
+    private static FeatureResponseDto response(UUID id) {
+        return FeatureResponseDto.newBuilder().setId(id.toString()).build();
+    }
+}
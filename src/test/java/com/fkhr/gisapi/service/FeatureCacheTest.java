@@ -0,0 +1,85 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.FeatureUpdate;
+import com.fkhr.gisapi.kafka.LatestFeatureStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class FeatureCacheTest {
+    private final FeatureStreamHub featureStreamHub = mock(FeatureStreamHub.class);
+    private final LatestFeatureStore latestFeatureStore = mock(LatestFeatureStore.class);
+    private final FeatureCache featureCache = new FeatureCache(featureStreamHub, latestFeatureStore,
+            new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+    private final UUID cached = UUID.randomUUID();
+    private final UUID uncached = UUID.randomUUID();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void topicUpdatesRefreshCachedFeaturesOnly() {
+        ArgumentCaptor<Consumer<FeatureUpdate>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(featureStreamHub).addListener(listener.capture());
+        featureCache.put(feature(cached, "old"));
+
+        listener.getValue().accept(FeatureUpdate.of(feature(cached, "new")));
+        listener.getValue().accept(FeatureUpdate.of(feature(uncached, "new")));
+
+        Map<UUID, FeatureResponseDto> present = featureCache.getAllPresent(List.of(cached, uncached));
+        assertEquals("new", present.get(cached).getDescription());
+        //nobody asked this node for it, so it is not pulled in
+        assertEquals(1, present.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void tombstoneInvalidatesTheFeature() {
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(latestFeatureStore).addRemovalListener(listener.capture());
+        featureCache.put(feature(cached, "kept"));
+
+        listener.getValue().accept(cached.toString());
+
+        assertTrue(featureCache.getAllPresent(List.of(cached)).isEmpty());
+    }
+
+    @Test
+    void featureNotFoundIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertNull(featureCache.get(uncached, id -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        FeatureResponseDto loaded = featureCache.get(uncached, id -> {
+            loads.incrementAndGet();
+            return feature(id, "created since");
+        });
+        FeatureResponseDto hit = featureCache.get(uncached, id -> {
+            loads.incrementAndGet();
+            return null;
+        });
+
+        assertEquals("created since", loaded.getDescription());
+        assertEquals(loaded, hit);
+        assertEquals(2, loads.get());
+    }
+
+    private static FeatureResponseDto feature(UUID id, String description) {
+        return FeatureResponseDto.newBuilder().setId(id.toString()).setDescription(description).build();
+    }
+}
@@ -0,0 +1,183 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureRequestDto;
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.ImportFeaturesResponseDto;
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeatureImportObserverTest {
+    private final FakeServerCallStreamObserver<ImportFeaturesResponseDto> observer = new FakeServerCallStreamObserver<>(true);
+    //batches are written when the test says so, like on a busy import executor
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<List<String>> batches = new ArrayList<>();
+    private final Queue<CompletableFuture<Void>> publishes = new ArrayDeque<>();
+
+    @Test
+    void grantsTheBufferUpFrontAndACreditPerPublishedFeature() {
+        FeatureImportObserver importObserver = importObserver(tasks::add, this::write);
+        assertTrue(observer.autoRequestDisabled);
+        assertEquals(4, observer.requested);
+
+        importObserver.onNext(request("a"));
+        importObserver.onNext(request("b"));
+        runTasks();
+        assertEquals(List.of(List.of("a", "b")), batches);
+        //saved but not yet published
+        assertEquals(4, observer.requested);
+
+        publishes.poll().complete(null);
+        assertEquals(6, observer.requested);
+    }
+
+    @Test
+    void batchesAreWrittenOneAfterAnotherOnTheWriteExecutor() {
+        FeatureImportObserver importObserver = importObserver(tasks::add, this::write);
+
+        for (String id : List.of("a", "b", "c", "d", "e")) {
+            importObserver.onNext(request(id));
+        }
+        //the second batch waits for the first to be written
+        assertEquals(1, tasks.size());
+        assertTrue(batches.isEmpty());
+        tasks.poll().run();
+        assertEquals(List.of(List.of("a", "b")), batches);
+        assertEquals(1, tasks.size());
+
+        importObserver.onCompleted();
+        runTasks();
+
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d"), List.of("e")), batches);
+    }
+
+    @Test
+    void completesWithTheCountOnceEverythingIsPublished() {
+        FeatureImportObserver importObserver = importObserver(tasks::add, this::write);
+        importObserver.onNext(request("a"));
+        importObserver.onNext(request("b"));
+        importObserver.onNext(request("c"));
+
+        importObserver.onCompleted();
+        runTasks();
+        assertFalse(observer.completed);
+        publishes.forEach(publish -> publish.complete(null));
+
+        assertTrue(observer.completed);
+        assertEquals(List.of(ImportFeaturesResponseDto.newBuilder().setCount(3).build()), observer.written);
+    }
+
+    @Test
+    void reusedIdFailsWithAlreadyExistsAndStopsTheImport() {
+        FeatureImportObserver importObserver = importObserver(tasks::add, features -> {
+            throw new CustomException(CustomError.FEATURE_ALREADY_EXIST,
+                    new IllegalArgumentException("Feature ids already exist: [a]"));
+        });
+        importObserver.onNext(request("a"));
+        importObserver.onNext(request("b"));
+        importObserver.onNext(request("c"));
+        importObserver.onNext(request("d"));
+
+        runTasks();
+        importObserver.onCompleted();
+        runTasks();
+
+        Status status = Status.fromThrowable(observer.error);
+        assertEquals(Status.Code.ALREADY_EXISTS, status.getCode());
+        assertEquals("Import failed after 0 features: Feature ids already exist: [a]", status.getDescription());
+        assertFalse(observer.completed);
+    }
+
+    @Test
+    void unpublishedBatchFailsTheCallWithoutCredits() {
+        FeatureImportObserver importObserver = importObserver(tasks::add, this::write);
+        importObserver.onNext(request("a"));
+        importObserver.onNext(request("b"));
+        runTasks();
+
+        publishes.poll().completeExceptionally(new IllegalStateException("lane full"));
+
+        assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(observer.error).getCode());
+        assertEquals(4, observer.requested);
+    }
+
+    @Test
+    void rejectedBatchEndsTheCallInsteadOfStallingIt() {
+        Executor rejecting = task -> {
+            throw new RejectedExecutionException("import executor saturated");
+        };
+        FeatureImportObserver importObserver = importObserver(rejecting, this::write);
+
+        importObserver.onNext(request("a"));
+        importObserver.onNext(request("b"));
+        importObserver.onNext(request("c"));
+        importObserver.onCompleted();
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(observer.error).getCode());
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    void malformedFeatureFailsWithInvalidArgument() {
+        FeatureImportObserver importObserver = new FeatureImportObserver(observer, request -> {
+            throw new IllegalArgumentException("Unsupported geometry type: Circle");
+        }, this::write, tasks::add, 2, 4).start();
+
+        importObserver.onNext(request("a"));
+        importObserver.onNext(request("b"));
+
+        Status status = Status.fromThrowable(observer.error);
+        assertEquals(Status.Code.INVALID_ARGUMENT, status.getCode());
+        assertEquals("Unsupported geometry type: Circle", status.getDescription());
+    }
+
+    @Test
+    void cancelledImportWritesNothingMore() {
+        FeatureImportObserver importObserver = importObserver(tasks::add, this::write);
+        importObserver.onNext(request("a"));
+        importObserver.onNext(request("b"));
+
+        observer.cancel();
+        runTasks();
+
+        assertTrue(batches.isEmpty());
+        assertFalse(observer.completed);
+    }
+
+    private FeatureImportObserver importObserver(Executor executor,
+                                                 Function<List<FeatureImportObserver.ImportedFeature>, CompletableFuture<Void>> batchWriter) {
+        return new FeatureImportObserver(observer, request -> new FeatureImportObserver.ImportedFeature(null,
+                FeatureResponseDto.newBuilder().setId(request.getId()).build()), batchWriter, executor, 2, 4).start();
+    }
+
+    private CompletableFuture<Void> write(List<FeatureImportObserver.ImportedFeature> features) {
+        batches.add(features.stream().map(feature -> feature.response().getId()).toList());
+        CompletableFuture<Void> published = new CompletableFuture<>();
+        publishes.add(published);
+        return published;
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+    }
+
+    private static FeatureRequestDto request(String id) {
+        return FeatureRequestDto.newBuilder().setId(id).build();
+    }
+}
@@ -0,0 +1,106 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.model.Feature;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeaturePageStreamerTest {
+    private final FakeServerCallStreamObserver<String> observer = new FakeServerCallStreamObserver<>(false);
+    private final List<Feature> rows = IntStream.range(0, 5)
+            .mapToObj(i -> feature(new UUID(0L, i + 1)))
+            .toList();
+    //the key each fetch continued after
+    private final List<UUID> fetches = new ArrayList<>();
+
+    @Test
+    void pagesAreFetchedOnlyWhileTheTransportIsReady() {
+        streamer(2).start();
+        assertTrue(fetches.isEmpty());
+
+        observer.becomeReadyFor(3);
+        assertEquals(List.of("1", "2", "3"), observer.written);
+        assertEquals(List.of(FeaturePageStreamer.FIRST_KEY, new UUID(0L, 2)), fetches);
+
+        observer.becomeReadyFor(1);
+        assertEquals(List.of("1", "2", "3", "4"), observer.written);
+        //the rest of the page was held, nothing more fetched
+        assertEquals(2, fetches.size());
+        assertFalse(observer.completed);
+
+        observer.becomeReady();
+        assertEquals(List.of("1", "2", "3", "4", "5"), observer.written);
+        assertEquals(List.of(FeaturePageStreamer.FIRST_KEY, new UUID(0L, 2), new UUID(0L, 4)), fetches);
+        assertTrue(observer.completed);
+    }
+
+    @Test
+    void fullLastPageIsFollowedByAnEmptyOne() {
+        List<String> marks = new ArrayList<>();
+        new FeaturePageStreamer<>(observer, this::fetch, (page, first, last) -> {
+            marks.add(page.size() + (first ? " first" : "") + (last ? " last" : ""));
+            return page.stream().map(feature -> String.valueOf(feature.getId().getLeastSignificantBits())).toList();
+        }, 5).start();
+
+        observer.becomeReady();
+
+        assertEquals(List.of("5 first", "0 last"), marks);
+        assertEquals(5, observer.written.size());
+        assertTrue(observer.completed);
+    }
+
+    @Test
+    void failedFetchFailsTheCall() {
+        IllegalStateException failure = new IllegalStateException("database down");
+        new FeaturePageStreamer<>(observer, (after, limit) -> {
+            throw failure;
+        }, feature -> "", 2).start();
+
+        observer.becomeReady();
+
+        assertSame(failure, observer.error);
+        assertFalse(observer.completed);
+    }
+
+    @Test
+    void cancelStopsFetching() {
+        streamer(2).start();
+        observer.becomeReadyFor(1);
+
+        observer.cancel();
+        observer.becomeReady();
+
+        assertEquals(List.of("1"), observer.written);
+        assertEquals(1, fetches.size());
+        assertFalse(observer.completed);
+        assertNull(observer.error);
+    }
+
+    private FeaturePageStreamer<String> streamer(int pageSize) {
+        return new FeaturePageStreamer<>(observer, this::fetch,
+                feature -> String.valueOf(feature.getId().getLeastSignificantBits()), pageSize);
+    }
+
+    private List<Feature> fetch(UUID after, int limit) {
+        fetches.add(after);
+        return rows.stream()
+                .filter(feature -> feature.getId().compareTo(after) > 0)
+                .limit(limit)
+                .toList();
+    }
+
+    private static Feature feature(UUID id) {
+        Feature feature = new Feature();
+        feature.setId(id);
+        return feature;
+    }
+}
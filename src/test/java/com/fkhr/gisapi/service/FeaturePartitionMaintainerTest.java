@@ -0,0 +1,151 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.kafka.FeaturePublisher;
+import com.fkhr.gisapi.repository.FeaturePartitionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FeaturePartitionMaintainerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FeaturePartitionRepository featurePartitionRepository = mock(FeaturePartitionRepository.class);
+    private final FeaturePublisher featurePublisher = mock(FeaturePublisher.class);
+    //never started, the tests run maintain() themselves
+    private final FeaturePartitionMaintainer maintainer = new FeaturePartitionMaintainer(featurePartitionRepository,
+            featurePublisher, meterRegistry, Duration.ofDays(7), 2, Duration.ofDays(30), Duration.ofHours(1));
+    //weekly partitions counted from 1970-01-01, a Thursday
+    private final LocalDate current = LocalDate.now().with(TemporalAdjusters.previousOrSame(DayOfWeek.THURSDAY));
+
+    @AfterEach
+    void shutdown() {
+        maintainer.shutdown();
+    }
+
+    @Test
+    void constructorRunsNoDdl() {
+        verify(featurePartitionRepository, never()).isPartitioned();
+    }
+
+    @Test
+    void createsTheCurrentAndPremadePartitionsThatAreMissing() {
+        when(featurePartitionRepository.isPartitioned()).thenReturn(true);
+        when(featurePartitionRepository.findPartitions()).thenReturn(List.of(partition(current, false)));
+
+        maintainer.maintain();
+
+        verify(featurePartitionRepository, never()).createPartition(eq(name(current)), any(), any());
+        verify(featurePartitionRepository).createPartition(name(current.plusDays(7)),
+                current.plusDays(7).atStartOfDay(), current.plusDays(14).atStartOfDay());
+        verify(featurePartitionRepository).createPartition(name(current.plusDays(14)),
+                current.plusDays(14).atStartOfDay(), current.plusDays(21).atStartOfDay());
+        verify(featurePartitionRepository, times(2)).createPartition(anyString(), any(), any());
+        assertEquals(2, meterRegistry.get("gis.partitions.created").counter().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void expiredPartitionIsTombstonedReleasedAndDroppedInThatOrder() {
+        UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+        FeaturePartitionRepository.Partition expired = partition(current.minusWeeks(10), false);
+        FeaturePartitionRepository.Partition kept = partition(current.minusWeeks(4), false);
+        when(featurePartitionRepository.isPartitioned()).thenReturn(true);
+        when(featurePartitionRepository.findPartitions()).thenReturn(List.of(expired, kept));
+        when(featurePublisher.publishRemoved(anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        doAnswer(invocation -> {
+            Consumer<UUID> consumer = invocation.getArgument(1);
+            consumer.accept(first);
+            consumer.accept(second);
+            return null;
+        }).when(featurePartitionRepository).findIds(eq(expired.name()), any(Consumer.class));
+
+        maintainer.maintain();
+
+        InOrder inOrder = inOrder(featurePartitionRepository, featurePublisher);
+        inOrder.verify(featurePartitionRepository).detachPartition(expired);
+        inOrder.verify(featurePublisher).publishRemoved(first.toString());
+        inOrder.verify(featurePublisher).publishRemoved(second.toString());
+        inOrder.verify(featurePartitionRepository).releaseIds(expired.name());
+        inOrder.verify(featurePartitionRepository).dropTable(expired.name());
+        //ends within the retention
+        verify(featurePartitionRepository, never()).detachPartition(kept);
+        verify(featurePartitionRepository, never()).dropTable(kept.name());
+        assertEquals(1, meterRegistry.get("gis.partitions.dropped").counter().count());
+    }
+
+    @Test
+    void lostTombstonesDoNotKeepThePartition() {
+        FeaturePartitionRepository.Partition expired = partition(current.minusWeeks(10), true);
+        when(featurePartitionRepository.isPartitioned()).thenReturn(true);
+        when(featurePartitionRepository.findPartitions()).thenReturn(List.of(expired));
+        when(featurePublisher.publishRemoved(anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+        doAnswer(invocation -> {
+            invocation.<Consumer<UUID>>getArgument(1).accept(UUID.randomUUID());
+            return null;
+        }).when(featurePartitionRepository).findIds(eq(expired.name()), any());
+
+        maintainer.maintain();
+
+        verify(featurePartitionRepository).detachPartition(expired);
+        verify(featurePartitionRepository).releaseIds(expired.name());
+        verify(featurePartitionRepository).dropTable(expired.name());
+    }
+
+    @Test
+    void failedDetachKeepsTheRowsAndTheIds() {
+        FeaturePartitionRepository.Partition expired = partition(current.minusWeeks(10), false);
+        when(featurePartitionRepository.isPartitioned()).thenReturn(true);
+        when(featurePartitionRepository.findPartitions()).thenReturn(List.of(expired));
+        doThrow(new IllegalStateException("lock timeout")).when(featurePartitionRepository).detachPartition(expired);
+
+        maintainer.maintain();
+
+        verify(featurePublisher, never()).publishRemoved(anyString());
+        verify(featurePartitionRepository, never()).releaseIds(anyString());
+        verify(featurePartitionRepository, never()).dropTable(anyString());
+    }
+
+    @Test
+    void unpartitionedTableIsLeftAlone() {
+        when(featurePartitionRepository.isPartitioned()).thenReturn(false);
+
+        maintainer.maintain();
+        maintainer.maintain();
+
+        verify(featurePartitionRepository, never()).findPartitions();
+        verify(featurePartitionRepository, never()).createPartition(anyString(), any(), any());
+    }
+
+    private static FeaturePartitionRepository.Partition partition(LocalDate from, boolean detachPending) {
+        LocalDateTime start = from.atStartOfDay();
+        return new FeaturePartitionRepository.Partition(name(from), start, start.plusDays(7), detachPending);
+    }
+
+    private static String name(LocalDate from) {
+        return "feature_p" + from.toString().replace("-", "");
+    }
+}
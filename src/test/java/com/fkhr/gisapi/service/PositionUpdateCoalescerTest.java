@@ -0,0 +1,143 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeaturePublisher;
+import com.fkhr.gisapi.repository.DatabaseConcurrencyLimiter;
+import com.fkhr.gisapi.repository.FeatureBatchWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PositionUpdateCoalescerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FeatureBatchWriter featureBatchWriter = mock(FeatureBatchWriter.class);
+    private final FeaturePublisher featurePublisher = mock(FeaturePublisher.class);
+    //flushed by the tests only
+    private final PositionUpdateCoalescer coalescer = new PositionUpdateCoalescer(featureBatchWriter,
+            new DatabaseConcurrencyLimiter(meterRegistry, 1), featurePublisher, meterRegistry,
+            Duration.ofHours(1), 1000, 1.0);
+    //publishes nothing on submit, everything is left to the flush
+    private final PositionUpdateCoalescer unsampled = new PositionUpdateCoalescer(featureBatchWriter,
+            new DatabaseConcurrencyLimiter(meterRegistry, 1), featurePublisher, meterRegistry,
+            Duration.ofHours(1), 1000, 0.0);
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        coalescer.shutdown();
+        unsampled.shutdown();
+    }
+
+    @Test
+    void featureWhoseRowIsGoneIsTombstonedAgain() {
+        UUID kept = UUID.randomUUID(), dropped = UUID.randomUUID();
+        when(featurePublisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(featureBatchWriter.updatePositions(anyList())).thenReturn(List.of(dropped));
+        submit(kept);
+        submit(dropped);
+
+        coalescer.flush();
+
+        verify(featurePublisher).publishRemoved(dropped.toString());
+        verify(featurePublisher, never()).publishRemoved(kept.toString());
+        assertEquals(1, meterRegistry.get("gis.position.written").counter().count());
+        assertEquals(1, meterRegistry.get("gis.position.missing").counter().count());
+    }
+
+    @Test
+    void failedWriteIsRetriedWithoutTombstones() {
+        UUID id = UUID.randomUUID();
+        when(featurePublisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(featureBatchWriter.updatePositions(anyList())).thenThrow(new IllegalStateException("down"))
+                .thenReturn(List.of());
+        submit(id);
+
+        coalescer.flush();
+        coalescer.flush();
+
+        verify(featurePublisher, never()).publishRemoved(any());
+        assertEquals(1, meterRegistry.get("gis.position.written").counter().count());
+    }
+
+    @Test
+    void flushPublishesOnlyTheLatestUnpublishedPosition() {
+        UUID id = UUID.randomUUID();
+        when(featurePublisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(featureBatchWriter.updatePositions(anyList())).thenReturn(List.of());
+        FeatureResponseDto first = feature(id, "first");
+        FeatureResponseDto second = feature(id, "second");
+        submit(unsampled, first);
+        submit(unsampled, second);
+        verify(featurePublisher, never()).publish(any());
+
+        unsampled.flush();
+        unsampled.flush();
+
+        verify(featurePublisher, never()).publish(first);
+        verify(featurePublisher, times(1)).publish(second);
+        assertEquals(1, meterRegistry.get("gis.position.coalesced").counter().count());
+    }
+
+    @Test
+    void rejectedPositionIsPublishedByTheFlush() {
+        UUID id = UUID.randomUUID();
+        FeatureResponseDto feature = feature(id, "rejected");
+        //already failed when returned, as when the publisher lane is full
+        when(featurePublisher.publish(any())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("full")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        when(featureBatchWriter.updatePositions(anyList())).thenReturn(List.of());
+        submit(coalescer, feature);
+
+        coalescer.flush();
+
+        verify(featurePublisher, times(2)).publish(feature);
+    }
+
+    @Test
+    void rejectedPositionIsNotPublishedAfterANewerOne() {
+        UUID id = UUID.randomUUID();
+        FeatureResponseDto older = feature(id, "older");
+        FeatureResponseDto newer = feature(id, "newer");
+        when(featurePublisher.publish(older)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("full")));
+        when(featurePublisher.publish(newer)).thenReturn(CompletableFuture.completedFuture(null));
+        when(featureBatchWriter.updatePositions(anyList())).thenReturn(List.of());
+        submit(coalescer, older);
+        submit(coalescer, newer);
+
+        coalescer.flush();
+
+        InOrder inOrder = inOrder(featurePublisher);
+        inOrder.verify(featurePublisher).publish(older);
+        inOrder.verify(featurePublisher).publish(newer);
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    private void submit(UUID id) {
+        submit(coalescer, FeatureResponseDto.newBuilder().setId(id.toString()).build());
+    }
+
+    private static void submit(PositionUpdateCoalescer coalescer, FeatureResponseDto feature) {
+        coalescer.submit(feature, new FeatureBatchWriter.PositionUpdate(UUID.fromString(feature.getId()), null,
+                LocalDateTime.now()));
+    }
+
+    private static FeatureResponseDto feature(UUID id, String description) {
+        return FeatureResponseDto.newBuilder().setId(id.toString()).setDescription(description).build();
+    }
+}
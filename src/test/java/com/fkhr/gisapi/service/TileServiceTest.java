@@ -0,0 +1,131 @@
+package com.fkhr.gisapi.service;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.FeatureUpdate;
+import com.fkhr.gisapi.repository.DatabaseConcurrencyLimiter;
+import com.fkhr.gisapi.repository.FeatureTileRepository;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TileServiceTest {
+    private static final int EXTENT = 4096;
+    private static final int BUFFER = 64;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GeometryConverter geometryConverter = new GeometryConverter();
+    private final FeatureTileRepository featureTileRepository = mock(FeatureTileRepository.class);
+    private final TileService tileService = new TileService(featureTileRepository,
+            new DatabaseConcurrencyLimiter(meterRegistry, 1), geometryConverter, mock(FeatureStreamHub.class),
+            meterRegistry, EXTENT, BUFFER, 22, DataSize.ofMegabytes(1), Duration.ofMinutes(10), 1000);
+
+    TileServiceTest() {
+        when(featureTileRepository.findTile(anyInt(), anyInt(), anyInt(), anyInt(), anyInt())).thenReturn(new byte[8]);
+    }
+
+    @Test
+    void updateInvalidatesTheTilesAroundTheNewPosition() {
+        int[] here = tile(51.389, 35.689, 12);
+        int[] elsewhere = tile(2.35, 48.85, 12);
+        load(12, here);
+        load(12, elsewhere);
+
+        tileService.invalidate(update("a", point(51.389, 35.689)));
+        load(12, here);
+        load(12, elsewhere);
+
+        verify(featureTileRepository, times(2)).findTile(12, here[0], here[1], EXTENT, BUFFER);
+        verify(featureTileRepository, times(1)).findTile(12, elsewhere[0], elsewhere[1], EXTENT, BUFFER);
+    }
+
+    @Test
+    void moveInvalidatesTheTilesTheFeatureLeft() {
+        int[] before = tile(51.389, 35.689, 14);
+        tileService.invalidate(update("a", point(51.389, 35.689)));
+        load(14, before);
+
+        tileService.invalidate(update("a", point(2.35, 48.85)));
+        load(14, before);
+
+        verify(featureTileRepository, times(2)).findTile(14, before[0], before[1], EXTENT, BUFFER);
+    }
+
+    @Test
+    void featureInTheBufferOfANeighbourInvalidatesIt() {
+        int z = 10;
+        int[] tile = tile(10.0, 10.0, z);
+        //just east of the tile's east edge, within the buffer drawn around it
+        double east = (tile[0] + 1) / (double) (1 << z) * 360 - 180;
+        double inBuffer = east + 0.5 * BUFFER / EXTENT * 360 / (1 << z);
+        load(z, tile);
+
+        tileService.invalidate(update("a", point(inBuffer, 10.0)));
+        load(z, tile);
+
+        verify(featureTileRepository, times(2)).findTile(z, tile[0], tile[1], EXTENT, BUFFER);
+    }
+
+    @Test
+    void largeFeatureInvalidatesByScanningTheCache() {
+        int z = 16;
+        int[] inside = tile(10.5, 10.5, z);
+        int[] outside = tile(20.5, 20.5, z);
+        load(z, inside);
+        load(z, outside);
+
+        Geometry area = geometryConverter.getGeometryFactory().toGeometry(new Envelope(10, 11, 10, 11));
+        tileService.invalidate(update("area", area));
+        load(z, inside);
+        load(z, outside);
+
+        verify(featureTileRepository, times(2)).findTile(z, inside[0], inside[1], EXTENT, BUFFER);
+        verify(featureTileRepository, times(1)).findTile(z, outside[0], outside[1], EXTENT, BUFFER);
+    }
+
+    @Test
+    void invalidatedTilesAreNoLongerCountedAtTheirZoom() {
+        int[] here = tile(51.389, 35.689, 12);
+        load(12, here);
+        tileService.invalidate(update("a", point(51.389, 35.689)));
+
+        //with nothing cached at zoom 12 anymore the next update has nothing to do there
+        tileService.invalidate(update("a", point(51.389, 35.689)));
+        load(12, here);
+        load(12, here);
+
+        verify(featureTileRepository, times(2)).findTile(12, here[0], here[1], EXTENT, BUFFER);
+    }
+
+    private void load(int z, int[] tile) {
+        tileService.getTile(z, tile[0], tile[1]);
+    }
+
+    private FeatureUpdate update(String id, Geometry geometry) {
+        return FeatureUpdate.of(FeatureResponseDto.newBuilder().setId(id)
+                .setGeometry(geometryConverter.toProto(geometry)).build());
+    }
+
+    private Geometry point(double x, double y) {
+        return geometryConverter.getGeometryFactory().createPoint(new Coordinate(x, y));
+    }
+
+    private static int[] tile(double longitude, double latitude, int z) {
+        int scale = 1 << z;
+        double radians = Math.toRadians(latitude);
+        return new int[]{(int) Math.floor((longitude + 180) / 360 * scale),
+                (int) Math.floor((1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * scale)};
+    }
+}
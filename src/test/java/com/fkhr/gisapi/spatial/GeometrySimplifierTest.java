@@ -0,0 +1,139 @@
+package com.fkhr.gisapi.spatial;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.model.Feature;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import com.fkhr.gisapi.utils.LevelOfDetail;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeometrySimplifierTest {
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private final GeometryConverter geometryConverter = new GeometryConverter(new SimpleMeterRegistry());
+    private final GeometryFactory geometryFactory = geometryConverter.getGeometryFactory();
+    private final GeometrySimplifier simplifier =
+            new GeometrySimplifier(geometryConverter, new SimpleMeterRegistry(), 16, 100_000);
+
+    @Test
+    void fullDetailIsReturnedAsItIs() {
+        Feature feature = feature(areaWithHole(), TIMESTAMP);
+
+        assertSame(feature.getGeometry(), simplifier.apply(feature, LevelOfDetail.FULL));
+    }
+
+    @Test
+    void smallGeometryIsNotSimplified() {
+        Feature feature = feature(geometryFactory.createPolygon(new Coordinate[]{
+                new Coordinate(0, 0), new Coordinate(10, 0), new Coordinate(10, 10),
+                new Coordinate(0, 10), new Coordinate(0, 0)}), TIMESTAMP);
+        FeatureResponseDto response = response(feature, GeometryEncoding.PACKED);
+
+        assertSame(feature.getGeometry(), simplifier.apply(feature, new LevelOfDetail(0)));
+        assertSame(response, simplifier.apply(response, new LevelOfDetail(0)));
+    }
+
+    @Test
+    void simplifiedGeometryKeepsItsTopology() {
+        Polygon area = areaWithHole();
+
+        Geometry simplified = simplifier.apply(feature(area, TIMESTAMP), new LevelOfDetail(0));
+
+        assertTrue(simplified.getNumPoints() < area.getNumPoints());
+        assertTrue(simplified.isValid());
+        //the hole lies closer to the shell than the tolerance, yet neither is lost nor crosses the other
+        Polygon polygon = (Polygon) simplified;
+        assertEquals(1, polygon.getNumInteriorRing());
+        assertTrue(geometryFactory.createPolygon(polygon.getExteriorRing().getCoordinates())
+                .contains(polygon.getInteriorRingN(0)));
+    }
+
+    @Test
+    void finerZoomKeepsMoreDetail() {
+        Feature feature = feature(areaWithHole(), TIMESTAMP);
+
+        int coarse = simplifier.apply(feature, new LevelOfDetail(0)).getNumPoints();
+        int fine = simplifier.apply(feature, new LevelOfDetail(8)).getNumPoints();
+
+        assertTrue(coarse < fine);
+    }
+
+    @Test
+    void variantIsReusedUntilTheFeatureChanges() {
+        Feature feature = feature(areaWithHole(), TIMESTAMP);
+        Geometry first = simplifier.apply(feature, new LevelOfDetail(4));
+
+        assertSame(first, simplifier.apply(feature, new LevelOfDetail(4)));
+
+        feature.setTimestamp(TIMESTAMP.plusSeconds(1));
+        assertNotSame(first, simplifier.apply(feature, new LevelOfDetail(4)));
+    }
+
+    @Test
+    void responseIsSimplifiedInItsOwnEncoding() {
+        Feature feature = feature(areaWithHole(), TIMESTAMP);
+        FeatureResponseDto response = response(feature, GeometryEncoding.PACKED);
+
+        FeatureResponseDto simplified = simplifier.apply(response, new LevelOfDetail(0));
+
+        assertEquals(GeometryEncoding.PACKED, GeometryEncoding.of(simplified.getGeometry()));
+        assertEquals(simplifier.apply(feature, new LevelOfDetail(0)),
+                geometryConverter.fromProto(simplified.getGeometry()));
+    }
+
+    /**
+     * A jagged 10 by 10 degree square with a square hole half a degree inside its left edge.
+     */
+    private Polygon areaWithHole() {
+        List<Coordinate> shell = new ArrayList<>();
+        double[][] corners = {{0, 0}, {10, 0}, {10, 10}, {0, 10}};
+        for (int side = 0; side < corners.length; side++) {
+            double[] from = corners[side], to = corners[(side + 1) % corners.length];
+            for (int step = 0; step < 50; step++) {
+                //alternately nudged outwards, well below the tolerance at zoom 0
+                double jitter = step % 2 == 0 ? 0 : 0.1;
+                double x = from[0] + (to[0] - from[0]) * step / 50;
+                double y = from[1] + (to[1] - from[1]) * step / 50;
+                shell.add(new Coordinate(x + (to[1] - from[1]) / 10 * jitter, y - (to[0] - from[0]) / 10 * jitter));
+            }
+        }
+        shell.add(shell.getFirst().copy());
+        LinearRing hole = geometryFactory.createLinearRing(new Coordinate[]{
+                new Coordinate(0.5, 4), new Coordinate(0.5, 6), new Coordinate(2.5, 6),
+                new Coordinate(2.5, 4), new Coordinate(0.5, 4)});
+        return geometryFactory.createPolygon(geometryFactory.createLinearRing(shell.toArray(Coordinate[]::new)),
+                new LinearRing[]{hole});
+    }
+
+    private static Feature feature(Geometry geometry, LocalDateTime timestamp) {
+        Feature feature = new Feature();
+        feature.setId(UUID.randomUUID());
+        feature.setGeometry(geometry);
+        feature.setTimestamp(timestamp);
+        return feature;
+    }
+
+    private FeatureResponseDto response(Feature feature, GeometryEncoding encoding) {
+        return FeatureResponseDto.newBuilder()
+                .setId(feature.getId().toString())
+                .setTimestamp(feature.getTimestamp().toString())
+                .setGeometry(geometryConverter.toProto(feature.getGeometry(), encoding))
+                .build();
+    }
+}
@@ -0,0 +1,101 @@
+package com.fkhr.gisapi.spatial;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GridIndexTest {
+    private final GridIndex<String, String> index = new GridIndex<>(1, 16);
+
+    @Test
+    void pointOnACellBoundaryIsFoundFromBothSides() {
+        index.put("p", point(1, 1), "p");
+
+        assertEquals(List.of("p"), query(new Envelope(0.5, 1, 0.5, 1)));
+        assertEquals(List.of("p"), query(new Envelope(1, 1.5, 1, 1.5)));
+        assertEquals(List.of(), query(new Envelope(0, 0.999, 0, 0.999)));
+    }
+
+    @Test
+    void negativeCoordinatesFallInTheCellBelow() {
+        index.put("p", point(-0.5, -0.5), "p");
+
+        assertEquals(List.of("p"), query(new Envelope(-0.6, -0.4, -0.6, -0.4)));
+        assertEquals(List.of(), query(new Envelope(0, 0.5, 0, 0.5)));
+    }
+
+    @Test
+    void entrySpanningSeveralCellsIsVisitedOnce() {
+        index.put("area", new Envelope(0.5, 3.5, 0.5, 3.5), "area");
+
+        assertEquals(List.of("area"), query(new Envelope(0, 4, 0, 4)));
+        assertEquals(List.of("area"), query(new Envelope(2.2, 2.8, 2.2, 2.8)));
+        assertEquals(List.of("area"), query(new Envelope(3, 10, 1, 10)));
+    }
+
+    @Test
+    void oversizedEntryIsStillFound() {
+        index.put("huge", new Envelope(-50, 50, -50, 50), "huge");
+
+        assertEquals(List.of("huge"), query(new Envelope(10, 11, 10, 11)));
+        index.remove("huge");
+        assertEquals(List.of(), query(new Envelope(10, 11, 10, 11)));
+    }
+
+    @Test
+    void replacingAnEntryMovesIt() {
+        index.put("p", point(0.5, 0.5), "first");
+        index.put("p", point(5.5, 5.5), "second");
+
+        assertEquals(List.of(), query(new Envelope(0, 1, 0, 1)));
+        assertEquals(List.of("second"), query(new Envelope(5, 6, 5, 6)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void removeUnlinksEveryCell() {
+        index.put("area", new Envelope(0.5, 2.5, 0.5, 2.5), "area");
+        index.remove("area");
+
+        assertEquals(List.of(), query(new Envelope(0, 3, 0, 3)));
+        assertEquals(0, index.size());
+        assertNull(index.get("area"));
+    }
+
+    @Test
+    void removeIfDropsTheMatchingEntries() {
+        index.put("a", point(0.5, 0.5), "keep");
+        index.put("b", point(1.5, 1.5), "drop");
+        index.put("c", new Envelope(-50, 50, -50, 50), "drop");
+
+        assertEquals(2, index.removeIf("drop"::equals));
+        assertEquals(List.of("keep"), query(new Envelope(-100, 100, -100, 100)));
+    }
+
+    @Test
+    void wideQueryOverFewCellsScansThemAll() {
+        index.put("a", point(0.5, 0.5), "a");
+        index.put("b", point(100.5, 100.5), "b");
+
+        List<String> found = query(new Envelope(-1000, 1000, -1000, 1000));
+        found.sort(null);
+        assertEquals(List.of("a", "b"), found);
+        assertTrue(query(new Envelope(200, 1000, 200, 1000)).isEmpty());
+    }
+
+    private List<String> query(Envelope area) {
+        List<String> found = new ArrayList<>();
+        index.query(area, entry -> found.add(entry.value()));
+        return found;
+    }
+
+    private static Envelope point(double x, double y) {
+        return new Envelope(x, x, y, y);
+    }
+}
@@ -0,0 +1,163 @@
+package com.fkhr.gisapi.spatial;
+
+import com.fkhr.gisapi.FeatureResponseDto;
+import com.fkhr.gisapi.kafka.FeatureStreamHub;
+import com.fkhr.gisapi.kafka.FeatureUpdate;
+import com.fkhr.gisapi.kafka.LatestFeatureStore;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class LivePositionIndexTest {
+    private final GeometryConverter geometryConverter = new GeometryConverter();
+    private final GeometryFactory geometryFactory = geometryConverter.getGeometryFactory();
+    private final LatestFeatureStore latestFeatureStore = mock(LatestFeatureStore.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LivePositionIndex index = new LivePositionIndex(geometryConverter,
+            new PreparedGeometryCache(geometryConverter, meterRegistry, 100_000), mock(FeatureStreamHub.class),
+            latestFeatureStore, meterRegistry, 0.01, 64, 0.001, Duration.ofHours(1));
+
+    @AfterEach
+    void shutdown() {
+        index.shutdown();
+    }
+
+    @Test
+    void nearestLooksAcrossTheAntimeridian() {
+        index.update(feature("west", 179.9, 0));
+        index.update(feature("east", -179.995, 0));
+
+        List<LivePositionIndex.Nearest> nearest = index.nearest(point(179.995, 0), 2, "");
+
+        assertEquals(List.of("east", "west"), nearest.stream().map(n -> n.feature().getId()).toList());
+        //0.01 degree of longitude on the equator
+        assertEquals(1112, nearest.get(0).distance(), 1);
+    }
+
+    @Test
+    void nearestCountsFeaturesAcrossTheAntimeridian() {
+        index.update(feature("east", -179.999, 0));
+        index.update(feature("far", 170, 0));
+
+        List<LivePositionIndex.Nearest> nearest = index.nearest(point(179.999, 0), 1, "");
+
+        assertEquals("east", nearest.get(0).feature().getId());
+    }
+
+    @Test
+    void searchAroundAPointWrapsAtTheAntimeridian() {
+        index.update(feature("east", -179.9995, 10));
+        index.update(feature("elsewhere", -179.99, 10));
+
+        List<FeatureResponseDto> found = index.search(point(179.9998, 10));
+
+        assertEquals(List.of("east"), found.stream().map(FeatureResponseDto::getId).toList());
+    }
+
+    @Test
+    void nearestPrefersMetersOverDegreesAwayFromTheEquator() {
+        //at 60 degrees a degree of longitude is half as long as one of latitude
+        index.update(feature("north", 10, 60.015));
+        index.update(feature("east", 10.025, 60));
+
+        List<LivePositionIndex.Nearest> nearest = index.nearest(point(10, 60), 1, "");
+
+        assertEquals("east", nearest.get(0).feature().getId());
+    }
+
+    @Test
+    void nearestOnlyReturnsTheOwnersFeatures() {
+        index.update(feature("mine", 1, 1));
+        index.update(FeatureUpdate.of(FeatureResponseDto.newBuilder(feature("other", 1.0001, 1).feature())
+                .setOwner("other").build()));
+
+        List<LivePositionIndex.Nearest> nearest = index.nearest(point(1.0001, 1), 5, "owner");
+
+        assertEquals(List.of("mine"), nearest.stream().map(n -> n.feature().getId()).toList());
+    }
+
+    @Test
+    void closerFeatureJustOutsideTheFirstRingWins() {
+        //inside the first ring's envelope but further than its radius, so the search goes on
+        index.update(feature("corner", 0.009, 0.009));
+        index.update(feature("side", 0.011, 0));
+
+        List<LivePositionIndex.Nearest> nearest = index.nearest(point(0, 0), 1, "");
+
+        assertEquals("side", nearest.get(0).feature().getId());
+    }
+
+    @Test
+    void sparseOwnerIsFoundAmongOtherOwnersFeatures() {
+        for (int i = 0; i < 100; i++) {
+            index.update(FeatureUpdate.of(FeatureResponseDto.newBuilder(feature("other-" + i, i * 0.001, 0).feature())
+                    .setOwner("other").build()));
+        }
+        index.update(feature("far", 40, 30));
+
+        List<LivePositionIndex.Nearest> nearest = index.nearest(point(0, 0), 3, "owner");
+
+        assertEquals(List.of("far"), nearest.stream().map(n -> n.feature().getId()).toList());
+    }
+
+    @Test
+    void limitAboveTheIndexSizeReturnsEverythingClosestFirst() {
+        index.update(feature("third", -60, -20));
+        index.update(feature("first", 1, 1));
+        index.update(feature("second", 5, 5));
+
+        List<LivePositionIndex.Nearest> nearest = index.nearest(point(0, 0), 10, "");
+
+        assertEquals(List.of("first", "second", "third"), nearest.stream().map(n -> n.feature().getId()).toList());
+        assertTrue(index.nearest(point(0, 0), 10, "nobody").isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void tombstonedFeaturesAreRemoved() {
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(latestFeatureStore).addRemovalListener(listener.capture());
+        index.update(feature("gone", 1, 1));
+
+        listener.getValue().accept("gone");
+
+        assertEquals(0, index.size());
+        assertTrue(index.search(point(1, 1)).isEmpty());
+    }
+
+    @Test
+    void featuresNotUpdatedExpire() {
+        index.update(feature("stale", 1, 1));
+        long now = System.currentTimeMillis();
+
+        index.expire(now);
+        assertEquals(1, index.size());
+
+        index.expire(now + Duration.ofHours(2).toMillis());
+        assertEquals(0, index.size());
+        assertEquals(1, meterRegistry.get("gis.live-index.expired").counter().count());
+    }
+
+    private FeatureUpdate feature(String id, double x, double y) {
+        return FeatureUpdate.of(FeatureResponseDto.newBuilder().setId(id).setOwner("owner")
+                .setGeometry(geometryConverter.toProto(point(x, y))).build());
+    }
+
+    private Geometry point(double x, double y) {
+        return geometryFactory.createPoint(new Coordinate(x, y));
+    }
+}
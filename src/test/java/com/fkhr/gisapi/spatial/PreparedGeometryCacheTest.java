@@ -0,0 +1,77 @@
+package com.fkhr.gisapi.spatial;
+
+import com.fkhr.gisapi.utils.CustomError;
+import com.fkhr.gisapi.utils.CustomException;
+import com.fkhr.gisapi.utils.GeometryConverter;
+import com.fkhr.gisapi.utils.GeometryEncoding;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PreparedGeometryCacheTest {
+    private static final String AREA = "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GeometryConverter geometryConverter = new GeometryConverter(meterRegistry);
+    private final WKTReader wktReader = new WKTReader(geometryConverter.getGeometryFactory());
+    private final PreparedGeometryCache cache = new PreparedGeometryCache(geometryConverter, meterRegistry, 1_000);
+
+    @Test
+    void equalProtoIsAHitAndNotDecodedAgain() throws ParseException {
+        //separate but equal messages, as two requests would send them
+        com.fkhr.gisapi.Geometry first = geometryConverter.toProto(wktReader.read(AREA), GeometryEncoding.PACKED);
+        com.fkhr.gisapi.Geometry second = geometryConverter.toProto(wktReader.read(AREA), GeometryEncoding.PACKED);
+        double decodedBefore = decoded();
+
+        PreparedGeometry prepared = cache.prepare(first);
+
+        assertSame(prepared, cache.prepare(second));
+        assertEquals(1, decoded() - decodedBefore);
+        assertEquals(1, meterRegistry.get("cache.gets").tags("cache", "prepared_geometry", "result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void equalGeometryIsAHit() throws ParseException {
+        Geometry first = wktReader.read(AREA);
+        Geometry second = wktReader.read(AREA);
+
+        assertSame(cache.prepare(first), cache.prepare(second));
+    }
+
+    @Test
+    void otherGeometryIsPreparedOfItsOwn() throws ParseException {
+        PreparedGeometry area = cache.prepare(wktReader.read(AREA));
+        PreparedGeometry moved = cache.prepare(wktReader.read("POLYGON ((0 0, 10 0, 10 10, 0 10.5, 0 0))"));
+
+        assertNotSame(area, moved);
+        assertEquals(wktReader.read(AREA), area.getGeometry());
+    }
+
+    @Test
+    void malformedGeometryIsRejectedAndNotCached() {
+        com.fkhr.gisapi.Geometry malformed = com.fkhr.gisapi.Geometry.newBuilder()
+                .setType("Polygon")
+                .addPackedCoordinates(0)
+                .build();
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            CustomException exception = assertThrows(CustomException.class, () -> cache.prepare(malformed));
+            assertEquals(CustomError.INVALID_GEOMETRY.getCode(), exception.getCode());
+        }
+    }
+
+    private double decoded() {
+        return meterRegistry.find("gis.geometry.conversion").tag("direction", "from_proto").timers().stream()
+                .mapToDouble(timer -> timer.count())
+                .sum();
+    }
+}
@@ -0,0 +1,205 @@
+package com.fkhr.gisapi.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fkhr.gisapi.FeatureRequestDto;
+import com.fkhr.gisapi.model.Feature;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GeoJsonWriterTest {
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private final GeoJsonWriter writer = new GeoJsonWriter(7, 4);
+    private final GeometryConverter geometryConverter = new GeometryConverter();
+    private final WKTReader wktReader = new WKTReader(geometryConverter.getGeometryFactory());
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "POINT (51.389 35.6892)|[51.389,35.6892]",
+            "LINESTRING (0 0, 1.5 -1)|[[0,0],[1.5,-1]]",
+            "POLYGON ((0 0, 4 0, 4 4, 0 0), (1 1, 2 1, 2 2, 1 1))|[[[0,0],[4,0],[4,4],[0,0]],[[1,1],[2,1],[2,2],[1,1]]]",
+            "MULTIPOINT ((0 0), (1 2))|[[0,0],[1,2]]",
+            "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))|[[[0,0],[1,1]],[[2,2],[3,3]]]",
+            "MULTIPOLYGON (((0 0, 4 0, 4 4, 0 0), (1 1, 2 1, 2 2, 1 1)), ((5 5, 6 5, 6 6, 5 5)))"
+                    + "|[[[[0,0],[4,0],[4,4],[0,0]],[[1,1],[2,1],[2,2],[1,1]]],[[[5,5],[6,5],[6,6],[5,5]]]]"
+    })
+    void writesEveryGeometryTypeTheSameWayFromEverySource(String wkt, String coordinates) throws ParseException {
+        Geometry geometry = wktReader.read(wkt);
+        String expected = "{\"type\":\"" + geometry.getGeometryType() + "\",\"coordinates\":" + coordinates + "}";
+
+        assertEquals(expected, geometryOf(writeCollection(feature(geometry, Map.of()))));
+        for (GeometryEncoding encoding : GeometryEncoding.values()) {
+            FeatureRequestDto request = FeatureRequestDto.newBuilder()
+                    .setGeometry(geometryConverter.toProto(geometry, encoding)).build();
+            assertEquals(expected, geometryOf(writer.write(request).toStringUtf8()), encoding::name);
+        }
+    }
+
+    @Test
+    void coordinatesAreRoundedToThePrecision() throws ParseException {
+        String json = writeCollection(feature(wktReader.read("POINT (1.23456789 -0.00000001)"), Map.of()));
+
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[1.2345679,0]}", geometryOf(json));
+    }
+
+    @Test
+    void unsupportedProtoGeometryTypeIsRejected() {
+        FeatureRequestDto request = FeatureRequestDto.newBuilder()
+                .setGeometry(com.fkhr.gisapi.Geometry.newBuilder().setType("GeometryCollection")).build();
+
+        assertThrows(IllegalArgumentException.class, () -> writer.write(request));
+    }
+
+    @Test
+    void propertyStringsAndKeysAreEscaped() throws IOException {
+        String key = "quote\" backslash\\ tab\t";
+        String value = "line\nbreak \u0001 é € 😀 \"end\"";
+        Struct properties = Struct.newBuilder()
+                .putFields(key, Value.newBuilder().setStringValue(value).build()).build();
+
+        String json = writer.write(FeatureRequestDto.newBuilder().setProperties(properties)
+                .setGeometry(geometryConverter.toProto(point()))
+                .setOwner("o wner").setDescription("</script>").build()).toStringUtf8();
+
+        assertEquals("{\"quote\\\" backslash\\\\ tab\\u0009\":\"line\\u000abreak \\u0001 é € 😀 \\\"end\\\"\"}",
+                json.substring(json.indexOf("\"properties\":") + 13, json.indexOf(",\"owner\"")));
+        JsonNode parsed = objectMapper.readTree(json);
+        assertEquals(value, parsed.get("properties").get(key).asText());
+        assertEquals("o wner", parsed.get("owner").asText());
+        assertEquals("</script>", parsed.get("description").asText());
+    }
+
+    @Test
+    void nestedPropertiesAreEscapedToo() throws IOException {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("tags", List.of("a\"b", Map.of("k\\", "\r")));
+        properties.put("unpaired", "x\uD800y");
+
+        JsonNode parsed = objectMapper.readTree(writeCollection(feature(point(), properties)))
+                .get("features").get(0).get("properties");
+
+        assertEquals("a\"b", parsed.get("tags").get(0).asText());
+        assertEquals("\r", parsed.get("tags").get(1).get("k\\").asText());
+        //replaced like String.getBytes(UTF_8) does
+        assertEquals("x?y", parsed.get("unpaired").asText());
+    }
+
+    @Test
+    void propertyValuesKeepTheirTypes() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("int", 3);
+        properties.put("long", Long.MIN_VALUE);
+        properties.put("whole", 2.0);
+        properties.put("fraction", 0.1);
+        properties.put("flag", true);
+        properties.put("nothing", null);
+
+        String json = writeCollection(feature(point(), properties));
+
+        assertEquals("{\"int\":3,\"long\":-9223372036854775808,\"whole\":2,\"fraction\":0.1,\"flag\":true,\"nothing\":null}",
+                json.substring(json.indexOf("\"properties\":") + 13, json.indexOf(",\"owner\"")));
+    }
+
+    @Test
+    void emptyCollectionIsAValidDocument() throws IOException {
+        String json = writer.writeCollectionChunk(List.of(), true, true).toStringUtf8();
+
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":[]}", json);
+        objectMapper.readTree(json);
+    }
+
+    @Test
+    void chunksConcatenateIntoOneCollection() throws IOException {
+        String json = writer.writeCollectionChunk(List.of(feature(point(), Map.of())), true, false).toStringUtf8()
+                + writer.writeCollectionChunk(List.of(feature(point(), Map.of()), feature(point(), Map.of())), false, false).toStringUtf8()
+                + writer.writeCollectionChunk(List.of(), false, true).toStringUtf8();
+
+        assertEquals(3, objectMapper.readTree(json).get("features").size());
+    }
+
+    @Test
+    void emptyPropertiesAndListsAreWritten() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("list", List.of());
+        properties.put("map", Map.of());
+
+        String json = writeCollection(feature(point(), properties));
+        String noProperties = writer.write(FeatureRequestDto.newBuilder()
+                .setGeometry(geometryConverter.toProto(point()))
+                .setProperties(Struct.newBuilder().putFields("list", Value.newBuilder()
+                        .setListValue(ListValue.getDefaultInstance()).build())).build()).toStringUtf8();
+
+        assertEquals("{\"list\":[],\"map\":{}}",
+                json.substring(json.indexOf("\"properties\":") + 13, json.indexOf(",\"owner\"")));
+        assertEquals("{\"list\":[]}", noProperties.substring(noProperties.indexOf("\"properties\":") + 13,
+                noProperties.indexOf(",\"owner\"")));
+    }
+
+    @Test
+    void nonFiniteNumbersAreRejected() {
+        for (double value : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> writeCollection(feature(point(), Map.of("value", value))));
+            Struct properties = Struct.newBuilder().putFields("value", Value.newBuilder().setNumberValue(value).build()).build();
+            assertThrows(IllegalArgumentException.class, () -> writer.write(FeatureRequestDto.newBuilder()
+                    .setGeometry(geometryConverter.toProto(point())).setProperties(properties).build()));
+            com.fkhr.gisapi.Geometry packed = com.fkhr.gisapi.Geometry.newBuilder().setType("Point")
+                    .addPackedCoordinates(value).addPackedCoordinates(0).build();
+            assertThrows(IllegalArgumentException.class,
+                    () -> writer.write(FeatureRequestDto.newBuilder().setGeometry(packed).build()));
+        }
+    }
+
+    @Test
+    void failedWriteLeavesNothingBehindInThePooledBuffer() {
+        List<ByteString> written = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> writeCollection(feature(point(), Map.of("value", Double.NaN))));
+            written.add(writer.writeCollectionChunk(List.of(), true, true));
+        }
+
+        written.forEach(json -> assertEquals("{\"type\":\"FeatureCollection\",\"features\":[]}", json.toStringUtf8()));
+    }
+
+    private String writeCollection(Feature feature) {
+        return writer.writeCollectionChunk(List.of(feature), true, true).toStringUtf8();
+    }
+
+    /**
+     * The geometry member of the only or first feature in {@code json}.
+     */
+    private static String geometryOf(String json) {
+        return json.substring(json.indexOf("\"geometry\":") + 11, json.indexOf(",\"properties\""));
+    }
+
+    private static Feature feature(Geometry geometry, Map<String, Object> properties) {
+        return new Feature(ID, "owner", "description", geometry, LocalDateTime.of(2024, 1, 2, 3, 4, 5), properties);
+    }
+
+    private Geometry point() {
+        return geometryConverter.getGeometryFactory().createPoint(new Coordinate(1, 2));
+    }
+}
@@ -0,0 +1,137 @@
+package com.fkhr.gisapi.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeometryConverterTest {
+    private final GeometryConverter geometryConverter = new GeometryConverter();
+    private final WKTReader wktReader = new WKTReader(geometryConverter.getGeometryFactory());
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "POINT (51.389 35.6892)",
+            "LINESTRING (0 0, 1 1, 2 0.5)",
+            "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1), (5 5, 6 5, 6 6, 5 5))",
+            "MULTIPOINT ((0 0), (1 2), (-3 4))",
+            "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3, 4 2), (5 5, 6 6))",
+            "MULTIPOLYGON (((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1)), ((20 20, 30 20, 30 30, 20 20)),"
+                    + " ((40 40, 50 40, 50 50, 40 40), (41 41, 42 41, 42 42, 41 41), (45 45, 46 45, 46 46, 45 45)))"
+    })
+    void roundTripsInBothEncodings(String wkt) throws ParseException {
+        Geometry geometry = wktReader.read(wkt);
+
+        for (GeometryEncoding encoding : GeometryEncoding.values()) {
+            com.fkhr.gisapi.Geometry proto = geometryConverter.toProto(geometry, encoding);
+
+            assertEquals(encoding, GeometryEncoding.of(proto));
+            assertEquals(geometry.getGeometryType(), proto.getType());
+            Geometry decoded = geometryConverter.fromProto(proto);
+            assertTrue(geometry.equalsExact(decoded), () -> encoding + ": " + decoded);
+            assertEquals(GeometryConverter.SRID, decoded.getSRID());
+        }
+    }
+
+    @Test
+    void packedPolygonMarksWhereEachHoleStarts() throws ParseException {
+        com.fkhr.gisapi.Geometry proto = geometryConverter.toProto(
+                wktReader.read("POLYGON ((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1), (5 5, 6 5, 6 6, 5 5))"),
+                GeometryEncoding.PACKED);
+
+        assertEquals(List.of(4, 8), proto.getPartOffsetsList());
+        assertEquals(24, proto.getPackedCoordinatesCount());
+        assertFalse(proto.hasCoordinates());
+    }
+
+    @Test
+    void packedMultiPolygonMarksWhereEachPolygonStarts() throws ParseException {
+        com.fkhr.gisapi.Geometry proto = geometryConverter.toProto(wktReader.read(
+                "MULTIPOLYGON (((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1)), ((20 20, 30 20, 30 30, 20 20)))"),
+                GeometryEncoding.PACKED);
+
+        assertEquals(List.of(4, 8), proto.getPartOffsetsList());
+        assertEquals(List.of(2), proto.getPolygonOffsetsList());
+    }
+
+    @Test
+    void listValueMultiPolygonNestsPolygonsRingsAndPoints() throws ParseException {
+        com.fkhr.gisapi.Geometry proto = geometryConverter.toProto(wktReader.read(
+                "MULTIPOLYGON (((0 0, 10 0, 10 10, 0 0)), ((20 20, 30 20, 30 30, 20 20)))"),
+                GeometryEncoding.LIST_VALUE);
+
+        assertEquals(2, proto.getCoordinates().getValuesCount());
+        assertEquals(30, proto.getCoordinates().getValues(1).getListValue().getValues(0).getListValue()
+                .getValues(1).getListValue().getValues(0).getNumberValue());
+    }
+
+    @Test
+    void adaptSwitchesEncodingWithoutChangingTheGeometry() throws ParseException {
+        Geometry geometry = wktReader.read("MULTILINESTRING ((0 0, 1 1), (2 2, 3 3, 4 2))");
+        com.fkhr.gisapi.Geometry listValue = geometryConverter.toProto(geometry, GeometryEncoding.LIST_VALUE);
+
+        com.fkhr.gisapi.Geometry packed = geometryConverter.adapt(listValue, GeometryEncoding.PACKED);
+        com.fkhr.gisapi.Geometry back = geometryConverter.adapt(packed, GeometryEncoding.LIST_VALUE);
+
+        assertEquals(GeometryEncoding.PACKED, GeometryEncoding.of(packed));
+        assertEquals(List.of(2), packed.getPartOffsetsList());
+        assertEquals(listValue, back);
+        assertTrue(geometry.equalsExact(geometryConverter.fromProto(packed)));
+    }
+
+    @Test
+    void adaptKeepsAGeometryAlreadyInTheRequestedEncoding() throws ParseException {
+        com.fkhr.gisapi.Geometry packed = geometryConverter.toProto(wktReader.read("POINT (1 2)"),
+                GeometryEncoding.PACKED);
+
+        assertEquals(packed, geometryConverter.adapt(packed, GeometryEncoding.PACKED));
+    }
+
+    static Stream<Arguments> malformedPacked() {
+        List<Double> square = List.of(0d, 0d, 10d, 0d, 10d, 10d, 0d, 0d);
+        List<Double> twoSquares = List.of(0d, 0d, 10d, 0d, 10d, 10d, 0d, 0d, 1d, 1d, 2d, 1d, 2d, 2d, 1d, 1d);
+        return Stream.of(
+                Arguments.of("odd coordinate count", packed("LineString", List.of(0d, 0d, 1d), List.of(), List.of())),
+                Arguments.of("point with two coordinates", packed("Point", List.of(0d, 0d, 1d, 1d), List.of(), List.of())),
+                Arguments.of("offsets on a line", packed("LineString", square, List.of(2), List.of())),
+                Arguments.of("offsets going backwards", packed("MultiLineString", twoSquares, List.of(6, 2), List.of())),
+                Arguments.of("repeated offset", packed("MultiLineString", twoSquares, List.of(4, 4), List.of())),
+                Arguments.of("offset at the end", packed("Polygon", square, List.of(4), List.of())),
+                Arguments.of("offset past the end", packed("Polygon", square, List.of(9), List.of())),
+                Arguments.of("negative offset", packed("MultiLineString", square, List.of(-1), List.of())),
+                Arguments.of("polygon offset past the rings", packed("MultiPolygon", twoSquares, List.of(4), List.of(2))),
+                Arguments.of("polygon offsets on a polygon", packed("Polygon", twoSquares, List.of(4), List.of(1))),
+                Arguments.of("ring not closed", packed("Polygon", List.of(0d, 0d, 10d, 0d, 10d, 10d, 0d, 10d), List.of(), List.of())),
+                Arguments.of("unsupported type", packed("GeometryCollection", square, List.of(), List.of())));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("malformedPacked")
+    void malformedPackedGeometryIsInvalid(String description, com.fkhr.gisapi.Geometry proto) {
+        CustomException exception = assertThrows(CustomException.class, () -> geometryConverter.fromProto(proto));
+
+        assertEquals(CustomError.INVALID_GEOMETRY.getCode(), exception.getCode());
+    }
+
+    private static com.fkhr.gisapi.Geometry packed(String type, List<Double> coordinates, List<Integer> partOffsets,
+                                                   List<Integer> polygonOffsets) {
+        return com.fkhr.gisapi.Geometry.newBuilder()
+                .setType(type)
+                .addAllPackedCoordinates(coordinates)
+                .addAllPartOffsets(partOffsets)
+                .addAllPolygonOffsets(polygonOffsets)
+                .build();
+    }
+}
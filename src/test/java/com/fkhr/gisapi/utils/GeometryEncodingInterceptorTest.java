@@ -0,0 +1,82 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class GeometryEncodingInterceptorTest {
+    private final GeometryEncodingInterceptor interceptor = new GeometryEncodingInterceptor();
+    private GeometryEncoding encoding;
+    private LevelOfDetail levelOfDetail;
+
+    @Test
+    void packedIsNegotiatedInAnyCase() {
+        assertEquals(GeometryEncoding.PACKED, negotiate(headers(GeometryEncoding.HEADER, "packed")));
+        assertEquals(GeometryEncoding.PACKED, negotiate(headers(GeometryEncoding.HEADER, "PACKED")));
+    }
+
+    @Test
+    void listValueIsTheDefault() {
+        assertEquals(GeometryEncoding.LIST_VALUE, negotiate(new Metadata()));
+        assertEquals(GeometryEncoding.LIST_VALUE, negotiate(headers(GeometryEncoding.HEADER, "geojson")));
+        assertEquals(GeometryEncoding.LIST_VALUE, negotiate(headers(GeometryEncoding.HEADER, "")));
+    }
+
+    @Test
+    void contextIsOnlySetForTheCall() {
+        negotiate(headers(GeometryEncoding.HEADER, "packed"));
+
+        assertEquals(GeometryEncoding.LIST_VALUE, GeometryEncoding.current());
+    }
+
+    @Test
+    void levelOfDetailIsReadFromTheZoomHeader() {
+        negotiate(headers(LevelOfDetail.ZOOM_HEADER, "12"));
+
+        assertEquals(new LevelOfDetail(12), levelOfDetail);
+        assertEquals(GeometryEncoding.LIST_VALUE, encoding);
+    }
+
+    @Test
+    void toleranceIsRoundedToTheFirstZoomAtLeastThatDetailed() {
+        //one pixel at zoom 10 is 360 / 2^18 degrees
+        negotiate(headers(LevelOfDetail.TOLERANCE_HEADER, String.valueOf(360.0 / (1 << 18) * 1.5)));
+
+        assertEquals(new LevelOfDetail(10), levelOfDetail);
+    }
+
+    @Test
+    void unreadableLevelOfDetailMeansFullDetail() {
+        negotiate(headers(LevelOfDetail.ZOOM_HEADER, "close"));
+        assertTrue(levelOfDetail.isFull());
+
+        negotiate(headers(LevelOfDetail.ZOOM_HEADER, "30"));
+        assertTrue(levelOfDetail.isFull());
+
+        negotiate(new Metadata());
+        assertEquals(LevelOfDetail.FULL, levelOfDetail);
+    }
+
+    @SuppressWarnings("unchecked")
+    private GeometryEncoding negotiate(Metadata headers) {
+        ServerCallHandler<Object, Object> handler = (call, ignored) -> {
+            encoding = GeometryEncoding.current();
+            levelOfDetail = LevelOfDetail.current();
+            return new ServerCall.Listener<>() {
+            };
+        };
+        interceptor.interceptCall(mock(ServerCall.class), headers, handler);
+        return encoding;
+    }
+
+    private static Metadata headers(Metadata.Key<String> key, String value) {
+        Metadata headers = new Metadata();
+        headers.put(key, value);
+        return headers;
+    }
+}
@@ -0,0 +1,36 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GrpcExceptionMapperTest {
+    private final GrpcExceptionMapper mapper = new GrpcExceptionMapper();
+
+    @Test
+    void badRequestIsInvalidArgumentWithTheCause() {
+        StatusException status = mapper.handleException(new CustomException(CustomError.INVALID_GEOMETRY,
+                new IllegalArgumentException("packed_coordinates holds an odd number of values")));
+
+        assertEquals(Status.Code.INVALID_ARGUMENT, status.getStatus().getCode());
+        assertEquals("invalid_geometry: packed_coordinates holds an odd number of values",
+                status.getStatus().getDescription());
+    }
+
+    @Test
+    void missingAndDuplicateFeaturesKeepTheirMeaning() {
+        assertEquals(Status.Code.NOT_FOUND,
+                mapper.handleException(new CustomException(CustomError.FEATURE_NOT_FOUND)).getStatus().getCode());
+        assertEquals(Status.Code.ALREADY_EXISTS,
+                mapper.handleException(new CustomException(CustomError.FEATURE_ALREADY_EXIST)).getStatus().getCode());
+    }
+
+    @Test
+    void otherExceptionsAreLeftToTheDefaultHandling() {
+        assertNull(mapper.handleException(new IllegalStateException("boom")));
+        assertNull(mapper.handleException(new CustomException(CustomError.FEATURE_NOT_UPDATED)));
+    }
+}
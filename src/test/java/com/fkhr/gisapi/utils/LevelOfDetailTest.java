@@ -0,0 +1,67 @@
+package com.fkhr.gisapi.utils;
+
+import io.grpc.Metadata;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LevelOfDetailTest {
+
+    @Test
+    void toleranceIsOnePixelOfATileAndHalvesPerZoom() {
+        assertEquals(360.0 / 256, new LevelOfDetail(0).tolerance());
+        for (int zoom = 1; zoom <= LevelOfDetail.MAX_ZOOM; zoom++) {
+            assertEquals(new LevelOfDetail(zoom - 1).tolerance() / 2, new LevelOfDetail(zoom).tolerance());
+        }
+    }
+
+    @Test
+    void zoomHeaderIsTakenAsItIs() {
+        assertEquals(new LevelOfDetail(0), LevelOfDetail.fromHeaders(headers(LevelOfDetail.ZOOM_HEADER, "0")));
+        assertEquals(new LevelOfDetail(14), LevelOfDetail.fromHeaders(headers(LevelOfDetail.ZOOM_HEADER, " 14 ")));
+        assertEquals(new LevelOfDetail(22), LevelOfDetail.fromHeaders(headers(LevelOfDetail.ZOOM_HEADER, "22")));
+    }
+
+    @Test
+    void zoomOutsideTheLevelsIsFullDetail() {
+        assertTrue(LevelOfDetail.fromHeaders(headers(LevelOfDetail.ZOOM_HEADER, "-1")).isFull());
+        assertTrue(LevelOfDetail.fromHeaders(headers(LevelOfDetail.ZOOM_HEADER, "23")).isFull());
+    }
+
+    @Test
+    void toleranceIsRoundedToTheFirstLevelAtLeastThatDetailed() {
+        assertEquals(new LevelOfDetail(0), LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, "1.40625")));
+        //between the tolerances of zoom 0 and 1
+        assertEquals(new LevelOfDetail(1), LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, "1.0")));
+        //coarser than a whole tile
+        assertEquals(new LevelOfDetail(0), LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, "10")));
+        assertEquals(new LevelOfDetail(10),
+                LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, String.valueOf(360.0 / (256 << 10)))));
+        //finer than the last level
+        assertTrue(LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, "1e-9")).isFull());
+    }
+
+    @Test
+    void zoomWinsOverTolerance() {
+        Metadata headers = headers(LevelOfDetail.ZOOM_HEADER, "3");
+        headers.put(LevelOfDetail.TOLERANCE_HEADER, "1e-6");
+
+        assertEquals(new LevelOfDetail(3), LevelOfDetail.fromHeaders(headers));
+    }
+
+    @Test
+    void missingOrUnreadableValuesAreFullDetail() {
+        assertTrue(LevelOfDetail.fromHeaders(new Metadata()).isFull());
+        assertTrue(LevelOfDetail.fromHeaders(headers(LevelOfDetail.ZOOM_HEADER, "street")).isFull());
+        assertTrue(LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, "0")).isFull());
+        assertTrue(LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, "-0.5")).isFull());
+        assertTrue(LevelOfDetail.fromHeaders(headers(LevelOfDetail.TOLERANCE_HEADER, "fine")).isFull());
+    }
+
+    private static Metadata headers(Metadata.Key<String> key, String value) {
+        Metadata headers = new Metadata();
+        headers.put(key, value);
+        return headers;
+    }
+}